@@ -116,6 +116,15 @@ public class Globals {
      * Maximum number of back-step operations to buffer
      */
     public static final int maximumBacksteps = getBackstepLimit();
+    /**
+     * Maximum number of older back-step operations to keep in a temporary file, 0 for none
+     */
+    public static final int maximumSpilledBacksteps = getBackstepSpillLimit();
+    /**
+     * Number of instructions the simulator may run per acquisition of memoryAndRegistersLock
+     * when nothing requires it to stop after every instruction
+     */
+    public static final int simulationQuantum = getSimulationQuantum();
     /**
      * Copyright years
      */
@@ -191,6 +200,16 @@ public class Globals {
         return getIntegerProperty(configPropertiesFile, "BackstepLimit", 1000);
     }
 
+    // Read limit on back-step operations kept in a temporary file from properties file.
+    private static int getBackstepSpillLimit() {
+        return getIntegerProperty(configPropertiesFile, "BackstepSpillLimit", 0);
+    }
+
+    // Read simulation quantum (instructions per lock acquisition) from properties file.
+    private static int getSimulationQuantum() {
+        return getIntegerProperty(configPropertiesFile, "SimulationQuantum", 1000);
+    }
+
     // Read ASCII default display character for non-printing characters, from properties file.
     public static String getAsciiNonPrint() {
         String anp = getPropertyEntry(configPropertiesFile, "AsciiNonPrint");
@@ -3,17 +3,23 @@ package rars;
 import rars.riscv.dump.DumpFormat;
 import rars.riscv.dump.DumpFormatLoader;
 import rars.riscv.hardware.*;
+import rars.simulator.Profiler;
+import rars.simulator.Timing;
+import rars.simulator.TimingModel;
 import rars.simulator.ProgramArgumentList;
 import rars.simulator.Simulator;
+import rars.simulator.TraceRecorder;
 import rars.util.Binary;
 import rars.util.FilenameFinder;
 import rars.util.MemoryDump;
+import rars.util.SystemIO;
 import rars.venus.VenusUI;
 
 import javax.swing.*;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -60,12 +66,19 @@ public class Launch {
     /**
      * Main takes a number of command line arguments.<br>
      * Usage:  rars  [options] filename<br>
+     * or:  rars test [options] files, directories or globs -- see TestRunner<br>
      * Valid options (not case sensitive, separate by spaces) are:<br>
      * a  -- assemble only, do not simulate<br>
      * ad  -- both a and d<br>
      * ae<n>  -- terminate RARS with integer exit code <n> if an assemble error occurs.<br>
      * ascii  -- display memory or register contents interpreted as ASCII
      * b  -- brief - do not display register/memory address along with contents<br>
+     * bb  -- Basic Blocks - run frequently executed basic blocks straight through, compiled to JVM bytecode (faster, interrupts are taken between blocks)<br>
+     * bp  -- simulate branch predictors and display how often each was wrong.  Option has 1 argument, e.g.<br>
+     * <tt>bp bimodal,gshare:16384:14,tournament,tage</tt>.  See BranchPrediction for the predictors and their sizes.<br>
+     * cache  -- simulate instruction and data caches and display their hits and misses.  Option has 1 argument, e.g.<br>
+     * <tt>cache l1i=16k:2:64,l1d=16k:4:64:plru,l2=256k:8:64,mem=100</tt>.  See CacheHierarchy for the format.<br>
+     * With <tt>timing cache</tt> these are the caches the model charges misses from.<br>
      * d  -- print debugging statements<br>
      * da  -- both a and d<br>
      * dec  -- display memory or register contents in decimal.<br>
@@ -77,6 +90,8 @@ public class Launch {
      * h  -- display help.  Use by itself and with no filename</br>
      * hex  -- display memory or register contents in hexadecimal (default)<br>
      * ic  -- display count of basic instructions 'executed'");
+     * images  -- keep assembled programs in a directory and load them from there instead of assembling the<br>
+     * same sources again.  Option has 1 argument, e.g. <tt>images &lt;directory&gt;</tt>.  See ProgramImage.<br>
      * mc  -- set memory configuration.  Option has 1 argument, e.g.<br>
      * <tt>mc &lt;config$gt;</tt>, where &lt;config$gt; is <tt>Default</tt><br>
      * for the RARS default 32-bit address space, <tt>CompactDataAtZero</tt> for<br>
@@ -86,9 +101,20 @@ public class Launch {
      * nc  -- do not display copyright notice (for cleaner redirected/piped output).</br>
      * np  -- No Pseudo-instructions allowed ("ne" will work also).<br>
      * p  -- Project mode - assemble all files in the same directory as given file.<br>
+     * profile  -- count the instructions executed per function and call stack.  Option has 1 argument, e.g.<br>
+     * <tt>profile &lt;file&gt;</tt>.  Call stacks go to the file in collapsed (flame graph) format,<br>
+     * the counts per function and the hottest instructions to standard out.  See Profiler.<br>
+     * ps<n>  -- with profile, count only every <n>th instruction<br>
+     * resume  -- start the run from a checkpoint file saved by the Checkpoint syscall.  Option has 1 argument, e.g.<br>
+     * <tt>resume &lt;file&gt;</tt>.  The program must still be given and is assembled as usual.<br>
      * se<n>  -- terminate RARS with integer exit code <n> if a simulation (run) error occurs.<br>
      * sm  -- Start execution at Main - Execution will start at program statement globally labeled main.<br>
      * smc  -- Self Modifying Code - Program can write and branch to either text or data segment<br>
+     * timing  -- estimate the cycles the program takes with a timing model.  Option has 1 argument, e.g.<br>
+     * <tt>timing pipeline</tt> or <tt>timing cache</tt>.  The cycle CSR counts the model's cycles, and the cycles per<br>
+     * instruction are displayed at the end of the run.  See Timing.<br>
+     * trace  -- record a binary trace of every executed instruction to a file.  Option has 1 argument, e.g.<br>
+     * <tt>trace &lt;file&gt;</tt>.  See TraceRecorder for the format.<br>
      * we  -- assembler Warnings will be considered Errors<br>
      * <n>  -- where <n> is an integer maximum count of steps to simulate.<br>
      * If 0, negative or not specified, there is no maximum.<br>
@@ -115,6 +141,7 @@ public class Launch {
     private boolean startAtMain; // Whether to start execution at statement labeled 'main'
     private boolean countInstructions; // Whether to count and report number of instructions executed
     private boolean selfModifyingCode; // Whether to allow self-modifying code (e.g. write to text segment)
+    private boolean blockExecution; // Whether to run hot basic blocks straight through
     private static final String rangeSeparator = "-";
     private static final int memoryWordsPerLine = 4; // display 4 memory words, tab separated, per line
     private static final int DECIMAL = 0; // memory and register display format
@@ -127,14 +154,57 @@ public class Launch {
     private int maxSteps;
     private int instructionCount;
     private PrintStream out; // stream for display of command line output
+    private PrintStream err; // stream RARS messages go to with the "me" option
     private ArrayList<String[]> dumpTriples = null; // each element holds 3 arguments for dump option
     private ArrayList<String> programArgumentList; // optional program args for program (becomes argc, argv)
+    private String resumeFile; // checkpoint to start the run from, or null
+    private String imageDirectory; // where assembled program images are kept, or null
+    private String traceFile; // file to record an execution trace to, or null
+    private String profileFile; // file to write profiled call stacks to, or null
+    private int profilePeriod; // count every profilePeriod-th instruction when profiling
+    private String timingModelName; // model to estimate cycles with, or null
+    private CacheHierarchy caches; // caches to simulate, or null
+    private ArrayList<BranchPredictor> branchPredictors; // predictors to compare, or null
     private int assembleErrorExitCode;  // RARS command exit code to return if assemble error occurs
     private int simulateErrorExitCode;// RARS command exit code to return if simulation error occurs
 
     public static void main(String[] args){
+        if (args.length > 0 && args[0].toLowerCase().equals("test")) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(TestRunner.run(args, System.out));
+        }
         new Launch(args);
     }
+
+    /**
+     * Runs RARS on a command line the way main does, but returns the exit code instead of
+     * exiting the JVM.  Machine calls this inside its own class loader, which gives every
+     * Machine separate copies of the otherwise global memory, registers and I/O state.
+     *
+     * @param args the command line arguments, not empty
+     * @param in   where the program reads standard input from
+     * @param out  where the program output and RARS messages go
+     * @param err  where the program writes standard error, and RARS messages with the "me" option
+     * @return the exit code RARS would exit with
+     */
+    public static int run(String[] args, InputStream in, PrintStream out, PrintStream err) {
+        Globals.initialize(false);
+        SystemIO.setStandardStreams(in, out, err);
+        // Leave nothing behind from an earlier run in the same class loader.  Settings start
+        // from the defaults every time, and option changes are not saved for the next run.
+        Globals.settings = new Settings(false, false);
+        Globals.debug = false;
+        Globals.memory.deleteObservers();
+        RegisterFile.resetRegisters();
+        FloatingPointRegisterFile.resetRegisters();
+        ControlAndStatusRegisterFile.resetRegisters();
+        InterruptController.reset();
+        LoadReservation.reset();
+        SystemIO.resetFiles();
+        Simulator.getInstance().resetInstructionCount();
+        return new Launch().runCommandLine(args, out, err);
+    }
+
     private Launch(String[] args) {
         boolean gui = (args.length == 0);
         Globals.initialize(gui);
@@ -143,34 +213,45 @@ public class Launch {
         } else { // running from command line.
             // assure command mode works in headless environment (generates exception if not)
             System.setProperty("java.awt.headless", "true");
-            simulate = true;
-            displayFormat = HEXADECIMAL;
-            verbose = true;
-            assembleProject = false;
-            pseudo = true;
-            warningsAreErrors = false;
-            startAtMain = false;
-            countInstructions = false;
-            selfModifyingCode = false;
-            instructionCount = 0;
-            assembleErrorExitCode = 0;
-            simulateErrorExitCode = 0;
-            registerDisplayList = new ArrayList<>();
-            memoryDisplayList = new ArrayList<>();
-            filenameList = new ArrayList<>();
-            MemoryConfigurations.setCurrentConfiguration(MemoryConfigurations.getDefaultConfiguration());
-            // do NOT use Globals.program for command line RARS -- it triggers 'backstep' log.
-            code = new RISCVprogram();
-            maxSteps = -1;
-            out = System.out;
-            if (parseCommandArgs(args)) {
-                runCommand();
-                dumpSegments();
-            }
-            System.exit(Globals.exitCode);
+            System.exit(runCommandLine(args, System.out, System.err));
         }
     }
 
+    private Launch() {
+    }
+
+    private int runCommandLine(String[] args, PrintStream out, PrintStream err) {
+        simulate = true;
+        displayFormat = HEXADECIMAL;
+        verbose = true;
+        assembleProject = false;
+        pseudo = true;
+        warningsAreErrors = false;
+        startAtMain = false;
+        countInstructions = false;
+        selfModifyingCode = false;
+        blockExecution = false;
+        profilePeriod = 1;
+        instructionCount = 0;
+        assembleErrorExitCode = 0;
+        simulateErrorExitCode = 0;
+        registerDisplayList = new ArrayList<>();
+        memoryDisplayList = new ArrayList<>();
+        filenameList = new ArrayList<>();
+        MemoryConfigurations.setCurrentConfiguration(MemoryConfigurations.getDefaultConfiguration());
+        // do NOT use Globals.program for command line RARS -- it triggers 'backstep' log.
+        code = new RISCVprogram();
+        maxSteps = -1;
+        this.out = out;
+        this.err = err;
+        Globals.exitCode = 0;
+        if (parseCommandArgs(args)) {
+            runCommand();
+            dumpSegments();
+        }
+        return Globals.exitCode;
+    }
+
     private void displayAllPostMortem() {
         displayMiscellaneousPostMortem();
         displayRegistersPostMortem();
@@ -228,6 +309,20 @@ public class Launch {
     }
 
 
+    /////////////////////////////////////////////////////////////
+    // Write the results of profiling.  See "profile" option.
+    //
+
+    private void writeProfile() {
+        try (PrintStream collapsed = new PrintStream(new File(profileFile))) {
+            Profiler.writeCollapsed(collapsed);
+        } catch (FileNotFoundException e) {
+            out.println("Could not write profile: " + e.getMessage());
+        }
+        out.println();
+        Profiler.writeReport(out, 20);
+    }
+
     /////////////////////////////////////////////////////////////////
     // There are no command arguments, so run in interactive mode by
     // launching the GUI-fronted integrated development environment.
@@ -305,6 +400,87 @@ public class Launch {
                 }
                 continue;
             }
+            if (args[i].toLowerCase().equals("images")) {
+                if (args.length <= (i + 1)) {
+                    out.println("Images command line argument requires a directory name.");
+                    argsOK = false;
+                } else {
+                    imageDirectory = args[++i];
+                }
+                continue;
+            }
+            if (args[i].toLowerCase().equals("resume")) {
+                if (args.length <= (i + 1)) {
+                    out.println("Resume command line argument requires a checkpoint file name.");
+                    argsOK = false;
+                } else {
+                    resumeFile = args[++i];
+                }
+                continue;
+            }
+            if (args[i].toLowerCase().equals("trace")) {
+                if (args.length <= (i + 1)) {
+                    out.println("Trace command line argument requires a file name.");
+                    argsOK = false;
+                } else {
+                    traceFile = args[++i];
+                }
+                continue;
+            }
+            if (args[i].toLowerCase().equals("profile")) {
+                if (args.length <= (i + 1)) {
+                    out.println("Profile command line argument requires a file name.");
+                    argsOK = false;
+                } else {
+                    profileFile = args[++i];
+                }
+                continue;
+            }
+            if (args[i].toLowerCase().equals("timing")) {
+                if (args.length <= (i + 1)) {
+                    out.println("Timing command line argument requires a model name.");
+                    argsOK = false;
+                } else {
+                    timingModelName = args[++i];
+                    if (Timing.createModel(timingModelName) == null) {
+                        out.println("Invalid timing model: " + args[i] + ".  Valid models are "
+                                + String.join(", ", Timing.getModelNames()) + ".");
+                        argsOK = false;
+                    }
+                }
+                continue;
+            }
+            if (args[i].toLowerCase().equals("bp")) {
+                if (args.length <= (i + 1)) {
+                    out.println("Branch prediction command line argument requires a list of predictors.");
+                    argsOK = false;
+                } else {
+                    branchPredictors = new ArrayList<>();
+                    try {
+                        for (String predictor : args[++i].split(",")) {
+                            branchPredictors.add(BranchPrediction.createPredictor(predictor));
+                        }
+                    } catch (IllegalArgumentException e) {
+                        out.println("Invalid branch predictor: " + e.getMessage());
+                        argsOK = false;
+                    }
+                }
+                continue;
+            }
+            if (args[i].toLowerCase().equals("cache")) {
+                if (args.length <= (i + 1)) {
+                    out.println("Cache command line argument requires a description of the caches.");
+                    argsOK = false;
+                } else {
+                    try {
+                        caches = CacheHierarchy.parse(args[++i]);
+                    } catch (IllegalArgumentException e) {
+                        out.println("Invalid caches: " + e.getMessage());
+                        argsOK = false;
+                    }
+                }
+                continue;
+            }
             if (args[i].toLowerCase().equals("mc")) {
                 String configName = args[++i];
                 MemoryConfiguration config = MemoryConfigurations.getConfigurationByName(configName);
@@ -336,6 +512,18 @@ public class Launch {
                     // Let it fall thru and get handled by catch-all
                 }
             }
+            // Set profile sampling period
+            if (args[i].toLowerCase().indexOf("ps") == 0) {
+                String s = args[i].substring(2);
+                try {
+                    profilePeriod = Integer.decode(s);
+                    if (profilePeriod > 0) {
+                        continue;
+                    }
+                } catch (NumberFormatException nfe) {
+                    // Let it fall thru and get handled by catch-all
+                }
+            }
             if (args[i].toLowerCase().equals("d")) {
                 Globals.debug = true;
                 continue;
@@ -370,6 +558,10 @@ public class Launch {
                 verbose = false;
                 continue;
             }
+            if (args[i].toLowerCase().equals("bb")) {
+                blockExecution = true;
+                continue;
+            }
             if (args[i].toLowerCase().equals("np") || args[i].toLowerCase().equals("ne")) {
                 pseudo = false;
                 continue;
@@ -448,6 +640,7 @@ public class Launch {
         }
 
         Globals.getSettings().setBooleanSettingNonPersistent(Settings.Bool.SELF_MODIFYING_CODE_ENABLED, selfModifyingCode);
+        Globals.getSettings().setBooleanSettingNonPersistent(Settings.Bool.BLOCK_EXECUTION_ENABLED, blockExecution);
         File mainFile = new File(filenameList.get(0)).getAbsoluteFile();// First file is "main" file
         ArrayList<String> filesToAssemble;
         if (assembleProject) {
@@ -472,36 +665,92 @@ public class Launch {
         } else {
             filesToAssemble = FilenameFinder.getFilenameList(filenameList, FilenameFinder.MATCH_ALL_EXTENSIONS);
         }
-        try {
-            if (Globals.debug) {
-                out.println("--------  TOKENIZING BEGINS  -----------");
+        ProgramImage image = null;
+        String imageWarnings = null;
+        if (imageDirectory != null) {
+            try {
+                image = new ProgramImage(new File(imageDirectory), filesToAssemble, mainFile.getAbsolutePath(),
+                        pseudo, warningsAreErrors);
+                imageWarnings = image.load(code);
+            } catch (IOException e) {
+                // a file could not be read; assembling reports it
             }
-            ArrayList<RISCVprogram> programsToAssemble =
-                    code.prepareFilesForAssembly(filesToAssemble, mainFile.getAbsolutePath(), null);
-            if (Globals.debug) {
-                out.println("--------  ASSEMBLY BEGINS  -----------");
+        }
+        if (imageWarnings != null) {
+            if (imageWarnings.length() > 0) {
+                out.println(imageWarnings);
             }
-            // Added logic to check for warnings and print if any. DPS 11/28/06
-            ErrorList warnings = code.assemble(programsToAssemble, pseudo, warningsAreErrors);
-            if (warnings != null && warnings.warningsOccurred()) {
-                out.println(warnings.generateWarningReport());
+        } else {
+            try {
+                if (Globals.debug) {
+                    out.println("--------  TOKENIZING BEGINS  -----------");
+                }
+                ArrayList<RISCVprogram> programsToAssemble =
+                        code.prepareFilesForAssembly(filesToAssemble, mainFile.getAbsolutePath(), null);
+                if (Globals.debug) {
+                    out.println("--------  ASSEMBLY BEGINS  -----------");
+                }
+                // Added logic to check for warnings and print if any. DPS 11/28/06
+                ErrorList warnings = code.assemble(programsToAssemble, pseudo, warningsAreErrors);
+                if (warnings != null && warnings.warningsOccurred()) {
+                    out.println(warnings.generateWarningReport());
+                }
+                if (image != null) {
+                    try {
+                        image.save(code, programsToAssemble, warnings);
+                    } catch (IOException e) {
+                        out.println("Could not save program image: " + e.getMessage());
+                    }
+                }
+            } catch (AssemblyException e) {
+                Globals.exitCode = assembleErrorExitCode;
+                out.println(e.errors().generateErrorAndWarningReport());
+                out.println("Processing terminated due to errors.");
+                return;
             }
-        } catch (AssemblyException e) {
-            Globals.exitCode = assembleErrorExitCode;
-            out.println(e.errors().generateErrorAndWarningReport());
-            out.println("Processing terminated due to errors.");
-            return;
         }
         if (simulate) {
-            RegisterFile.initializeProgramCounter(startAtMain); // DPS 3/9/09
+            if (resumeFile != null) {
+                try {
+                    Checkpoint.restore(new File(resumeFile));
+                } catch (IOException e) {
+                    Globals.exitCode = simulateErrorExitCode;
+                    out.println("Could not resume from checkpoint: " + e.getMessage());
+                    return;
+                }
+            } else {
+                RegisterFile.initializeProgramCounter(startAtMain); // DPS 3/9/09
 
-            // store program args (if any) in memory
-            new ProgramArgumentList(programArgumentList).storeProgramArguments();
+                // store program args (if any) in memory
+                new ProgramArgumentList(programArgumentList).storeProgramArguments();
+            }
             // establish observer if specified
             establishObserver();
             if (Globals.debug) {
                 out.println("--------  SIMULATION BEGINS  -----------");
             }
+            if (traceFile != null) {
+                try {
+                    TraceRecorder.start(new File(traceFile));
+                } catch (IOException e) {
+                    Globals.exitCode = simulateErrorExitCode;
+                    out.println("Could not record trace: " + e.getMessage());
+                    return;
+                }
+            }
+            if (profileFile != null) {
+                Profiler.start(profilePeriod);
+            }
+            TimingModel timingModel = (timingModelName == null) ? null : Timing.createModel(timingModelName, caches);
+            if (timingModel != null) {
+                Timing.start(timingModel);
+            }
+            if (caches != null && !CacheHierarchy.simulating) {
+                CacheHierarchy.start(caches);
+            }
+            if (branchPredictors != null) {
+                BranchPrediction.start(branchPredictors);
+            }
             try {
                 while (true) {
                     Simulator.Reason done = code.simulate(maxSteps);
@@ -514,6 +763,9 @@ public class Launch {
                     } else if (done == Simulator.Reason.NORMAL_TERMINATION) {
                         out.println("\nProgram terminated by calling exit");
                         break;
+                    } else if (done == Simulator.Reason.STOP || done == Simulator.Reason.PAUSE) {
+                        out.println("\nProgram terminated when stopped from outside.");
+                        break;
                     }
                     assert done == Simulator.Reason.BREAKPOINT : "Internal error: All cases other than breakpoints should be handled already";
                     displayAllPostMortem(); // print registers if we hit a breakpoint, then continue
@@ -524,6 +776,30 @@ public class Launch {
                 out.println(e.error().generateReport());
                 out.println("Simulation terminated due to errors.");
             }
+            try {
+                TraceRecorder.stop();
+            } catch (IOException e) {
+                out.println("Could not write trace: " + e.getMessage());
+            }
+            if (profileFile != null) {
+                Profiler.stop();
+                writeProfile();
+            }
+            if (timingModel != null) {
+                Timing.stop();
+                out.println();
+                timingModel.writeReport(out);
+            }
+            if (caches != null && CacheHierarchy.simulating) {
+                CacheHierarchy.stop();
+                out.println();
+                caches.writeReport(out);
+            }
+            if (branchPredictors != null) {
+                BranchPrediction.stop();
+                out.println();
+                BranchPrediction.writeReport(out);
+            }
             displayAllPostMortem();
         }
         if (Globals.debug) {
@@ -704,7 +980,7 @@ public class Launch {
     private void processDisplayMessagesToErrSwitch(String[] args, String displayMessagesToErrSwitch) {
         for (String arg : args) {
             if (arg.toLowerCase().equals(displayMessagesToErrSwitch)) {
-                out = System.err;
+                out = err;
                 return;
             }
         }
@@ -749,6 +1025,15 @@ public class Launch {
         out.println("  ae<n>  -- terminate RARS with integer exit code <n> if an assemble error occurs.");
         out.println("  ascii  -- display memory or register contents interpreted as ASCII codes.");
         out.println("      b  -- brief - do not display register/memory address along with contents");
+        out.println("     bb  -- Basic Blocks - run frequently executed basic blocks straight through,");
+        out.println("            compiled to JVM bytecode.  Faster, but interrupts are only taken between blocks.");
+        out.println("  bp <predictors>  -- simulate branch predictors and display how often each was wrong.");
+        out.println("            <predictors> is a comma separated list of " + String.join(", ", BranchPrediction.getPredictorNames()));
+        out.println("            with optional table sizes, e.g. bimodal,gshare:16384:14,tournament,tage");
+        out.println("  cache <levels>  -- simulate caches and display their hits and misses at the end of the");
+        out.println("            run.  <levels> is comma separated name=size:ways:block[:replacement[:write[:latency]]]");
+        out.println("            for names l1i, l1d, l2 and l3, and mem=<latency>.  Replacement is lru, fifo,");
+        out.println("            random or plru and write is wb or wt, e.g. " + CacheHierarchy.DEFAULT.replace(" ", ""));
         out.println("      d  -- display RARS debugging statements");
         out.println("    dec  -- display memory or register contents in decimal.");
         out.println("   dump <segment> <format> <file> -- memory dump of specified memory segment");
@@ -760,6 +1045,9 @@ public class Launch {
         out.println("      h  -- display this help.  Use by itself with no filename.");
         out.println("    hex  -- display memory or register contents in hexadecimal (default)");
         out.println("     ic  -- display count of basic instructions 'executed'");
+        out.println(" images <dir>  -- keep an image of the assembled program in directory <dir>, and load");
+        out.println("            it from there instead of assembling when the sources, memory configuration");
+        out.println("            and assembler options are the same as when it was saved.");
         out.println("     mc <config>  -- set memory configuration.  Argument <config> is");
         out.println("            case-sensitive and possible values are: Default for the default");
         out.println("            32-bit address space, CompactDataAtZero for a 32KB memory with");
@@ -770,9 +1058,22 @@ public class Launch {
         out.println("     nc  -- do not display copyright notice (for cleaner redirected/piped output).");
         out.println("     np  -- use of pseudo instructions and formats not permitted");
         out.println("      p  -- Project mode - assemble all files in the same directory as given file.");
+        out.println(" profile <file>  -- count instructions per function and call stack.  Call stacks go to");
+        out.println("            the file in collapsed (flame graph) format; the counts per function and");
+        out.println("            the hottest instructions are displayed at the end of the run.");
+        out.println("  ps<n>  -- with profile, count only every <n>th instruction (sampling).");
+        out.println(" resume <file>  -- start the run from a checkpoint saved by the Checkpoint syscall,");
+        out.println("            where it returns 1.  The program is assembled as usual, but memory,");
+        out.println("            registers and open files all come from the checkpoint.");
         out.println("  se<n>  -- terminate RARS with integer exit code <n> if a simulation (run) error occurs.");
         out.println("     sm  -- start execution at statement with global label main, if defined");
         out.println("    smc  -- Self Modifying Code - Program can write and branch to either text or data segment");
+        out.println(" timing <model>  -- estimate the cycles the program takes, which the cycle CSR then");
+        out.println("            counts, and display the cycles per instruction at the end of the run.");
+        out.println("            Possible values are: " + String.join(", ", Timing.getModelNames()) + ".  The cache");
+        out.println("            model charges misses from the caches of the cache option, or the example.");
+        out.println("  trace <file>  -- record the pc, encoding, register writes and memory accesses of");
+        out.println("            every executed instruction to a compact binary file (see TraceRecorder).");
         out.println("    <n>  -- where <n> is an integer maximum count of steps to simulate.");
         out.println("            If 0, negative or not specified, there is no maximum.");
         out.println(" x<reg>  -- where <reg> is number or name (e.g. 5, t3, f10) of register whose ");
@@ -790,6 +1091,8 @@ public class Launch {
         out.println("unless the global statement label 'main' is defined in one of the files.");
         out.println("Exception handler not automatically assembled.  Add it to the file list.");
         out.println("Options used here do not affect RARS Settings menu values and vice versa.");
+        out.println("Use 'test' as the first option to run a whole set of test programs instead;");
+        out.println("'test h' lists its options.");
     }
 
 }
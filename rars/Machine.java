@@ -0,0 +1,118 @@
+package rars;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * An independent copy of RARS, for running many programs in one JVM at the same time.
+ * <p>
+ * Memory, the register files, the symbol table, the interrupt controller, SystemIO and the
+ * settings all keep their state in static fields.  A Machine loads the rars classes again
+ * through a class loader of its own, so every Machine has its own copy of that state and
+ * Machines on different threads do not interfere.  The simulator runs exactly as it does
+ * from the command line, at full speed.
+ * <p>
+ * Loading the classes and getting them compiled is the expensive part, so reuse a Machine
+ * for one program after another rather than creating one per program.  A Machine runs one
+ * program at a time, and every run starts from the default settings; options given to one
+ * run do not carry over to the next, and settings are never saved.
+ */
+public class Machine {
+    private final Method run;
+    private final Method getSimulator;
+    private final Method getInstructionCount;
+    private final Method stopExecution;
+
+    /**
+     * Creates a Machine with fresh copies of all RARS classes.
+     *
+     * @throws IllegalStateException if the RARS classes cannot be loaded again
+     */
+    public Machine() {
+        URL source = Machine.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader loader = new IsolatingClassLoader(source, Machine.class.getClassLoader());
+        try {
+            run = loader.loadClass(Launch.class.getName()).getMethod("run",
+                    String[].class, InputStream.class, PrintStream.class, PrintStream.class);
+            Class<?> simulator = loader.loadClass("rars.simulator.Simulator");
+            getSimulator = simulator.getMethod("getInstance");
+            getInstructionCount = simulator.getMethod("getInstructionCount");
+            stopExecution = simulator.getMethod("stopExecution");
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not load a separate copy of RARS", e);
+        }
+    }
+
+    /**
+     * Runs RARS on a command line, as if it had been started with those arguments.
+     *
+     * @param args the command line arguments; the same options as for the command line apply
+     * @param in   where the program reads standard input from
+     * @param out  where the program output and RARS messages go
+     * @param err  where the program writes standard error
+     * @return the exit code RARS would have exited with
+     */
+    public synchronized int run(String[] args, InputStream in, PrintStream out, PrintStream err) {
+        return (Integer) invoke(run, null, args, in, out, err);
+    }
+
+    /**
+     * @return the number of instructions the last program run by this Machine executed
+     */
+    public synchronized long getInstructionCount() {
+        return (Long) invoke(getInstructionCount, invoke(getSimulator, null));
+    }
+
+    /**
+     * Stops the program this Machine is running, as the Stop button would.  Does nothing if
+     * no program is running.  Unlike the other methods this may be called while run() is busy.
+     */
+    public void stop() {
+        invoke(stopExecution, invoke(getSimulator, null));
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Loads rars classes itself instead of asking its parent first, so they get their own
+    // static state.  Everything else, and Machine itself, comes from the parent.
+    private static class IsolatingClassLoader extends URLClassLoader {
+        IsolatingClassLoader(URL source, ClassLoader parent) {
+            super(new URL[]{source}, parent);
+        }
+
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith("rars.") || name.startsWith(Machine.class.getName())) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    c = findClass(name);
+                }
+                if (resolve) {
+                    resolveClass(c);
+                }
+                return c;
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package rars;
+
+import rars.assembler.SourceLine;
+import rars.assembler.Symbol;
+import rars.assembler.SymbolTable;
+import rars.assembler.Token;
+import rars.assembler.TokenTypes;
+import rars.riscv.hardware.AddressErrorException;
+import rars.riscv.hardware.Memory;
+import rars.riscv.hardware.MemoryConfigurations;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * An assembled program kept in a file, so that running the same program again, say with
+ * different input, can skip reading, tokenizing and assembling it.
+ * <p>
+ * An image holds memory the way a Checkpoint does (the text segment as binary encodings and
+ * the blocks of data the program initialized), the global symbol table and that of each file,
+ * the file, line, source and basic assembly form of every text statement for error reports and
+ * the Text Segment window, and the warnings the assembler gave.  Images are kept in a directory and named by a SHA-256 digest of everything
+ * that decides what assembling produces: the names and contents of the files, the memory
+ * configuration and the settings the assembler reads.  Files brought in by .include are only
+ * known once the program has been assembled, so an image lists them with digests of their
+ * contents and is not used if any of them has changed.
+ * <p>
+ * Text statements are decoded from their binary encodings when an image is loaded, and then
+ * given back the basic assembly form the assembler wrote for them, and the source of the
+ * pseudo-instruction they come from if they are the first of its expansion.
+ */
+public class ProgramImage {
+    private static final int MAGIC = 0x52494D47; // "RIMG"
+    private static final int VERSION = 2;
+
+    private final File file;
+    private final byte[] key;
+
+    /**
+     * Works out which image in a directory holds the given files assembled with the current
+     * memory configuration and settings.
+     *
+     * @param directory                where images are kept, created when an image is saved
+     * @param filenames                the files to assemble, in the order they are assembled in
+     * @param leadFilename             the file that goes first, as for prepareFilesForAssembly()
+     * @param extendedAssemblerEnabled true if pseudo-instructions are permitted
+     * @param warningsAreErrors        true if assembler warnings are errors
+     * @throws IOException if one of the files cannot be read
+     */
+    public ProgramImage(File directory, ArrayList<String> filenames, String leadFilename,
+                        boolean extendedAssemblerEnabled, boolean warningsAreErrors) throws IOException {
+        MessageDigest md = newDigest();
+        try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(new Discard(), md))) {
+            writeString(out, Globals.version);
+            out.writeInt(VERSION);
+            writeString(out, MemoryConfigurations.getCurrentConfiguration().getConfigurationIdentifier());
+            out.writeInt(Memory.textBaseAddress);
+            out.writeInt(Memory.dataBaseAddress);
+            out.writeBoolean(extendedAssemblerEnabled);
+            out.writeBoolean(warningsAreErrors);
+            // appears in some warnings
+            out.writeBoolean(Globals.getSettings().getBooleanSetting(Settings.Bool.DISPLAY_ADDRESSES_IN_HEX));
+            writeString(out, leadFilename);
+            out.writeInt(filenames.size());
+            for (String filename : filenames) {
+                byte[] contents = Files.readAllBytes(new File(filename).toPath());
+                writeString(out, filename);
+                out.writeInt(contents.length);
+                out.write(contents);
+            }
+        }
+        this.key = md.digest();
+        StringBuilder name = new StringBuilder();
+        for (byte b : key) {
+            name.append(String.format("%02x", b));
+        }
+        this.file = new File(directory, name + ".img");
+    }
+
+    /**
+     * Loads the image, if there is one and the files it includes have not changed.  Afterwards
+     * memory and the symbol tables are as assembling would have left them, and the given
+     * program stands for the lead file and holds the statements of all of them.
+     *
+     * @param program the RISCVprogram to load into, as for assemble()
+     * @return the warnings the assembler gave, empty if none, or null if there is no usable
+     * image.  Memory and the symbol tables are undefined if loading fails part way, until the
+     * program is assembled.
+     */
+    public String load(RISCVprogram program) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            byte[] saved = new byte[key.length];
+            in.readFully(saved);
+            if (!Arrays.equals(saved, key)) {
+                return null;
+            }
+            int includes = in.readInt();
+            for (int i = 0; i < includes; i++) {
+                String included = readString(in);
+                byte[] digest = new byte[key.length];
+                in.readFully(digest);
+                if (!Arrays.equals(digest, digestFile(included))) {
+                    return null;
+                }
+            }
+            String warnings = readString(in);
+            RISCVprogram[] programs = new RISCVprogram[in.readInt()];
+            int lead = in.readInt();
+            for (int i = 0; i < programs.length; i++) {
+                programs[i] = (i == lead) ? program : new RISCVprogram();
+                programs[i].setAssembledFile(readString(in));
+                readSymbols(in, programs[i].getLocalSymbolTable());
+            }
+            Globals.symbolTable.clear();
+            readSymbols(in, Globals.symbolTable);
+            Globals.memory.clear();
+            Globals.memory.readCheckpoint(in);
+            int count = in.readInt();
+            ArrayList<ProgramStatement> machineList = new ArrayList<>(Math.max(count, 0));
+            for (int i = 0; i < count; i++) {
+                ProgramStatement statement = Globals.memory.getStatementNoNotify(in.readInt());
+                int fileNumber = in.readInt();
+                int line = in.readInt();
+                // The rest of an expansion has no source; the Text Segment window tells it by ""
+                String source = in.readBoolean() ? readString(in) : "";
+                if (statement == null || fileNumber < -1 || fileNumber >= programs.length) {
+                    throw new IOException("malformed program image");
+                }
+                statement.setSourceLocation((fileNumber < 0) ? null : programs[fileNumber], source, line);
+                statement.readBasicAssembly(in);
+                machineList.add(statement);
+            }
+            program.setLoadedMachineList(machineList);
+            return warnings;
+        } catch (IOException | AddressErrorException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Saves the program just assembled as the image.  The file is written under another name
+     * and then renamed, so runs using the same directory at the same time never see half an
+     * image.
+     *
+     * @param program            the RISCVprogram assemble() was called on
+     * @param programsToAssemble the RISCVprograms it assembled, from prepareFilesForAssembly()
+     * @param warnings           what assemble() returned
+     * @throws IOException if the image cannot be written
+     */
+    public void save(RISCVprogram program, ArrayList<RISCVprogram> programsToAssemble, ErrorList warnings)
+            throws IOException {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create directory " + directory);
+        }
+        LinkedHashSet<String> included = new LinkedHashSet<>();
+        IdentityHashMap<RISCVprogram, Integer> fileNumbers = new IdentityHashMap<>();
+        int lead = 0;
+        for (RISCVprogram assembled : programsToAssemble) {
+            for (SourceLine line : assembled.getSourceLineList()) {
+                if (line.getRISCVprogram() != assembled) {
+                    included.add(line.getFilename());
+                }
+            }
+            if (assembled == program) {
+                lead = fileNumbers.size();
+            }
+            fileNumbers.put(assembled, fileNumbers.size());
+        }
+        File temporary = File.createTempFile("image", ".tmp", directory);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(key);
+                out.writeInt(included.size());
+                for (String filename : included) {
+                    byte[] digest = digestFile(filename);
+                    if (digest == null) {
+                        throw new IOException("cannot read " + filename);
+                    }
+                    writeString(out, filename);
+                    out.write(digest);
+                }
+                writeString(out, (warnings != null && warnings.warningsOccurred()) ? warnings.generateWarningReport() : "");
+                out.writeInt(programsToAssemble.size());
+                out.writeInt(lead);
+                for (RISCVprogram assembled : programsToAssemble) {
+                    writeString(out, assembled.getFilename());
+                    writeSymbols(out, assembled.getLocalSymbolTable());
+                }
+                writeSymbols(out, Globals.symbolTable);
+                Globals.memory.writeCheckpoint(out);
+                ArrayList<ProgramStatement> statements = program.getMachineList();
+                out.writeInt(statements.size());
+                for (ProgramStatement statement : statements) {
+                    Integer fileNumber = fileNumbers.get(statement.getSourceProgram());
+                    out.writeInt(statement.getAddress());
+                    out.writeInt((fileNumber == null) ? -1 : fileNumber);
+                    out.writeInt(statement.getSourceLine());
+                    boolean firstOfExpansion = !statement.getSource().isEmpty();
+                    out.writeBoolean(firstOfExpansion);
+                    if (firstOfExpansion) {
+                        writeString(out, statement.getSource());
+                    }
+                    statement.writeBasicAssembly(out);
+                }
+            }
+            try {
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
+    private static void writeSymbols(DataOutputStream out, SymbolTable table) throws IOException {
+        ArrayList<Symbol> symbols = table.getAllSymbols();
+        out.writeInt(symbols.size());
+        for (Symbol symbol : symbols) {
+            writeString(out, symbol.getName());
+            out.writeInt(symbol.getAddress());
+            out.writeBoolean(symbol.getType());
+        }
+    }
+
+    private static void readSymbols(DataInputStream in, SymbolTable table) throws IOException {
+        ErrorList errors = new ErrorList();
+        for (int i = in.readInt(); i > 0; i--) {
+            String name = readString(in);
+            int address = in.readInt();
+            boolean data = in.readBoolean();
+            table.addSymbol(new Token(TokenTypes.IDENTIFIER, name, null, 0, 0), address, data, errors);
+        }
+        if (errors.errorsOccurred()) {
+            throw new IOException("malformed program image");
+        }
+    }
+
+    // Strings are written as a length and UTF-8, since warnings may be longer than writeUTF allows
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > (1 << 28)) {
+            throw new IOException("malformed program image");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // SHA-256 digest of a file's contents, or null if it cannot be read
+    private static byte[] digestFile(String filename) {
+        try {
+            return newDigest().digest(Files.readAllBytes(new File(filename).toPath()));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e); // every Java platform has it
+        }
+    }
+
+    // Throws away what is written to it; OutputStream.nullOutputStream() needs Java 11
+    private static class Discard extends OutputStream {
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
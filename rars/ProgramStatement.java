@@ -12,6 +12,9 @@ import rars.riscv.Instruction;
 import rars.util.Binary;
 import rars.venus.NumberDisplayBaseChooser;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 
 /*
@@ -474,6 +477,30 @@ public class ProgramStatement implements Comparable<ProgramStatement> {
         source = src;
     }
 
+    // For ProgramImage: links a statement decoded from its binary back to its source
+    void setSourceLocation(RISCVprogram program, String src, int line) {
+        sourceProgram = program;
+        source = src;
+        sourceLine = line;
+    }
+
+    // For ProgramImage: saves the basic assembly form the assembler gave, which decoding the
+    // binary does not always give back, e.g. it shows immediates unsigned
+    void writeBasicAssembly(DataOutputStream out) throws IOException {
+        out.writeBoolean(basicAssemblyStatement != null);
+        if (basicAssemblyStatement != null) {
+            out.writeUTF(basicAssemblyStatement);
+        }
+        basicStatementList.write(out);
+    }
+
+    // For ProgramImage: puts back what writeBasicAssembly saved
+    void readBasicAssembly(DataInputStream in) throws IOException {
+        basicAssemblyStatement = in.readBoolean() ? in.readUTF() : null;
+        basicStatementList = new BasicStatementList();
+        basicStatementList.read(in);
+    }
+
 
     /**
      * Produces RISCVprogram object representing the source file containing this statement.
@@ -565,6 +592,42 @@ public class ProgramStatement implements Comparable<ProgramStatement> {
         return originalTokenList;
     }
 
+    /**
+     * Produces the tokens of the Basic Assembly statement, the same as tokenizing
+     * getBasicAssemblyStatement() would: registers by number and labels replaced by their
+     * addresses.  Only valid after buildBasicStatementFromBasicInstruction().
+     *
+     * @return The TokenList of the operator and the translated operands.
+     **/
+    public TokenList getBasicTokenList() {
+        TokenList tokens = new TokenList();
+        Token operator = strippedTokenList.get(0);
+        tokens.add(new Token(TokenTypes.OPERATOR, operator.getValue(), null, sourceLine, 0));
+        int operand = 0;
+        for (int i = 1; i < strippedTokenList.size(); i++) {
+            Token token = strippedTokenList.get(i);
+            TokenTypes tokenType = token.getType();
+            String value;
+            if (tokenType == TokenTypes.REGISTER_NUMBER) {
+                value = token.getValue();
+                operand++;
+            } else if (tokenType == TokenTypes.REGISTER_NAME) {
+                tokenType = TokenTypes.REGISTER_NUMBER;
+                value = "x" + operands[operand++];
+            } else if (tokenType == TokenTypes.FP_REGISTER_NAME) {
+                value = "f" + operands[operand++];
+            } else if (tokenType == TokenTypes.IDENTIFIER || TokenTypes.isIntegerTokenType(tokenType)) {
+                tokenType = TokenTypes.integerTokenType(operands[operand]);
+                value = Integer.toString(operands[operand++]);
+            } else {
+                value = token.getValue();
+                tokenType = TokenTypes.matchTokenType(value);
+            }
+            tokens.add(new Token(tokenType, value, null, sourceLine, token.getStartPos()));
+        }
+        return tokens;
+    }
+
     /**
      * Produces token list stripped of all but operator and operand tokens.
      *
@@ -774,6 +837,31 @@ public class ProgramStatement implements Comparable<ProgramStatement> {
             list.add(new ListElement(2, null, value));
         }
 
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(list.size());
+            for (ListElement e : list) {
+                out.writeByte(e.type);
+                if (e.type == 0) {
+                    out.writeUTF(e.sValue);
+                } else {
+                    out.writeInt(e.iValue);
+                }
+            }
+        }
+
+        void read(DataInputStream in) throws IOException {
+            for (int i = in.readInt(); i > 0; i--) {
+                int type = in.readByte();
+                if (type == 0) {
+                    addString(in.readUTF());
+                } else if (type == 1 || type == 2) {
+                    list.add(new ListElement(type, null, in.readInt()));
+                } else {
+                    throw new IOException("malformed basic statement");
+                }
+            }
+        }
+
         public String toString() {
             int addressBase = (Globals.getSettings().getBooleanSetting(Settings.Bool.DISPLAY_ADDRESSES_IN_HEX)) ? NumberDisplayBaseChooser.HEXADECIMAL : NumberDisplayBaseChooser.DECIMAL;
             int valueBase = (Globals.getSettings().getBooleanSetting(Settings.Bool.DISPLAY_VALUES_IN_HEX)) ? NumberDisplayBaseChooser.HEXADECIMAL : NumberDisplayBaseChooser.DECIMAL;
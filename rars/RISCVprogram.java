@@ -3,11 +3,23 @@ package rars;
 import rars.assembler.*;
 import rars.riscv.hardware.RegisterFile;
 import rars.simulator.BackStepper;
+import rars.simulator.BreakpointSet;
 import rars.simulator.Simulator;
+import rars.simulator.SnapshotHistory;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /*
 Copyright (c) 2003-2006,  Pete Sanderson and Kenneth Vollmar
@@ -57,10 +69,15 @@ public class RISCVprogram {
     private ArrayList<ProgramStatement> parsedList;
     private ArrayList<ProgramStatement> machineList;
     private BackStepper backStepper;
+    private SnapshotHistory snapshotHistory;
     private SymbolTable localSymbolTable;
     private MacroPool macroPool;
     private ArrayList<SourceLine> sourceLineList;
     private Tokenizer tokenizer;
+    private byte[] sourceDigest; // of the file, if prepareFilesForAssembly() may use this again
+
+    // The files read and tokenized by the last prepareFilesForAssembly() asked to reuse them, by name
+    private static HashMap<String, RISCVprogram> tokenizedFiles = new HashMap<>();
 
     /**
      * Produces list of source statements that comprise the program.
@@ -178,6 +195,17 @@ public class RISCVprogram {
         return backStepper;
     }
 
+    /**
+     * Returns the SnapshotHistory associated with this program.  It is created upon successful
+     * assembly if snapshot backstepping is enabled, in which case the BackStepper is disabled.
+     *
+     * @return SnapshotHistory object, null if there is none.
+     **/
+
+    public SnapshotHistory getSnapshotHistory() {
+        return snapshotHistory;
+    }
+
     /**
      * Returns SymbolTable associated with this program.  It is created at assembly time,
      * and stores local labels (those not declared using .globl directive).
@@ -271,26 +299,126 @@ public class RISCVprogram {
      **/
 
     public ArrayList<RISCVprogram> prepareFilesForAssembly(ArrayList<String> filenames, String leadFilename, String exceptionHandler) throws AssemblyException {
+        return prepareFilesForAssembly(filenames, leadFilename, exceptionHandler, false);
+    }
+
+    /**
+     * Prepares the given list of files for assembly, like
+     * prepareFilesForAssembly(ArrayList, String, String), but can skip reading and tokenizing
+     * files that have not changed since the previous call that was asked to do so.
+     * A file is unchanged if the SHA-256 digest of its contents is the same, and then the
+     * RISCVprogram object prepared for it by that call is used again, even if it is the lead file.
+     * Files that use .include are always read again, since what they include may have changed.
+     * Only the reading and tokenizing are saved; the assembler always starts afresh.
+     * Files are read and tokenized concurrently on the common fork-join pool.  If any of them
+     * has errors, the errors of all of them are thrown together, in the order of the files.
+     *
+     * @param filenames        ArrayList containing the source file name(s) in no particular order
+     * @param leadFilename     String containing name of source file that needs to go first
+     * @param exceptionHandler String containing name of source file containing exception
+     *                         handler, or null or empty String if there is none.
+     * @param reuseUnchanged   true to use again the RISCVprogram objects of unchanged files
+     * @return ArrayList containing one RISCVprogram object for each file to assemble.
+     * @throws AssemblyException Will throw exception if errors occured while reading or tokenizing.
+     **/
+    public ArrayList<RISCVprogram> prepareFilesForAssembly(ArrayList<String> filenames, String leadFilename,
+                                                           String exceptionHandler, boolean reuseUnchanged)
+            throws AssemblyException {
         ArrayList<RISCVprogram> programsToAssemble = new ArrayList<>();
+        HashMap<String, RISCVprogram> tokenized = new HashMap<>();
         int leadFilePosition = 0;
         if (exceptionHandler != null && exceptionHandler.length() > 0) {
             filenames.add(0, exceptionHandler);
             leadFilePosition = 1;
         }
-        for (String filename : filenames) {
-            RISCVprogram preparee = (filename.equals(leadFilename)) ? this : new RISCVprogram();
-            preparee.readSource(filename);
-            preparee.tokenize();
-            // I want "this" RISCVprogram to be the first in the list...except for exception handler
-            if (preparee == this && programsToAssemble.size() > 0) {
+        int lead = filenames.indexOf(leadFilename);
+        RISCVprogram[] prepared = new RISCVprogram[filenames.size()];
+        byte[][] digests = new byte[filenames.size()][];
+        AssemblyException[] failures = new AssemblyException[filenames.size()];
+        if (filenames.size() == 1) {
+            prepareFile(filenames, 0, lead, reuseUnchanged, prepared, digests, failures);
+        } else {
+            // Files are tokenized independently of each other, so all of them are tokenized at once
+            ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < filenames.size(); i++) {
+                final int file = i;
+                tasks.add(ForkJoinPool.commonPool().submit(
+                        () -> prepareFile(filenames, file, lead, reuseUnchanged, prepared, digests, failures)));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+        // Report the errors of every file that has any, in the order the files were given
+        ErrorList errors = new ErrorList();
+        for (AssemblyException failure : failures) {
+            if (failure != null) {
+                for (ErrorMessage message : failure.errors().getErrorMessages()) {
+                    errors.add(message);
+                }
+            }
+        }
+        if (errors.errorsOccurred()) {
+            throw new AssemblyException(errors);
+        }
+        for (int i = 0; i < filenames.size(); i++) {
+            RISCVprogram preparee = prepared[i];
+            if (digests[i] != null && !preparee.includesOtherFiles()) {
+                tokenized.put(filenames.get(i), preparee);
+            }
+            // I want the lead file to be the first in the list...except for exception handler
+            if (i == lead && programsToAssemble.size() > 0) {
                 programsToAssemble.add(leadFilePosition, preparee);
             } else {
                 programsToAssemble.add(preparee);
             }
         }
+        if (reuseUnchanged) {
+            tokenizedFiles = tokenized;
+        }
         return programsToAssemble;
     }
 
+    // Reads and tokenizes one file, or finds it unchanged, for prepareFilesForAssembly().  Only
+    // the first appearance of the lead file is prepared in "this".
+    private void prepareFile(ArrayList<String> filenames, int file, int lead, boolean reuseUnchanged,
+                             RISCVprogram[] prepared, byte[][] digests, AssemblyException[] failures) {
+        String filename = filenames.get(file);
+        byte[] digest = reuseUnchanged ? digestFile(filename) : null;
+        RISCVprogram preparee = (digest == null) ? null : tokenizedFiles.get(filename);
+        try {
+            if (preparee == null || !Arrays.equals(digest, preparee.sourceDigest)) {
+                preparee = (file == lead) ? this : new RISCVprogram();
+                preparee.readSource(filename);
+                preparee.tokenize();
+                preparee.sourceDigest = digest;
+            }
+            prepared[file] = preparee;
+            digests[file] = digest;
+        } catch (AssemblyException e) {
+            failures[file] = e;
+        }
+    }
+
+    // SHA-256 digest of a file's contents, or null if it cannot be read
+    private static byte[] digestFile(String filename) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(Paths.get(filename)));
+        } catch (IOException | NoSuchAlgorithmException | InvalidPathException e) {
+            return null;
+        }
+    }
+
+    // True if any source line came from another file by way of .include
+    private boolean includesOtherFiles() {
+        for (SourceLine line : sourceLineList) {
+            if (line.getRISCVprogram() != this) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Assembles the RISCV source program. All files comprising the program must have
      * already been tokenized.  Assembler warnings are not considered errors.
@@ -323,12 +451,34 @@ public class RISCVprogram {
     public ErrorList assemble(ArrayList<RISCVprogram> programsToAssemble, boolean extendedAssemblerEnabled,
                               boolean warningsAreErrors) throws AssemblyException {
         this.backStepper = null;
+        this.snapshotHistory = null;
         Assembler asm = new Assembler();
         this.machineList = asm.assemble(programsToAssemble, extendedAssemblerEnabled, warningsAreErrors);
-        this.backStepper = new BackStepper();
+        startBackStepping();
         return asm.getErrorList();
     }
 
+    private void startBackStepping() {
+        this.backStepper = new BackStepper();
+        if (Globals.getSettings().getBooleanSetting(Settings.Bool.SNAPSHOT_BACKSTEPPING)) {
+            this.snapshotHistory = new SnapshotHistory();
+            this.backStepper.setEnabled(false);
+        }
+    }
+
+    // For ProgramImage: makes this stand for an assembled file whose source is not at hand
+    void setAssembledFile(String file) {
+        this.filename = file;
+        this.sourceList = new ArrayList<>();
+        this.localSymbolTable = new SymbolTable(file);
+    }
+
+    // For ProgramImage: the statements of a loaded program, in place of assembling it
+    void setLoadedMachineList(ArrayList<ProgramStatement> statements) {
+        this.machineList = statements;
+        startBackStepping();
+    }
+
 
     /**
      * Simulates execution of the program (in this thread). Program must have already been assembled.
@@ -341,7 +491,7 @@ public class RISCVprogram {
      */
     public Simulator.Reason simulate(int maxSteps) throws SimulationException {
         Simulator sim = Simulator.getInstance();
-        return sim.simulate(RegisterFile.getProgramCounter(), maxSteps, null);
+        return sim.simulate(RegisterFile.getProgramCounter(), maxSteps, (BreakpointSet) null);
     }
 
     /**
@@ -150,7 +150,17 @@ public class Settings extends Observable {
          * Flag to determine whether a program can write binary code to the text or data segment and
          * execute that code.
          */
-        SELF_MODIFYING_CODE_ENABLED("SelfModifyingCode", false);
+        SELF_MODIFYING_CODE_ENABLED("SelfModifyingCode", false),
+        /**
+         * Flag to determine whether the simulator runs frequently executed basic blocks straight through
+         * instead of one instruction at a time.  Only used while nothing needs single step accuracy.
+         */
+        BLOCK_EXECUTION_ENABLED("BlockExecution", false),
+        /**
+         * Flag to determine whether backstepping goes back to periodic snapshots and executes forward
+         * again, instead of undoing one logged change at a time.
+         */
+        SNAPSHOT_BACKSTEPPING("SnapshotBackstepping", false);
 
         // TODO: add option for turning off user trap handling and interrupts
         String name;
@@ -352,7 +362,7 @@ public class Settings extends Observable {
     private String[] fontSizeSettingsValues;
     private String[] colorSettingsValues;
 
-    private Preferences preferences;
+    private Preferences preferences; // null if the settings are not kept
 
     /**
      * Create Settings object and set to saved values.  If saved values not found, will set
@@ -373,6 +383,18 @@ public class Settings extends Observable {
      */
 
     public Settings(boolean gui) {
+        this(gui, true);
+    }
+
+    /**
+     * Create Settings object.  Settings that are not persistent start from the defaults in the
+     * Settings.properties file, leaving out saved values, and changes to them are not saved.
+     *
+     * @param gui        true if running the graphical IDE, false if running from command line.
+     *                   Ignored as of release 3.6 but retained for compatability.
+     * @param persistent true to read saved values and save changes, false to do neither
+     */
+    public Settings(boolean gui, boolean persistent) {
         booleanSettingsValues = new HashMap<>();
         stringSettingsValues = new String[stringSettingsKeys.length];
         fontFamilySettingsValues = new String[fontFamilySettingsKeys.length];
@@ -382,7 +404,7 @@ public class Settings extends Observable {
         // This determines where the values are actually stored.  Actual implementation
         // is platform-dependent.  For Windows, they are stored in Registry.  To see,
         // run regedit and browse to: HKEY_CURRENT_USER\Software\JavaSoft\Prefs\rars
-        preferences = Preferences.userNodeForPackage(this.getClass());
+        preferences = persistent ? Preferences.userNodeForPackage(this.getClass()) : null;
         // The gui parameter, formerly passed to initialize(), is no longer needed
         // because I removed (1/21/09) the call to generate the Font object for the text editor.
         // Font objects are now generated only on demand so the "if (gui)" guard
@@ -461,6 +483,9 @@ public class Settings extends Observable {
     }
 
     private void saveEditorSyntaxStyle(int index) {
+        if (preferences == null) {
+            return;
+        }
         try {
             preferences.put(syntaxStyleColorSettingsKeys[index], syntaxStyleColorSettingsValues[index]);
             preferences.putBoolean(syntaxStyleBoldSettingsKeys[index], syntaxStyleBoldSettingsValues[index]);
@@ -910,7 +935,9 @@ public class Settings extends Observable {
         if (!readSettingsFromPropertiesFile(settingsFile)) {
             System.out.println("RARS System error: unable to read Settings.properties defaults. Using built-in defaults.");
         }
-        getSettingsFromPreferences();
+        if (preferences != null) {
+            getSettingsFromPreferences();
+        }
     }
 
     // Default values.  Will be replaced if available from property file or Preferences object.
@@ -1061,6 +1088,9 @@ public class Settings extends Observable {
 
     // Save the key-value pair in the Properties object and assure it is written to persisent storage.
     private void saveBooleanSetting(Bool setting) {
+        if (preferences == null) {
+            return;
+        }
         try {
             preferences.putBoolean(setting.getName(), setting.getValue());
             preferences.flush();
@@ -1074,6 +1104,9 @@ public class Settings extends Observable {
 
     // Save the key-value pair in the Properties object and assure it is written to persisent storage.
     private void saveStringSetting(int index) {
+        if (preferences == null) {
+            return;
+        }
         try {
             preferences.put(stringSettingsKeys[index], stringSettingsValues[index]);
             preferences.flush();
@@ -1087,6 +1120,9 @@ public class Settings extends Observable {
 
     // Save the key-value pair in the Properties object and assure it is written to persisent storage.
     private void saveFontSetting(int index, String[] settingsKeys, String[] settingsValues) {
+        if (preferences == null) {
+            return;
+        }
         try {
             preferences.put(settingsKeys[index], settingsValues[index]);
             preferences.flush();
@@ -1100,6 +1136,9 @@ public class Settings extends Observable {
 
     // Save the key-value pair in the Properties object and assure it is written to persisent storage.
     private void saveColorSetting(int index) {
+        if (preferences == null) {
+            return;
+        }
         try {
             preferences.put(colorSettingsKeys[index], colorSettingsValues[index]);
             preferences.flush();
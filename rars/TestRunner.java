@@ -0,0 +1,382 @@
+package rars;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Runs a whole set of test programs in one JVM, several at a time, and reports which passed.
+ * <p>
+ * Started with <code>rars test [options] files, directories or globs</code>.  Directories are
+ * searched recursively for files with the assembly file extensions.  Every program is
+ * assembled and run on its own, as <code>rars nc [options] file</code> would, and passes if
+ * it exits with the expected exit code (42 unless set otherwise).  Each worker thread owns a
+ * {@link Machine}, so programs run at full speed without sharing any simulator state.
+ * <p>
+ * Options that are not the runner's own are handed on to every program, so for example
+ * <code>rars test 100000 bb test</code> runs everything in <code>test</code> with a limit of
+ * 100000 steps and block execution turned on.
+ */
+class TestRunner {
+    private static final int MAX_REPORTED_OUTPUT = 4000;
+
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private long timeLimit; // milliseconds, 0 for none
+    private int expectedExitCode = 42;
+    private String junitFile;
+    private String jsonFile;
+    private final ArrayList<String> options = new ArrayList<>();
+    private final TreeSet<String> programs = new TreeSet<>();
+
+    /**
+     * Runs the test programs given on the command line.
+     *
+     * @param args the command line, starting with "test"
+     * @param out  where to print progress and the summary
+     * @return 0 if every program passed, 1 otherwise
+     */
+    static int run(String[] args, PrintStream out) {
+        TestRunner runner = new TestRunner();
+        if (!runner.parseCommandLine(args, out)) {
+            return 1;
+        }
+        return runner.runAll(out);
+    }
+
+    private boolean parseCommandLine(String[] args, PrintStream out) {
+        if (args.length == 1 || (args.length == 2 && args[1].toLowerCase().equals("h"))) {
+            displayHelp(out);
+            return false;
+        }
+        boolean argsOK = true;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            String lower = arg.toLowerCase();
+            try {
+                if (lower.equals("junit") || lower.equals("json")) {
+                    if (i + 1 == args.length) {
+                        out.println("Missing report file name after " + arg);
+                        argsOK = false;
+                    } else if (lower.equals("junit")) {
+                        junitFile = args[++i];
+                    } else {
+                        jsonFile = args[++i];
+                    }
+                    continue;
+                }
+                if ((lower.equals("resume") || lower.equals("mc")) && i + 1 < args.length) {
+                    options.add(arg); // takes a file or name that is not a program
+                    options.add(args[++i]);
+                    continue;
+                }
+                if (lower.startsWith("j") && lower.length() > 1 && Character.isDigit(lower.charAt(1))) {
+                    workers = Math.max(Integer.decode(arg.substring(1)), 1);
+                    continue;
+                }
+                if (lower.startsWith("tl")) {
+                    timeLimit = Long.decode(arg.substring(2));
+                    continue;
+                }
+                if (lower.startsWith("ec")) {
+                    expectedExitCode = Integer.decode(arg.substring(2));
+                    continue;
+                }
+            } catch (NumberFormatException nfe) {
+                out.println("Invalid Command Argument: " + arg);
+                argsOK = false;
+                continue;
+            }
+            if (new File(arg).exists() || isGlob(arg)) {
+                try {
+                    int before = programs.size();
+                    addPrograms(arg);
+                    if (programs.size() == before) {
+                        out.println("No programs found in " + arg);
+                    }
+                } catch (IOException e) {
+                    out.println("Could not search " + arg + ": " + e.getMessage());
+                    argsOK = false;
+                }
+                continue;
+            }
+            options.add(arg); // anything else is for the programs themselves
+        }
+        if (argsOK && programs.isEmpty()) {
+            out.println("No programs to run.");
+            argsOK = false;
+        }
+        return argsOK;
+    }
+
+    private static boolean isGlob(String arg) {
+        return arg.indexOf('*') >= 0 || arg.indexOf('?') >= 0 || arg.indexOf('[') >= 0 || arg.indexOf('{') >= 0;
+    }
+
+    private void addPrograms(String arg) throws IOException {
+        Path start;
+        PathMatcher matcher;
+        if (isGlob(arg)) {
+            // Walk from the deepest directory before the first wildcard
+            int wildcard = arg.length();
+            for (char c : "*?[{".toCharArray()) {
+                if (arg.indexOf(c) >= 0) {
+                    wildcard = Math.min(wildcard, arg.indexOf(c));
+                }
+            }
+            int slash = arg.lastIndexOf(File.separatorChar, wildcard);
+            start = Paths.get(slash < 0 ? "." : arg.substring(0, slash + 1));
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + (slash < 0 ? "./" + arg : arg));
+        } else {
+            start = Paths.get(arg);
+            matcher = path -> path.equals(start) || hasProgramExtension(path);
+        }
+        if (!Files.exists(start)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(start)) {
+            paths.filter(path -> Files.isRegularFile(path) && matcher.matches(path))
+                    .forEach(path -> programs.add(path.toString()));
+        }
+    }
+
+    private static boolean hasProgramExtension(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && Globals.fileExtensions.contains(name.substring(dot + 1));
+    }
+
+    private int runAll(PrintStream out) {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(workers, programs.size()), runnable -> {
+            Thread thread = new Thread(runnable, "TestRunner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TestRunner timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ThreadLocal<Machine> machines = ThreadLocal.withInitial(Machine::new);
+        long start = System.nanoTime();
+        ArrayList<Future<Result>> futures = new ArrayList<>();
+        for (String program : programs) {
+            futures.add(pool.submit(() -> runProgram(program, machines.get(), timer)));
+        }
+        ArrayList<Result> results = new ArrayList<>();
+        int failures = 0;
+        for (Future<Result> future : futures) {
+            Result result;
+            try {
+                result = future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+            results.add(result);
+            if (!result.status.equals("pass")) {
+                failures++;
+                out.println(result.status.toUpperCase(Locale.ROOT) + " " + result.program + ": " + result.message);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+        timer.shutdown();
+
+        boolean written = writeReport(junitFile, junit(results, failures, seconds), out)
+                & writeReport(jsonFile, json(results, failures, seconds), out);
+        out.printf(Locale.ROOT, "%d programs, %d passed, %d failed in %.2f s%n",
+                results.size(), results.size() - failures, failures, seconds);
+        return (failures == 0 && written) ? 0 : 1;
+    }
+
+    private Result runProgram(String program, Machine machine, ScheduledExecutorService timer) {
+        String[] args = new String[options.size() + 2];
+        args[0] = "nc";
+        for (int i = 0; i < options.size(); i++) {
+            args[i + 1] = options.get(i);
+        }
+        args[args.length - 1] = program;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream print = new PrintStream(output, true);
+        Result result = new Result(program);
+        // Stopping has to be kept away from the next program this machine runs
+        Object lock = new Object();
+        boolean[] finished = {false};
+        boolean[] stopped = {false};
+        ScheduledFuture<?> stopper = null;
+        if (timeLimit > 0) {
+            stopper = timer.scheduleWithFixedDelay(() -> {
+                synchronized (lock) {
+                    if (!finished[0]) {
+                        stopped[0] = true;
+                        machine.stop();
+                    }
+                }
+            }, timeLimit, 100, TimeUnit.MILLISECONDS);
+        }
+        long start = System.nanoTime();
+        try {
+            result.exitCode = machine.run(args, new ByteArrayInputStream(new byte[0]), print, print);
+            if (stopped[0]) {
+                result.status = "timeout";
+                result.message = "time limit of " + timeLimit + " ms exceeded";
+            } else if (result.exitCode == expectedExitCode) {
+                result.status = "pass";
+            } else {
+                result.status = "fail";
+                result.message = "exit code " + result.exitCode + ", expected " + expectedExitCode;
+            }
+        } catch (RuntimeException | Error e) {
+            result.status = "error";
+            result.message = e.toString();
+        } finally {
+            synchronized (lock) {
+                finished[0] = true;
+            }
+            if (stopper != null) {
+                stopper.cancel(false);
+            }
+        }
+        result.seconds = (System.nanoTime() - start) / 1e9;
+        result.instructions = machine.getInstructionCount();
+        if (!result.status.equals("pass")) {
+            String text = output.toString();
+            result.output = (text.length() > MAX_REPORTED_OUTPUT) ? text.substring(text.length() - MAX_REPORTED_OUTPUT) : text;
+        }
+        return result;
+    }
+
+    private static boolean writeReport(String file, String report, PrintStream out) {
+        if (file == null) {
+            return true;
+        }
+        try (PrintStream stream = new PrintStream(file, "UTF-8")) {
+            stream.print(report);
+            return true;
+        } catch (FileNotFoundException | java.io.UnsupportedEncodingException e) {
+            out.println("Could not write report " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static String junit(List<Result> results, int failures, double seconds) {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append(String.format(Locale.ROOT, "<testsuite name=\"rars\" tests=\"%d\" failures=\"%d\" errors=\"0\" time=\"%.3f\">\n",
+                results.size(), failures, seconds));
+        for (Result result : results) {
+            Path path = Paths.get(result.program);
+            xml.append(String.format(Locale.ROOT, "  <testcase classname=\"%s\" name=\"%s\" time=\"%.3f\">\n",
+                    xml(String.valueOf(path.getParent())), xml(path.getFileName().toString()), result.seconds));
+            xml.append("    <properties><property name=\"instructions\" value=\"").append(result.instructions)
+                    .append("\"/><property name=\"exitCode\" value=\"").append(result.exitCode).append("\"/></properties>\n");
+            if (!result.status.equals("pass")) {
+                xml.append("    <failure type=\"").append(result.status).append("\" message=\"").append(xml(result.message))
+                        .append("\">").append(xml(result.output)).append("</failure>\n");
+            }
+            xml.append("  </testcase>\n");
+        }
+        return xml.append("</testsuite>\n").toString();
+    }
+
+    private static String json(List<Result> results, int failures, double seconds) {
+        StringBuilder json = new StringBuilder();
+        json.append(String.format(Locale.ROOT, "{\"tests\": %d, \"failures\": %d, \"time\": %.3f, \"results\": [",
+                results.size(), failures, seconds));
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append(String.format(Locale.ROOT, "  {\"program\": %s, \"status\": \"%s\", \"exitCode\": %d, \"instructions\": %d, \"time\": %.3f",
+                    json(result.program), result.status, result.exitCode, result.instructions, result.seconds));
+            if (!result.status.equals("pass")) {
+                json.append(", \"message\": ").append(json(result.message)).append(", \"output\": ").append(json(result.output));
+            }
+            json.append("}");
+        }
+        return json.append("\n]}\n").toString();
+    }
+
+    private static String xml(String text) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            switch (c) {
+                case '<': escaped.append("&lt;"); break;
+                case '>': escaped.append("&gt;"); break;
+                case '&': escaped.append("&amp;"); break;
+                case '"': escaped.append("&quot;"); break;
+                default:
+                    if (c < 0x20 && c != '\n' && c != '\t' && c != '\r') {
+                        escaped.append('?'); // not allowed in XML 1.0 at all
+                    } else {
+                        escaped.append(c);
+                    }
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String json(String text) {
+        StringBuilder escaped = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c == '\n') {
+                escaped.append("\\n");
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.append('"').toString();
+    }
+
+    private static void displayHelp(PrintStream out) {
+        out.println("Usage:  rars test [options] files, directories or globs");
+        out.println("Runs every program and reports which ones exit with the expected exit code.");
+        out.println("Directories are searched recursively for files ending in " + Globals.fileExtensions + ".");
+        out.println("Globs such as 'test/**/*.s' should be quoted so the shell leaves them alone.");
+        out.println("Valid options (not case sensitive, separate by spaces) are:");
+        out.println("     j<n>  -- run n programs at a time, default the number of processors (" + Runtime.getRuntime().availableProcessors() + ")");
+        out.println("    tl<n>  -- stop any program still running after n milliseconds; it fails.  The time");
+        out.println("             includes assembling, and class loading for the first program of a worker");
+        out.println("    ec<n>  -- exit code a program must exit with to pass, default 42");
+        out.println("junit <f>  -- also write a JUnit XML report to file f");
+        out.println(" json <f>  -- also write a JSON report to file f");
+        out.println("      <n>  -- where <n> is an integer maximum count of steps per program");
+        out.println("Any other option is given to every program as on the normal command line,");
+        out.println("e.g. bb, smc or hc<n>.  'nc' is always given.");
+    }
+
+    private static class Result {
+        private final String program;
+        private String status;
+        private String message = "";
+        private String output = "";
+        private int exitCode;
+        private long instructions;
+        private double seconds;
+
+        private Result(String program) {
+            this.program = program;
+        }
+    }
+}
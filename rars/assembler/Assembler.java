@@ -203,12 +203,12 @@ public class Assembler {
                     machineList.add(statement);
                 } else {
                     // It is a pseudo-instruction:
-                    // 1. Fetch its basic instruction template list
+                    // 1. Fetch its list of compiled basic instruction templates
                     // 2. For each template in the list,
-                    // 2a. substitute operands from source statement
-                    // 2b. tokenize the statement generated by 2a.
-                    // 2d. call parseLine() to generate basic instrction
-                    // 2e. add returned programStatement to the list
+                    // 2a. fill in operands from source statement to get the
+                    //     tokens of a basic instruction
+                    // 2b. build a program statement from the tokens
+                    // 2c. add it to the list
                     // The templates, and the instructions generated by filling
                     // in the templates, are specified
                     // in basic format (e.g. mnemonic register reference zero
@@ -225,37 +225,27 @@ public class Assembler {
                     // translation correctly.
                     // TODO: consider making this recursive
                     ExtendedInstruction inst = (ExtendedInstruction) statement.getInstruction();
-                    String basicAssembly = statement.getBasicAssemblyStatement();
+                    TokenList theTokenList = statement.getBasicTokenList();
                     int sourceLine = statement.getSourceLine();
-                    TokenList theTokenList = new Tokenizer().tokenizeLine(sourceLine,
-                            basicAssembly, errors, false);
-
-                    // ////////////////////////////////////////////////////////////////////////////
-                    // If we are using compact memory config and there is a compact expansion, use it
-                    ArrayList<String> templateList;
-                    templateList = inst.getBasicIntructionTemplateList();
-
+                    ArrayList<ExtendedInstruction.Template> templateList = inst.getTemplates();
 
                     // subsequent ProgramStatement constructor needs the correct text segment address.
                     textAddress.set(statement.getAddress());
                     // Will generate one basic instruction for each template in the list.
                     int PC = textAddress.get(); // Save the starting PC so that it can be used for PC relative stuff
                     for (int instrNumber = 0; instrNumber < templateList.size(); instrNumber++) {
-                        String instruction = ExtendedInstruction.makeTemplateSubstitutions(
-                                this.fileCurrentlyBeingAssembled,
-                                templateList.get(instrNumber), theTokenList, PC);
+                        ExtendedInstruction.Template template = templateList.get(instrNumber);
+                        TokenList newTokenList = template.instantiate(this.fileCurrentlyBeingAssembled,
+                                theTokenList, PC, sourceLine);
 
                         // All substitutions have been made so we have generated
                         // a valid basic instruction!
                         if (Globals.debug)
-                            System.out.println("PSEUDO generated: " + instruction);
-                        // For generated instruction: tokenize, build program
+                            System.out.println("PSEUDO generated: " + newTokenList);
+                        // For generated instruction: build program
                         // statement, add to list.
-                        TokenList newTokenList = new Tokenizer().tokenizeLine(sourceLine,
-                                instruction, errors, false);
-                        ArrayList<Instruction> instrMatches = this.matchInstruction(newTokenList.get(0));
                         Instruction instr = OperandFormat.bestOperandMatch(newTokenList,
-                                instrMatches);
+                                template.getInstructions());
                         // Only first generated instruction is linked to original source
                         ProgramStatement ps = new ProgramStatement(
                                 this.fileCurrentlyBeingAssembled,
@@ -88,7 +88,8 @@ public class Symbol {
 
 
     /**
-     * Sets (replaces) the address of the the Symbol.
+     * Sets (replaces) the address of the the Symbol.  Symbols in a SymbolTable are moved with
+     * SymbolTable.fixSymbolTableAddress() instead, so the table can find them at the new address.
      *
      * @param newAddress The revised address of the Symbol.
      **/
@@ -5,6 +5,9 @@ import rars.ErrorMessage;
 import rars.Globals;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.TreeMap;
 
 /*
 Copyright (c) 2003-2006,  Pete Sanderson and Kenneth Vollmar
@@ -45,6 +48,10 @@ public class SymbolTable {
     private static String startLabel = "main";
     private String filename;
     private ArrayList<Symbol> table;
+    // Indexes of the table, so lookups by name or address do not have to search it.  Symbols
+    // sharing an address are listed in the order they were added.
+    private HashMap<String, Symbol> symbolsByName;
+    private TreeMap<Integer, ArrayList<Symbol>> symbolsByAddress;
     // Note -1 is legal 32 bit address (0xFFFFFFFF) but it is the high address in
     // kernel address space so highly unlikely that any symbol will have this as
     // its associated address!
@@ -58,7 +65,7 @@ public class SymbolTable {
      */
     public SymbolTable(String filename) {
         this.filename = filename;
-        this.table = new ArrayList<>();
+        clear();
     }
 
     /**
@@ -75,7 +82,10 @@ public class SymbolTable {
         if (getSymbol(label) != null) {
             errors.add(new ErrorMessage(token.getSourceProgram(), token.getSourceLine(), token.getStartPos(), "label \"" + label + "\" already defined"));
         } else {
-            table.add(new Symbol(label, address, b));
+            Symbol symbol = new Symbol(label, address, b);
+            table.add(symbol);
+            symbolsByName.put(label, symbol);
+            symbolsByAddress.computeIfAbsent(address, a -> new ArrayList<>()).add(symbol);
             if (Globals.debug)
                 System.out.println("The symbol " + label + " with address " + address + " has been added to the " + this.filename + " symbol table.");
         }
@@ -92,13 +102,20 @@ public class SymbolTable {
 
     public void removeSymbol(Token token) {
         String label = token.getValue();
-        for (int i = 0; i < table.size(); i++) {
-            if (table.get(i).getName().equals(label)) {
-                table.remove(i);
-                if (Globals.debug)
-                    System.out.println("The symbol " + label + " has been removed from the " + this.filename + " symbol table.");
-                break;
-            }
+        Symbol symbol = symbolsByName.remove(label);
+        if (symbol != null) {
+            table.remove(symbol);
+            removeFromAddressIndex(symbol);
+            if (Globals.debug)
+                System.out.println("The symbol " + label + " has been removed from the " + this.filename + " symbol table.");
+        }
+    }
+
+    private void removeFromAddressIndex(Symbol symbol) {
+        ArrayList<Symbol> symbols = symbolsByAddress.get(symbol.getAddress());
+        symbols.remove(symbol);
+        if (symbols.isEmpty()) {
+            symbolsByAddress.remove(symbol.getAddress());
         }
     }
 
@@ -110,12 +127,8 @@ public class SymbolTable {
      * @return The memory address of the label given, or NOT_FOUND if not found in symbol table.
      **/
     public int getAddress(String s) {
-        for (Symbol sym : table) {
-            if (sym.getName().equals(s)) {
-                return sym.getAddress();
-            }
-        }
-        return NOT_FOUND;
+        Symbol sym = symbolsByName.get(s);
+        return (sym == null) ? NOT_FOUND : sym.getAddress();
     }
 
     /**
@@ -140,12 +153,7 @@ public class SymbolTable {
      **/
 
     public Symbol getSymbol(String s) {
-        for (Symbol sym : table) {
-            if (sym.getName().equals(s)) {
-                return sym;
-            }
-        }
-        return null;
+        return symbolsByName.get(s);
     }
 
     /**
@@ -162,12 +170,19 @@ public class SymbolTable {
         } catch (NumberFormatException e) {
             return null;
         }
-        for (Symbol sym : table) {
-            if (sym.getAddress() == address) {
-                return sym;
-            }
-        }
-        return null;
+        return getSymbolGivenAddress(address);
+    }
+
+    /**
+     * Produce Symbol object from symbol table that has the given address.  If several do,
+     * it is the one that was added first.
+     *
+     * @param address the address
+     * @return Symbol object having requested address, null if address not found in symbol table.
+     **/
+    public Symbol getSymbolGivenAddress(int address) {
+        ArrayList<Symbol> symbols = symbolsByAddress.get(address);
+        return (symbols == null) ? null : symbols.get(0);
     }
 
     /**
@@ -182,6 +197,18 @@ public class SymbolTable {
         return (sym == null) ? Globals.symbolTable.getSymbolGivenAddress(s) : sym;
     }
 
+    /**
+     * Produce Symbol object from either local or global symbol table that has the
+     * given address.
+     *
+     * @param address the address
+     * @return Symbol object having requested address, null if address not found in symbol table.
+     **/
+    public Symbol getSymbolGivenAddressLocalOrGlobal(int address) {
+        Symbol sym = this.getSymbolGivenAddress(address);
+        return (sym == null) ? Globals.symbolTable.getSymbolGivenAddress(address) : sym;
+    }
+
 
     /**
      * For obtaining the Data Symbols.
@@ -245,6 +272,8 @@ public class SymbolTable {
 
     public void clear() {
         table = new ArrayList<>();
+        symbolsByName = new HashMap<>();
+        symbolsByAddress = new TreeMap<>();
     }
 
     /**
@@ -258,10 +287,20 @@ public class SymbolTable {
      */
 
     public void fixSymbolTableAddress(int originalAddress, int replacementAddress) {
-        Symbol label = getSymbolGivenAddress(Integer.toString(originalAddress));
-        while (label != null) {
+        if (originalAddress == replacementAddress) {
+            return;
+        }
+        ArrayList<Symbol> labels = symbolsByAddress.remove(originalAddress);
+        if (labels == null) {
+            return;
+        }
+        for (Symbol label : labels) {
             label.setAddress(replacementAddress);
-            label = getSymbolGivenAddress(Integer.toString(originalAddress));
+        }
+        ArrayList<Symbol> existing = symbolsByAddress.putIfAbsent(replacementAddress, labels);
+        if (existing != null) {
+            existing.addAll(labels);
+            existing.sort(Comparator.comparingInt(table::indexOf)); // back in the order they were added
         }
     }
 
@@ -195,17 +195,7 @@ public final class TokenTypes {
              *    // ------------- END    KENV 1/4/05   MODIFICATIONS --------------
              *
              * *************************  END DPS 3-July-2008 COMMENTS *******************************/
-            // shift operands must be in range 0-31
-            if (i >= 0 && i <= 31) {
-                return TokenTypes.INTEGER_5;
-            }
-            if (i >= DataTypes.MIN_IMMEDIATE_VALUE && i <= DataTypes.MAX_IMMEDIATE_VALUE) {
-                return TokenTypes.INTEGER_12;
-            }
-            if (i >= DataTypes.MIN_UPPER_VALUE && i <= DataTypes.MAX_UPPER_VALUE) {
-                return TokenTypes.INTEGER_20;
-            }
-            return TokenTypes.INTEGER_32;  // default when no other type is applicable
+            return integerTokenType(i);
         } catch (NumberFormatException e) {
             // NO ACTION -- exception suppressed
         }
@@ -245,6 +235,27 @@ public final class TokenTypes {
         return TokenTypes.ERROR;
     }
 
+    /**
+     * Classifies an integer by the number of bits needed to represent it, as matchTokenType()
+     * does for integer literals.
+     *
+     * @param i the value
+     * @return INTEGER_5, INTEGER_12, INTEGER_20 or INTEGER_32
+     **/
+    public static TokenTypes integerTokenType(int i) {
+        // shift operands must be in range 0-31
+        if (i >= 0 && i <= 31) {
+            return TokenTypes.INTEGER_5;
+        }
+        if (i >= DataTypes.MIN_IMMEDIATE_VALUE && i <= DataTypes.MAX_IMMEDIATE_VALUE) {
+            return TokenTypes.INTEGER_12;
+        }
+        if (i >= DataTypes.MIN_UPPER_VALUE && i <= DataTypes.MAX_UPPER_VALUE) {
+            return TokenTypes.INTEGER_20;
+        }
+        return TokenTypes.INTEGER_32;  // default when no other type is applicable
+    }
+
     /**
      * Lets you know if given tokentype is for integers (INTGER_5, INTEGER_16, INTEGER_32).
      *
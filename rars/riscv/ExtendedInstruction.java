@@ -2,7 +2,9 @@ package rars.riscv;
 
 import rars.RISCVprogram;
 import rars.assembler.Symbol;
+import rars.assembler.Token;
 import rars.assembler.TokenList;
+import rars.assembler.TokenTypes;
 import rars.util.Binary;
 
 import java.util.ArrayList;
@@ -48,6 +50,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 public class ExtendedInstruction extends Instruction {
 
     private ArrayList<String> translationStrings;
+    private ArrayList<Template> templates;
 
     /**
      * Constructor for ExtendedInstruction.  No compact translation is provided.
@@ -102,123 +105,35 @@ public class ExtendedInstruction extends Instruction {
     public ArrayList<String> getBasicIntructionTemplateList() {
         return translationStrings;
     }
-    
+
     /**
-     * Given a basic instruction template and the list of tokens from an extended
-     * instruction statement, substitute operands from the token list appropriately into the
-     * template to generate the basic statement.  Assumes the extended instruction statement has
-     * been translated from source form to basic assembly form (e.g. register mnemonics
-     * translated to corresponding register numbers).
-     * Operand format of source statement is already verified correct.
-     * Assume the template has correct number and positions of operands.
-     * Template is String with special markers.  In the list below, n represents token position (1,2,3,etc)
-     * in source statement (operator is token 0, parentheses count but commas don't):
-     * <UL>
-     * <LI>RGn means substitute register found in n'th token of source statement
-     * <LI>LLn means substitute low order 16 bits from label address in source token n.
-     * <LI>LHn means substitute high order 16 bits from label address in source token n. Must add 1 if address bit 15 is 1.
-     * <LI>PCLn is similar to LLn except the value substituted will be relative to PC of the psuedo-op that generated it.
-     * <LI>PCHn is similar to LHn except the value substituted will be relative to PC of the psuedo-op that generated it.
-     * <LI>VLn means substitute low order 16 bits from 32 bit value in source token n.
-     * <LI>VHn means substitute high order 16 bits from 32 bit value in source token n, then add 1 if value's bit 15 is 1.
-     * <LI>LAB means substitute textual label from last token of source statement.  Used for various branches.
-     * </UL>
+     * Get the templates for the basic instructions generated by this extended instruction,
+     * already split into tokens and matched to their operators.
      *
-     * @param template  a String containing template for basic statement.
-     * @param tokenList a TokenList containing tokens from extended instruction.
-     * @return String representing basic assembler statement.
+     * @return ArrayList of Templates, in the same order as getBasicIntructionTemplateList().
      */
 
-    public static String makeTemplateSubstitutions(RISCVprogram program, String template, TokenList tokenList, int PC) {
-        String instruction = template;
-        // substitute first operand token for template's RG1 or OP1, second for RG2 or OP2, etc
-        for (int op = 1; op < tokenList.size(); op++) {
-            instruction = substitute(instruction, "RG" + op, tokenList.get(op).getValue());
-
-            String strValue = tokenList.get(op).getValue();
-            int val;
-            try {
-                val = Binary.stringToInt(strValue);    // KENV   1/6/05
-            } catch (NumberFormatException e) {
-                // this shouldn't happen if is is for LL .. VH
-                continue;
-            }
-
-            int relative = val - PC;
-            if (instruction.contains("PCH" + op)) {
-                int extra = Binary.bitValue(relative, 11);// add extra to compesate for sign extention
-                instruction = substitute(instruction, "PCH" + op, String.valueOf((relative >> 12) + extra));
-            }
-            if (instruction.contains("PCL" + op)) {
-                instruction = substitute(instruction, "PCL" + op, String.valueOf(relative << 20 >> 20));
-            }
-
-            if (instruction.contains("LH" + op)) {
-                int extra = Binary.bitValue(val, 11);// add extra to compesate for sign extention
-                instruction = substitute(instruction, "LH" + op, String.valueOf((val >> 12) + extra));
-            }
-            if (instruction.contains("LL" + op)) {
-                instruction = substitute(instruction, "LL" + op, String.valueOf(val << 20 >> 20));
-            }
-
-            if (instruction.contains("VH" + op)) {
-                int extra = Binary.bitValue(val, 11); // add extra to compesate for sign extention
-                instruction = substitute(instruction, "VH" + op, String.valueOf((val >> 12) + extra));
-            }
-            if (instruction.contains("VL" + op)) {
-                instruction = substitute(instruction, "VL" + op, String.valueOf(val << 20 >> 20));
-            }
-        }
-        // substitute label if necessary
-        if (instruction.contains("LAB")) {
-            // label has to be last token.  It has already been translated to address
-            // by symtab lookup, so I need to get the text label back so parseLine() won't puke.
-            String label = tokenList.get(tokenList.size() - 1).getValue();
-            Symbol sym = program.getLocalSymbolTable().getSymbolGivenAddressLocalOrGlobal(label);
-            if (sym != null) {
-                // should never be null, since there would not be an address if label were not in symtab!
-                // DPS 9 Dec 2007: The "substitute()" method will substitute for ALL matches.  Here
-                // we want to substitute only for the first match, for two reasons: (1) a statement
-                // can only contain one label reference, its last operand, and (2) If the user's label
-                // contains the substring "LAB", then substitute() will go into an infinite loop because
-                // it will keep matching the substituted string!
-                instruction = substituteFirst(instruction, "LAB", sym.getName());
-            }
-        }
-        return instruction;
+    public ArrayList<Template> getTemplates() {
+        return templates;
     }
 
-    // Performs a String substitution.  Java 1.5 adds an overloaded String.replace method to
-    // do this directly but I wanted to stay 1.4 compatible.
-    // Modified 12 July 2006 to "substitute all occurances", not just the first.
-    private static String substitute(String original, String find, String replacement) {
-        if (!original.contains(find) || find.equals(replacement)) {
-            return original;  // second condition prevents infinite loop below
-        }
-        int i;
-        String modified = original;
-        while ((i = modified.indexOf(find)) >= 0) {
-            modified = modified.substring(0, i) + replacement + modified.substring(i + find.length());
-        }
-        return modified;
-    }
-
-    // Performs a String substitution, but will only substitute for the first match.
-    // Java 1.5 adds an overloaded String.replace method to do this directly but I
-    // wanted to stay 1.4 compatible.
-    private static String substituteFirst(String original, String find, String replacement) {
-        if (!original.contains(find) || find.equals(replacement)) {
-            return original;  // second condition prevents infinite loop below
-        }
-        int i;
-        String modified = original;
-        if ((i = modified.indexOf(find)) >= 0) {
-            modified = modified.substring(0, i) + replacement + modified.substring(i + find.length());
+    /**
+     * Splits each template into tokens and looks up its operator, so that expanding the
+     * instruction needs neither string substitution nor the Tokenizer.  Called once all
+     * instructions have been added to the set.
+     *
+     * @param set the instruction set to look operators up in
+     * @throws IllegalArgumentException if a template's operator is not in the set
+     */
+    void compileTemplates(InstructionSet set) {
+        templates = new ArrayList<>();
+        if (translationStrings != null) {
+            for (String template : translationStrings) {
+                templates.add(new Template(template, set));
+            }
         }
-        return modified;
     }
-
-
+    
     // Takes list of basic instructions that this extended instruction
     // expands to, which is a string, and breaks out into separate
     // instructions.  They are separated by '\n' character.
@@ -249,4 +164,187 @@ public class ExtendedInstruction extends Instruction {
         }
         return 4 * translationList.size();
     }
-}
\ No newline at end of file
+
+    /**
+     * One basic instruction template, compiled.  Holds the template's tokens with the markers
+     * below picked out, and the instructions its operator may refer to.  instantiate() produces
+     * the same tokens that substituting into the template and tokenizing the result would.
+     * In the list below, n represents token position (1,2,3,etc) in source statement (operator
+     * is token 0, parentheses count but commas don't):
+     * <UL>
+     * <LI>RGn means substitute register found in n'th token of source statement
+     * <LI>LLn means substitute low order 12 bits from label address in source token n.
+     * <LI>LHn means substitute high order 20 bits from label address in source token n. Must add 1 if address bit 11 is 1.
+     * <LI>PCLn is similar to LLn except the value substituted will be relative to PC of the psuedo-op that generated it.
+     * <LI>PCHn is similar to LHn except the value substituted will be relative to PC of the psuedo-op that generated it.
+     * <LI>VLn means substitute low order 12 bits from 32 bit value in source token n.
+     * <LI>VHn means substitute high order 20 bits from 32 bit value in source token n, then add 1 if value's bit 11 is 1.
+     * <LI>LAB means substitute textual label from last token of source statement.  Used for various branches.
+     * </UL>
+     */
+    public static class Template {
+        private static final String[] VALUE_MARKERS = {"PCH", "PCL", "LH", "LL", "VH", "VL"};
+
+        private final ArrayList<Instruction> instructions;
+        private final ArrayList<Part> parts = new ArrayList<>();
+
+        // A fixed token or a marker, and where it starts in the template
+        private static class Part {
+            private final String text;
+            private final TokenTypes type;
+            private final int column;
+            private final String marker; // null for a fixed token
+            private final int operand;
+
+            private Part(String text, int column, String marker, int operand) {
+                this.text = text;
+                this.type = TokenTypes.matchTokenType(text);
+                this.column = column;
+                this.marker = marker;
+                this.operand = operand;
+            }
+        }
+
+        private Template(String template, InstructionSet set) {
+            // Split as the Tokenizer would: blanks and commas separate, parentheses stand alone
+            // and # starts a comment that takes the rest of the line
+            int start = -1;
+            for (int i = 0; i <= template.length(); i++) {
+                char c = (i < template.length()) ? template.charAt(i) : ' ';
+                boolean single = c == '(' || c == ')' || c == ':';
+                if (c == ' ' || c == '\t' || c == ',' || c == '#' || single) {
+                    if (start >= 0) {
+                        addPart(template.substring(start, i), start + 1);
+                        start = -1;
+                    }
+                    if (c == '#') {
+                        addPart(template.substring(i), i + 1);
+                        break;
+                    }
+                    if (single) {
+                        addPart(String.valueOf(c), i + 1);
+                    }
+                } else if (start < 0) {
+                    start = i;
+                }
+            }
+            if (parts.isEmpty() || parts.get(0).marker != null) {
+                throw new IllegalArgumentException("no operator in template \"" + template + "\"");
+            }
+            instructions = set.matchOperator(parts.get(0).text);
+            if (instructions == null) {
+                throw new IllegalArgumentException("unknown operator in template \"" + template + "\"");
+            }
+        }
+
+        private void addPart(String text, int column) {
+            String marker = null;
+            int operand = 0;
+            if (text.equals("LAB")) {
+                marker = text;
+            } else if (text.startsWith("RG")) {
+                operand = markerOperand(text, 2);
+                marker = (operand > 0) ? "RG" : null;
+            } else {
+                for (String valueMarker : VALUE_MARKERS) {
+                    if (text.startsWith(valueMarker)) {
+                        operand = markerOperand(text, valueMarker.length());
+                        marker = (operand > 0) ? valueMarker : null;
+                        break;
+                    }
+                }
+            }
+            parts.add(new Part(text, column, marker, operand));
+        }
+
+        // The operand number following a marker, or 0 if there is none
+        private static int markerOperand(String text, int markerLength) {
+            if (text.length() == markerLength) {
+                return 0;
+            }
+            for (int i = markerLength; i < text.length(); i++) {
+                if (!Character.isDigit(text.charAt(i))) {
+                    return 0;
+                }
+            }
+            return Integer.parseInt(text.substring(markerLength));
+        }
+
+        /**
+         * @return the instructions the template's operator matches, as InstructionSet.matchOperator() gives them
+         */
+        public ArrayList<Instruction> getInstructions() {
+            return instructions;
+        }
+
+        /**
+         * Fills in the template from the tokens of an extended instruction statement, which must
+         * already be in basic assembly form.  Markers that cannot be filled in are left as they
+         * are.
+         *
+         * @param program    the program being assembled, to look labels up in
+         * @param tokenList  a TokenList containing tokens from extended instruction
+         * @param PC         the address of the extended instruction
+         * @param sourceLine the line the extended instruction is on
+         * @return the tokens of the basic instruction
+         */
+        public TokenList instantiate(RISCVprogram program, TokenList tokenList, int PC, int sourceLine) {
+            TokenList result = new TokenList();
+            int shift = 0; // how much longer the substituted line is than the template up to here
+            for (Part part : parts) {
+                String value = (part.marker == null) ? null : substitution(part, program, tokenList, PC);
+                if (value == null) {
+                    result.add(new Token(part.type, part.text, null, sourceLine, part.column + shift));
+                    continue;
+                }
+                TokenTypes type;
+                if (part.marker.equals("RG") || part.marker.equals("LAB")) {
+                    type = TokenTypes.matchTokenType(value);
+                } else {
+                    type = TokenTypes.integerTokenType(Integer.parseInt(value));
+                }
+                result.add(new Token(type, value, null, sourceLine, part.column + shift));
+                shift += value.length() - part.text.length();
+            }
+            return result;
+        }
+
+        // What replaces a marker, or null if it stays
+        private static String substitution(Part part, RISCVprogram program, TokenList tokenList, int PC) {
+            if (part.marker.equals("LAB")) {
+                // label has to be last token.  It has already been translated to address
+                // by symtab lookup, so the text label has to be got back.
+                int address;
+                try {
+                    address = Binary.stringToInt(tokenList.get(tokenList.size() - 1).getValue());
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                Symbol sym = program.getLocalSymbolTable().getSymbolGivenAddressLocalOrGlobal(address);
+                return (sym == null) ? null : sym.getName();
+            }
+            if (part.operand >= tokenList.size()) {
+                return null;
+            }
+            String strValue = tokenList.get(part.operand).getValue();
+            if (part.marker.equals("RG")) {
+                return strValue;
+            }
+            int val;
+            try {
+                val = Binary.stringToInt(strValue);
+            } catch (NumberFormatException e) {
+                // this shouldn't happen if is is for LL .. VH
+                return null;
+            }
+            if (part.marker.startsWith("PC")) {
+                val -= PC;
+            }
+            if (part.marker.endsWith("H")) {
+                // add extra to compensate for sign extension
+                return String.valueOf((val >> 12) + Binary.bitValue(val, 11));
+            }
+            return String.valueOf(val << 20 >> 20);
+        }
+    }
+}
@@ -57,6 +57,9 @@ public class InstructionSet {
 
     private ArrayList<Instruction> instructionList;
     private ArrayList<MatchMap> opcodeMatchMaps;
+    // by lower case name; volatile as the files of a project are tokenized on several threads
+    private volatile HashMap<String, ArrayList<Instruction>> operatorIndex;
+    private int indexedInstructions;
 
     /**
      * Creates a new InstructionSet object.
@@ -198,6 +201,12 @@ public class InstructionSet {
                     //if (firstTemplate != null) System.out.println("\npseudoOp: "+pseudoOp+"\ndefault template:\n"+firstTemplate+"\ncompact template:\n"+template);
                 }
             }
+            // Templates may name any instruction, so they can only be compiled once all are in
+            for (Instruction inst : instructionList) {
+                if (inst instanceof ExtendedInstruction) {
+                    ((ExtendedInstruction) inst).compileTemplates(this);
+                }
+            }
             in.close();
         } catch (IOException ioe) {
             System.out.println(
@@ -213,22 +222,25 @@ public class InstructionSet {
 
     /**
      * Given an operator mnemonic, will return the corresponding Instruction object(s)
-     * from the instruction set.  Uses straight linear search technique.
+     * from the instruction set.  Case-insensitive.  Looks the name up in an index that is
+     * rebuilt whenever instructions have been added since it was built.  Safe to call from
+     * several threads at once once the instruction set is populated.
      *
      * @param name operator mnemonic (e.g. addi, sw,...)
-     * @return list of corresponding Instruction object(s), or null if not found.
+     * @return list of corresponding Instruction object(s), in instruction set order, or null if
+     * not found.  The list is shared, so must not be changed.
      */
     public ArrayList<Instruction> matchOperator(String name) {
-        ArrayList<Instruction> matchingInstructions = null;
-        // Linear search for now....
-        for (Instruction inst : instructionList) {
-            if (inst.getName().equalsIgnoreCase(name)) {
-                if (matchingInstructions == null)
-                    matchingInstructions = new ArrayList<>();
-                matchingInstructions.add(inst);
+        HashMap<String, ArrayList<Instruction>> index = operatorIndex;
+        if (index == null || indexedInstructions != instructionList.size()) {
+            index = new HashMap<>();
+            for (Instruction inst : instructionList) {
+                index.computeIfAbsent(inst.getName().toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(inst);
             }
+            indexedInstructions = instructionList.size();
+            operatorIndex = index; // published after the count, so a reader that sees it sees the count
         }
-        return matchingInstructions;
+        return index.get(name.toLowerCase(Locale.ROOT));
     }
 
 
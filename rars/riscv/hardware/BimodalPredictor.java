@@ -0,0 +1,55 @@
+package rars.riscv.hardware;
+
+import java.util.Arrays;
+
+/**
+ * A table of two bit saturating counters indexed by the address of the branch, like the two bit
+ * mode of the BHT Simulator tool.
+ */
+public class BimodalPredictor implements BranchPredictor {
+    public static final String NAME = "bimodal";
+
+    private final byte[] counters;
+    private final int mask;
+    private int index;
+
+    /**
+     * @param entries the number of counters, a power of two
+     */
+    public BimodalPredictor(int entries) {
+        counters = new byte[entries];
+        mask = entries - 1;
+        reset();
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    public String getDescription() {
+        return counters.length + " entries";
+    }
+
+    public void reset() {
+        Arrays.fill(counters, (byte) 1); // weakly not taken
+    }
+
+    public boolean predict(int pc) {
+        index = (pc >>> 2) & mask;
+        return counters[index] >= 2;
+    }
+
+    public void update(int pc, boolean taken) {
+        counters[index] = saturate(counters[index], taken);
+    }
+
+    /**
+     * @return a two bit counter moved one step towards the outcome
+     */
+    static byte saturate(byte counter, boolean taken) {
+        if (taken) {
+            return (counter < 3) ? (byte) (counter + 1) : counter;
+        }
+        return (counter > 0) ? (byte) (counter - 1) : counter;
+    }
+}
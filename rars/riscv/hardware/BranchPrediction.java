@@ -0,0 +1,216 @@
+package rars.riscv.hardware;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Feeds branch predictors with the outcome of every branch and jump the program executes, and
+ * counts how often they were wrong.
+ * <p>
+ * While {@link #predicting} is true the Branch instructions call {@link #branch(int, boolean, int)}
+ * and JAL and JALR call {@link #jump(int, int, int, int)}.  Any number of direction predictors
+ * can be fed at once, so they can be compared on a single run.  Targets are predicted by a
+ * direct mapped branch target buffer, which learns the target of every taken branch and jump,
+ * and a return address stack.  As in the Profiler, a JAL or JALR that writes ra or t0 is a call
+ * and pushes its return address, and a JALR to ra or t0 that writes zero is a return and pops
+ * one.  Returns are predicted by the stack, everything else that is taken by the buffer.
+ */
+public class BranchPrediction {
+    private static final String[] PREDICTOR_NAMES = {BimodalPredictor.NAME, GsharePredictor.NAME,
+            TournamentPredictor.NAME, TagePredictor.NAME};
+    private static final int BTB_ENTRIES = 512;
+    private static final int RAS_DEPTH = 16;
+
+    /**
+     * True while predictors are being fed.  Only changed while the simulator is not running.
+     */
+    public static boolean predicting;
+
+    private static BranchPredictor[] predictors = new BranchPredictor[0];
+    private static long[] mispredictions = new long[0];
+    private static long branches, taken;
+    private static final int[] btbTags = new int[BTB_ENTRIES];
+    private static final int[] btbTargets = new int[BTB_ENTRIES];
+    private static long targetLookups, targetMisses;
+    private static final int[] returnStack = new int[RAS_DEPTH];
+    private static int returnTop, returnCount;
+    private static long returns, returnMisses;
+
+    /**
+     * @return the names createPredictor accepts
+     */
+    public static String[] getPredictorNames() {
+        return PREDICTOR_NAMES.clone();
+    }
+
+    /**
+     * Creates a predictor.  The sizes are optional, e.g. <code>gshare</code> or
+     * <code>gshare:16384:14</code>.
+     * <ul>
+     * <li>bimodal[:entries], 4096 by default</li>
+     * <li>gshare[:entries[:history bits]], 4096 and 12</li>
+     * <li>tournament[:entries[:history bits]], 4096 and 12</li>
+     * <li>tage[:base entries[:entries per tagged table]], 4096 and 1024; at least 2 per tagged table</li>
+     * </ul>
+     *
+     * @param description the name and sizes
+     * @return the new predictor
+     * @throws IllegalArgumentException if there is no such predictor or the sizes are not valid
+     */
+    public static BranchPredictor createPredictor(String description) {
+        String[] fields = description.trim().toLowerCase().split(":");
+        int first = size(fields, 1, 4096);
+        switch (fields[0]) {
+            case BimodalPredictor.NAME:
+                return new BimodalPredictor(first);
+            case GsharePredictor.NAME:
+                return new GsharePredictor(first, history(fields, first));
+            case TournamentPredictor.NAME:
+                return new TournamentPredictor(first, history(fields, first));
+            case TagePredictor.NAME:
+                int tagged = size(fields, 2, 1024);
+                if (tagged < 2) {
+                    throw new IllegalArgumentException(fields[0] + ": tagged tables need at least 2 entries");
+                }
+                return new TagePredictor(first, tagged);
+            default:
+                throw new IllegalArgumentException("unknown branch predictor \"" + fields[0] + "\"; use "
+                        + String.join(", ", PREDICTOR_NAMES));
+        }
+    }
+
+    // A power of two table size from the given field, or the default if there is no such field
+    private static int size(String[] fields, int field, int defaultSize) {
+        int value = (fields.length > field) ? number(fields, field) : defaultSize;
+        if (Integer.bitCount(value) != 1 || value > (1 << 24)) {
+            throw new IllegalArgumentException(fields[0] + ": table sizes must be powers of two up to 2^24");
+        }
+        return value;
+    }
+
+    private static int history(String[] fields, int entries) {
+        int bits = (fields.length > 2) ? number(fields, 2) : 12;
+        if (bits < 0 || (1 << bits) > entries) {
+            throw new IllegalArgumentException(fields[0] + ": at most log2(entries) bits of history");
+        }
+        return bits;
+    }
+
+    private static int number(String[] fields, int field) {
+        try {
+            return Integer.parseInt(fields[field]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(fields[0] + ": \"" + fields[field] + "\" is not a number");
+        }
+    }
+
+    /**
+     * Starts feeding predictors, which start out knowing nothing.
+     *
+     * @param branchPredictors the direction predictors to feed
+     */
+    public static void start(List<BranchPredictor> branchPredictors) {
+        predictors = branchPredictors.toArray(new BranchPredictor[0]);
+        mispredictions = new long[predictors.length];
+        for (BranchPredictor predictor : predictors) {
+            predictor.reset();
+        }
+        branches = taken = 0;
+        for (int i = 0; i < BTB_ENTRIES; i++) {
+            btbTags[i] = -1;
+        }
+        targetLookups = targetMisses = 0;
+        returnTop = returnCount = 0;
+        returns = returnMisses = 0;
+        predicting = true;
+    }
+
+    /**
+     * Stops feeding the predictors.  Their counts stay available for the report.
+     */
+    public static void stop() {
+        predicting = false;
+    }
+
+    /**
+     * Records a conditional branch.
+     *
+     * @param pc      its address
+     * @param isTaken true if it branches
+     * @param target  where it goes if it branches
+     */
+    public static void branch(int pc, boolean isTaken, int target) {
+        branches++;
+        for (int i = 0; i < predictors.length; i++) {
+            if (predictors[i].predict(pc) != isTaken) {
+                mispredictions[i]++;
+            }
+            predictors[i].update(pc, isTaken);
+        }
+        if (isTaken) {
+            taken++;
+            lookUpTarget(pc, target);
+        }
+    }
+
+    /**
+     * Records a JAL or JALR.
+     *
+     * @param pc     its address
+     * @param target where it went
+     * @param rd     the register it wrote the return address to
+     * @param rs1    the register it took the target from; 0 for JAL
+     */
+    public static void jump(int pc, int target, int rd, int rs1) {
+        boolean link = rs1 == 1 || rs1 == 5;
+        if (rd == 0 && link) {
+            returns++;
+            if (returnCount == 0 || returnStack[returnTop] != target) {
+                returnMisses++;
+            }
+            if (returnCount > 0) {
+                returnTop = (returnTop - 1) & (RAS_DEPTH - 1);
+                returnCount--;
+            }
+            return;
+        }
+        lookUpTarget(pc, target);
+        if (rd == 1 || rd == 5) {
+            returnTop = (returnTop + 1) & (RAS_DEPTH - 1);
+            returnStack[returnTop] = pc + 4;
+            returnCount = Math.min(returnCount + 1, RAS_DEPTH); // the oldest are overwritten
+        }
+    }
+
+    private static void lookUpTarget(int pc, int target) {
+        int entry = (pc >>> 2) & (BTB_ENTRIES - 1);
+        targetLookups++;
+        if (btbTags[entry] != pc || btbTargets[entry] != target) {
+            targetMisses++;
+            btbTags[entry] = pc;
+            btbTargets[entry] = target;
+        }
+    }
+
+    /**
+     * Writes the misprediction rate of each predictor and of the target predictors.
+     *
+     * @param out where to write
+     */
+    public static void writeReport(PrintStream out) {
+        out.println("Branch prediction: " + branches + " conditional branches, " + taken + " taken ("
+                + String.format("%.2f%%", percent(taken, branches)) + ")");
+        for (int i = 0; i < predictors.length; i++) {
+            out.println(String.format("%12d mispredicted %6.2f%%  %-10s  %s", mispredictions[i],
+                    percent(mispredictions[i], branches), predictors[i].getName(), predictors[i].getDescription()));
+        }
+        out.println(String.format("%12d mispredicted %6.2f%%  of %d targets looked up in a %d entry BTB",
+                targetMisses, percent(targetMisses, targetLookups), targetLookups, BTB_ENTRIES));
+        out.println(String.format("%12d mispredicted %6.2f%%  of %d returns predicted by a %d entry return stack",
+                returnMisses, percent(returnMisses, returns), returns, RAS_DEPTH));
+    }
+
+    private static double percent(long count, long total) {
+        return (total == 0) ? 0 : 100.0 * count / total;
+    }
+}
@@ -0,0 +1,38 @@
+package rars.riscv.hardware;
+
+/**
+ * Predicts whether conditional branches are taken.  Implementations are fed by
+ * {@link BranchPrediction}, which asks for a prediction and then gives the outcome for every
+ * conditional branch the program executes, in order.  Targets are predicted separately by
+ * BranchPrediction's branch target buffer and return address stack.
+ */
+public interface BranchPredictor {
+    /**
+     * @return the name the predictor is chosen by, e.g. on the command line
+     */
+    String getName();
+
+    /**
+     * @return the organization of the predictor, for reports, e.g. "4096 entries, 12 bits of history"
+     */
+    String getDescription();
+
+    /**
+     * Forgets everything learned so far.
+     */
+    void reset();
+
+    /**
+     * @param pc the address of a conditional branch about to be executed
+     * @return true if the branch is predicted taken
+     */
+    boolean predict(int pc);
+
+    /**
+     * Learns the outcome of the branch last predicted.
+     *
+     * @param pc    its address, as given to predict
+     * @param taken true if it was taken
+     */
+    void update(int pc, boolean taken);
+}
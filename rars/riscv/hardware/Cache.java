@@ -0,0 +1,268 @@
+package rars.riscv.hardware;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * One level of a set associative cache, without any user interface.
+ * <p>
+ * Only tags are kept, not data, since the point is to count hits and misses.  A miss reads the
+ * block from the next level, or from main memory after the last level.  With the write back
+ * policy stores allocate a block on a miss and mark it dirty, and dirty blocks are written to the
+ * next level when they are evicted.  With write through every store also goes to the next level
+ * and a store miss does not allocate.  Writes are assumed to go through a write buffer, so they
+ * never wait for the next level.
+ * <p>
+ * An access that crosses a block boundary is counted as an access to the first block only.
+ */
+public class Cache {
+    /**
+     * How a block is chosen for eviction when a set is full.  PLRU is tree pseudo-LRU, which
+     * needs a power of two ways.  RANDOM uses a fixed seed, so runs can be repeated.
+     */
+    public enum Replacement {LRU, FIFO, RANDOM, PLRU}
+
+    /**
+     * What a store does, see the class description.
+     */
+    public enum WritePolicy {WRITE_BACK, WRITE_THROUGH}
+
+    private static final int INVALID = -1; // block numbers are addresses shifted right by 2 or more
+
+    private final String name;
+    private final int size, ways, blockSize, latency;
+    private final Replacement replacement;
+    private final WritePolicy writePolicy;
+    private final int blockShift, setMask;
+    private final int[] blocks; // block number held by each line, or INVALID
+    private final boolean[] dirty;
+    private final long[] stamps; // last use for LRU, fill time for FIFO
+    private final int[] treeBits; // per set, for PLRU
+    private Random random;
+    private long clock;
+    private Cache next;
+    private int memoryLatency;
+
+    private long reads, writes, readMisses, writeMisses, evictions, writeBacks;
+
+    /**
+     * Creates an empty cache.  Its next level is main memory until setNext is called.
+     *
+     * @param name        the name used in reports, e.g. "L1D"
+     * @param size        capacity in bytes
+     * @param ways        blocks per set; size / blockSize for a fully associative cache
+     * @param blockSize   bytes per block, a power of two of at least 4
+     * @param latency     cycles a hit takes
+     * @param replacement how a block is chosen for eviction
+     * @param writePolicy what a store does
+     * @throws IllegalArgumentException if the sizes do not give a power of two number of sets
+     */
+    public Cache(String name, int size, int ways, int blockSize, int latency,
+                 Replacement replacement, WritePolicy writePolicy) {
+        if (blockSize < 4 || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException(name + ": block size must be a power of two of at least 4 bytes");
+        }
+        if (ways < 1 || size <= 0 || size % (ways * blockSize) != 0
+                || Integer.bitCount(size / (ways * blockSize)) != 1) {
+            throw new IllegalArgumentException(name + ": size must be a power of two number of sets of "
+                    + "ways times block size bytes");
+        }
+        if (replacement == Replacement.PLRU && (Integer.bitCount(ways) != 1 || ways > 32)) {
+            throw new IllegalArgumentException(name + ": PLRU replacement needs a power of two ways, at most 32");
+        }
+        this.name = name;
+        this.size = size;
+        this.ways = ways;
+        this.blockSize = blockSize;
+        this.latency = latency;
+        this.replacement = replacement;
+        this.writePolicy = writePolicy;
+        int sets = size / (ways * blockSize);
+        blockShift = Integer.numberOfTrailingZeros(blockSize);
+        setMask = sets - 1;
+        blocks = new int[sets * ways];
+        dirty = new boolean[sets * ways];
+        stamps = new long[sets * ways];
+        treeBits = new int[sets];
+        reset();
+    }
+
+    /**
+     * @param next    the level below this one, or null for main memory
+     * @param latency cycles main memory takes, if it is the next level
+     */
+    public void setNext(Cache next, int latency) {
+        this.next = next;
+        this.memoryLatency = latency;
+    }
+
+    /**
+     * @return the level below this one, or null if that is main memory
+     */
+    public Cache getNext() {
+        return next;
+    }
+
+    /**
+     * Empties the cache and zeroes its statistics.
+     */
+    public void reset() {
+        Arrays.fill(blocks, INVALID);
+        Arrays.fill(dirty, false);
+        Arrays.fill(stamps, 0);
+        Arrays.fill(treeBits, 0);
+        random = new Random(0);
+        clock = 0;
+        reads = writes = readMisses = writeMisses = evictions = writeBacks = 0;
+    }
+
+    /**
+     * Reads or writes the block holding an address.
+     *
+     * @param address the byte address
+     * @param write   true for a store
+     * @return the cycles the access takes, counting the levels below on a miss
+     */
+    public int access(int address, boolean write) {
+        int block = address >>> blockShift;
+        int set = block & setMask;
+        int first = set * ways;
+        clock++;
+        if (write) {
+            writes++;
+        } else {
+            reads++;
+        }
+        for (int line = first; line < first + ways; line++) {
+            if (blocks[line] == block) {
+                use(set, line);
+                if (write) {
+                    if (writePolicy == WritePolicy.WRITE_BACK) {
+                        dirty[line] = true;
+                    } else {
+                        writeNext(address);
+                    }
+                }
+                return latency;
+            }
+        }
+        if (write) {
+            writeMisses++;
+            if (writePolicy == WritePolicy.WRITE_THROUGH) {
+                writeNext(address);
+                return latency;
+            }
+        } else {
+            readMisses++;
+        }
+        int cycles = latency + ((next == null) ? memoryLatency : next.access(block << blockShift, false));
+        int line = victim(set, first);
+        if (blocks[line] != INVALID) {
+            evictions++;
+            if (dirty[line]) {
+                writeBacks++;
+                writeNext(blocks[line] << blockShift);
+            }
+        }
+        blocks[line] = block;
+        dirty[line] = write;
+        stamps[line] = clock;
+        use(set, line);
+        return cycles;
+    }
+
+    private void writeNext(int address) {
+        if (next != null) {
+            next.access(address, true);
+        }
+    }
+
+    // Records a use of a line for LRU and PLRU.  FIFO stamps a line only when it is filled.
+    private void use(int set, int line) {
+        if (replacement == Replacement.LRU) {
+            stamps[line] = clock;
+        } else if (replacement == Replacement.PLRU) {
+            // Point every node on the way to this line away from it
+            int way = line - set * ways;
+            int node = 1;
+            for (int half = ways >> 1; half > 0; half >>= 1) {
+                boolean upper = (way & half) != 0;
+                if (upper) {
+                    treeBits[set] &= ~(1 << node);
+                } else {
+                    treeBits[set] |= 1 << node;
+                }
+                node = 2 * node + (upper ? 1 : 0);
+            }
+        }
+    }
+
+    // The line a new block goes in: an empty one if there is one, else one chosen by the policy
+    private int victim(int set, int first) {
+        for (int line = first; line < first + ways; line++) {
+            if (blocks[line] == INVALID) {
+                return line;
+            }
+        }
+        switch (replacement) {
+            case RANDOM:
+                return first + random.nextInt(ways);
+            case PLRU:
+                int node = 1, way = 0;
+                for (int half = ways >> 1; half > 0; half >>= 1) {
+                    boolean upper = (treeBits[set] & (1 << node)) != 0;
+                    way |= upper ? half : 0;
+                    node = 2 * node + (upper ? 1 : 0);
+                }
+                return first + way;
+            default: // LRU and FIFO: the oldest stamp
+                int oldest = first;
+                for (int line = first + 1; line < first + ways; line++) {
+                    if (stamps[line] < stamps[oldest]) {
+                        oldest = line;
+                    }
+                }
+                return oldest;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLatency() {
+        return latency;
+    }
+
+    public long getAccesses() {
+        return reads + writes;
+    }
+
+    public long getMisses() {
+        return readMisses + writeMisses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getWriteBacks() {
+        return writeBacks;
+    }
+
+    /**
+     * Writes the organization and statistics of this level on two lines.
+     *
+     * @param out where to write
+     */
+    public void writeReport(PrintStream out) {
+        long accesses = getAccesses(), misses = getMisses();
+        String capacity = (size % 1024 == 0) ? size / 1024 + "KB" : size + "B";
+        out.println(String.format("%-4s %s %d-way %dB blocks, %s, %s, hit latency %d", name, capacity, ways,
+                blockSize, replacement, writePolicy.toString().toLowerCase().replace('_', '-'), latency));
+        out.println(String.format("     %d reads %d misses, %d writes %d misses, %.2f%% miss rate, %d evictions, %d write-backs",
+                reads, readMisses, writes, writeMisses, (accesses == 0) ? 0.0 : 100.0 * misses / accesses,
+                evictions, writeBacks));
+    }
+}
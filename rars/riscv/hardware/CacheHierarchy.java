@@ -0,0 +1,214 @@
+package rars.riscv.hardware;
+
+import rars.simulator.Simulator;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Instruction and data caches in front of main memory, fed directly by the simulator.
+ * <p>
+ * While {@link #simulating} is true the simulator feeds {@link #fetch(int)} every instruction it
+ * executes, as an instruction listener, and Memory calls {@link #data(int, boolean)} for every load and store,
+ * including those made by syscalls, without creating any notices.  A hierarchy is described by a
+ * string of comma separated levels, for example
+ * <pre>l1i=16k:2:64, l1d=16k:4:64:plru, l2=256k:8:64:lru:wb:10, mem=100</pre>
+ * Each level is <code>name=size:ways:block size[:replacement[:write policy[:latency]]]</code>,
+ * where size may end in k or m, replacement is lru, fifo, random or plru, and the write policy
+ * is wb (write back) or wt (write through).  l1i takes instruction fetches, l1d loads and stores,
+ * and l2 and l3 are shared below them.  A level that is left out is skipped, and accesses with no
+ * cache at all to go to are not simulated.  mem gives the cycles main memory takes.
+ * <p>
+ * A pipeline gives every access one cycle anyway, so only the cycles an access takes beyond
+ * that count as stall cycles.
+ */
+public class CacheHierarchy {
+    /**
+     * The hierarchy used when none is given.
+     */
+    public static final String DEFAULT = "l1i=16k:2:64, l1d=16k:4:64, l2=256k:8:64, mem=100";
+    private static final int L1_LATENCY = 1, L2_LATENCY = 10, L3_LATENCY = 30;
+    private static final int PIPELINED_CYCLES = 1;
+
+    /**
+     * True while a hierarchy is being fed.  Only changed while the simulator is not running.
+     */
+    public static boolean simulating;
+
+    private static final Simulator.InstructionListener LISTENER = (pc, encoding) -> fetch(pc);
+    private static CacheHierarchy active;
+
+    private final Cache instructionPath, dataPath; // first level fetches and data go to, or null
+    private final ArrayList<Cache> levels = new ArrayList<>(); // every cache, top down
+    private final int memoryLatency;
+    private long stallCycles;
+
+    private CacheHierarchy(Cache instructionCache, Cache dataCache, Cache l2, Cache l3, int memoryLatency) {
+        this.memoryLatency = memoryLatency;
+        Cache below = (l2 != null) ? l2 : l3;
+        for (Cache level : new Cache[]{instructionCache, dataCache, l2, l3}) {
+            if (level != null) {
+                level.setNext((level == l2) ? l3 : (level == l3) ? null : below, memoryLatency);
+                levels.add(level);
+            }
+        }
+        instructionPath = (instructionCache != null) ? instructionCache : below;
+        dataPath = (dataCache != null) ? dataCache : below;
+    }
+
+    /**
+     * Builds a hierarchy from its description, see the class description.
+     *
+     * @param description the levels, e.g. {@link #DEFAULT}
+     * @return the new hierarchy, empty
+     * @throws IllegalArgumentException if the description is not valid
+     */
+    public static CacheHierarchy parse(String description) {
+        Cache[] caches = new Cache[4]; // l1i, l1d, l2, l3
+        String[] names = {"l1i", "l1d", "l2", "l3"};
+        int memoryLatency = 100;
+        for (String level : description.split(",")) {
+            String[] nameAndValue = level.trim().split("=");
+            if (nameAndValue.length != 2) {
+                throw new IllegalArgumentException("cache level \"" + level.trim() + "\" is not name=value");
+            }
+            String name = nameAndValue[0].trim().toLowerCase();
+            String[] fields = nameAndValue[1].trim().toLowerCase().split(":");
+            if (name.equals("mem")) {
+                memoryLatency = number(name, fields[0]);
+                continue;
+            }
+            int index = Arrays.asList(names).indexOf(name);
+            if (index < 0) {
+                throw new IllegalArgumentException("unknown cache level \"" + name + "\"; use l1i, l1d, l2, l3 or mem");
+            }
+            if (fields.length < 3 || fields.length > 6) {
+                throw new IllegalArgumentException(name + ": expected size:ways:block size[:replacement[:write policy[:latency]]]");
+            }
+            Cache.Replacement replacement = Cache.Replacement.LRU;
+            if (fields.length > 3) {
+                try {
+                    replacement = Cache.Replacement.valueOf(fields[3].toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(name + ": replacement must be lru, fifo, random or plru");
+                }
+            }
+            Cache.WritePolicy writePolicy = Cache.WritePolicy.WRITE_BACK;
+            if (fields.length > 4) {
+                if (fields[4].equals("wt")) {
+                    writePolicy = Cache.WritePolicy.WRITE_THROUGH;
+                } else if (!fields[4].equals("wb")) {
+                    throw new IllegalArgumentException(name + ": write policy must be wb or wt");
+                }
+            }
+            int latency = (fields.length > 5) ? number(name, fields[5])
+                    : (index < 2) ? L1_LATENCY : (index == 2) ? L2_LATENCY : L3_LATENCY;
+            caches[index] = new Cache(name.toUpperCase(), number(name, fields[0]), number(name, fields[1]),
+                    number(name, fields[2]), latency, replacement, writePolicy);
+        }
+        return new CacheHierarchy(caches[0], caches[1], caches[2], caches[3], memoryLatency);
+    }
+
+    // A positive number, optionally followed by k or m
+    private static int number(String level, String text) {
+        int scale = 1;
+        if (text.endsWith("k")) {
+            scale = 1024;
+        } else if (text.endsWith("m")) {
+            scale = 1024 * 1024;
+        }
+        try {
+            int value = Integer.parseInt(text.substring(0, text.length() - (scale == 1 ? 0 : 1))) * scale;
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException(level + ": \"" + text + "\" is not a positive number");
+    }
+
+    /**
+     * Starts feeding a hierarchy, which starts out empty.
+     *
+     * @param hierarchy the hierarchy to feed
+     */
+    public static void start(CacheHierarchy hierarchy) {
+        active = hierarchy;
+        active.reset();
+        if (!simulating) {
+            Simulator.addInstructionListener(LISTENER);
+        }
+        simulating = true;
+    }
+
+    /**
+     * Stops feeding the hierarchy.  It keeps its statistics.
+     */
+    public static void stop() {
+        Simulator.removeInstructionListener(LISTENER);
+        simulating = false;
+    }
+
+    /**
+     * Passes an instruction fetch to the hierarchy being fed.
+     */
+    public static void fetch(int address) {
+        active.access(active.instructionPath, address, false);
+    }
+
+    /**
+     * Passes a load or store to the hierarchy being fed.
+     */
+    public static void data(int address, boolean write) {
+        active.access(active.dataPath, address, write);
+    }
+
+    private void access(Cache cache, int address, boolean write) {
+        if (cache == null) {
+            return;
+        }
+        int cycles = cache.access(address, write);
+        if (cycles > PIPELINED_CYCLES) {
+            stallCycles += cycles - PIPELINED_CYCLES;
+        }
+    }
+
+    /**
+     * Empties every cache and zeroes the statistics.
+     */
+    public void reset() {
+        for (Cache level : levels) {
+            level.reset();
+        }
+        stallCycles = 0;
+    }
+
+    /**
+     * @return the cycles accesses took beyond the one the pipeline gives them, since the last reset
+     */
+    public long getStallCycles() {
+        return stallCycles;
+    }
+
+    /**
+     * @return the caches from the top down
+     */
+    public Cache[] getLevels() {
+        return levels.toArray(new Cache[0]);
+    }
+
+    /**
+     * Writes the statistics of every level and the stall cycles.
+     *
+     * @param out where to write
+     */
+    public void writeReport(PrintStream out) {
+        out.println("Caches, main memory " + memoryLatency + " cycles:");
+        for (Cache level : levels) {
+            level.writeReport(out);
+        }
+        out.println(String.format("%14d cycles of cache stalls", stallCycles));
+    }
+}
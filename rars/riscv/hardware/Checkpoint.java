@@ -0,0 +1,136 @@
+package rars.riscv.hardware;
+
+import rars.util.SystemIO;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Saves the whole state of the simulated machine to a file and loads it back.
+ * <p>
+ * A checkpoint holds the memory configuration it was taken with, Memory (only the blocks
+ * that are allocated and not all zeros, the text segment as binary encodings) and the heap
+ * pointer, the integer, floating point and control and status registers including the program
+ * counter, the LR/SC reservation, pending interrupts and the files the program has open.  It does not hold
+ * the back-step history, the state of the random number generators or input already buffered
+ * from standard input.
+ * <p>
+ * Restoring a checkpoint over the program it was taken from only has to copy the blocks back,
+ * so a program can do expensive set-up once, checkpoint, and start any number of runs from
+ * there.  The text segment is decoded from the binary encodings where the current program
+ * differs, so a checkpoint can also be restored over any other program.
+ */
+public class Checkpoint {
+    private static final int MAGIC = 0x52415253; // "RARS"
+    private static final int VERSION = 4;
+
+    /**
+     * Writes the state of the machine to a file.  Must not be called while the simulator is
+     * in the middle of an instruction, other than from a syscall.
+     *
+     * @param file the file to write, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeConfiguration(out);
+            Memory.getInstance().writeCheckpoint(out);
+            int[] registers = new int[RegisterFile.STATE_SIZE];
+            RegisterFile.saveState(registers);
+            writeInts(out, registers);
+            int[] floatingPointRegisters = new int[FloatingPointRegisterFile.STATE_SIZE];
+            FloatingPointRegisterFile.saveState(floatingPointRegisters);
+            writeInts(out, floatingPointRegisters);
+            int[] controlAndStatusRegisters = new int[ControlAndStatusRegisterFile.STATE_SIZE];
+            ControlAndStatusRegisterFile.saveState(controlAndStatusRegisters);
+            writeInts(out, controlAndStatusRegisters);
+            out.writeLong(ControlAndStatusRegisterFile.getInstructionsRetired());
+            LoadReservation.writeCheckpoint(out);
+            InterruptController.writeCheckpoint(out);
+            SystemIO.writeCheckpoint(out);
+        }
+    }
+
+    /**
+     * Replaces the state of the machine with one saved by {@link #save(File)}.  Must not be
+     * called while the simulator is running.  Observers are not notified.
+     *
+     * @param file the checkpoint to load
+     * @throws IOException if the file cannot be read, is not a checkpoint of this version or was
+     *                     taken with a different memory configuration.  The state of the machine is
+     *                     undefined if reading fails after the checks.
+     */
+    public static void restore(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a RARS checkpoint");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(file + " is a version " + version + " checkpoint, only version " + VERSION + " can be read");
+            }
+            checkConfiguration(in);
+            Memory.getInstance().readCheckpoint(in);
+            int[] registers = new int[RegisterFile.STATE_SIZE];
+            readInts(in, registers);
+            RegisterFile.restoreState(registers);
+            int[] floatingPointRegisters = new int[FloatingPointRegisterFile.STATE_SIZE];
+            readInts(in, floatingPointRegisters);
+            FloatingPointRegisterFile.restoreState(floatingPointRegisters);
+            int[] controlAndStatusRegisters = new int[ControlAndStatusRegisterFile.STATE_SIZE];
+            readInts(in, controlAndStatusRegisters);
+            ControlAndStatusRegisterFile.restoreState(controlAndStatusRegisters);
+            ControlAndStatusRegisterFile.setInstructionsRetired(in.readLong());
+            LoadReservation.readCheckpoint(in);
+            InterruptController.readCheckpoint(in);
+            SystemIO.readCheckpoint(in);
+        }
+    }
+
+    // The segment boundaries decide where every block of memory is, so they have to match
+    private static int[] configuration() {
+        return new int[]{Memory.textBaseAddress, Memory.dataSegmentBaseAddress, Memory.stackBaseAddress,
+                Memory.memoryMapBaseAddress, Memory.textLimitAddress, Memory.dataSegmentLimitAddress,
+                Memory.stackLimitAddress, Memory.memoryMapLimitAddress};
+    }
+
+    private static void writeConfiguration(DataOutputStream out) throws IOException {
+        int[] configuration = configuration();
+        out.writeInt(configuration.length);
+        writeInts(out, configuration);
+    }
+
+    private static void checkConfiguration(DataInputStream in) throws IOException {
+        int[] configuration = configuration();
+        int[] saved = new int[in.readInt()];
+        if (saved.length != configuration.length) {
+            throw new IOException("malformed checkpoint");
+        }
+        readInts(in, saved);
+        for (int i = 0; i < saved.length; i++) {
+            if (saved[i] != configuration[i]) {
+                throw new IOException("checkpoint was taken with a different memory configuration");
+            }
+        }
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    static void readInts(DataInputStream in, int[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package rars.riscv.hardware;
 
 import rars.Globals;
+import rars.simulator.Simulator;
+import rars.simulator.Timing;
 
 import java.util.Observer;
 
@@ -50,24 +52,104 @@ public class ControlAndStatusRegisterFile {
     public static final int INTERRUPT_ENABLE = 0x1;
     
     private static final RegisterBlock instance;
+    // Number of ints saveState and restoreState work with.
+    static final int STATE_SIZE;
+
+    private static final int CYCLE = 0, TIME = 1, INSTRET = 2;
+    // Instructions retired by runs that have finished, since the registers were reset.  The
+    // run in progress keeps its own count; see Simulator.getStepsInProgress().
+    private static long retired;
+    private static long timeZero = System.nanoTime();
 
     static {
         Register[] tmp = {
-                new Register("ustatus", 0x000, 0),
+                new InterruptStateRegister("ustatus", 0x000, 0),
                 null, // fflags
                 null, // frm
                 new Register("fcsr", 0x003, 0),
-                new Register("uie", 0x004, 0),
+                new InterruptStateRegister("uie", 0x004, 0),
                 new Register("utvec", 0x005, 0),
                 new Register("uscratch", 0x040, 0),
                 new Register("uepc", 0x041, 0),
                 new Register("ucause", 0x042, 0),
                 new Register("utval", 0x043, 0),
-                new Register("uip", 0x044, 0)
+                new InterruptStateRegister("uip", 0x044, 0),
+                new CounterRegister("cycle", 0xC00, CYCLE, false),
+                new CounterRegister("time", 0xC01, TIME, false),
+                new CounterRegister("instret", 0xC02, INSTRET, false),
+                new CounterRegister("cycleh", 0xC80, CYCLE, true),
+                new CounterRegister("timeh", 0xC81, TIME, true),
+                new CounterRegister("instreth", 0xC82, INSTRET, true),
+                new ReadOnlyRegister("mhartid", 0xF14, 0)
         };
         tmp[1] = new LinkedRegister("fflags", 0x001, tmp[3], 0x1F);
         tmp[2] = new LinkedRegister("frm", 0x002, tmp[3], 0xE0);
         instance = new RegisterBlock('_', tmp); // prefix not used
+        STATE_SIZE = tmp.length;
+    }
+
+    // A CSR the program can read but not change.  Writes are ignored.
+    private static class ReadOnlyRegister extends Register {
+        ReadOnlyRegister(String name, int num, int val) {
+            super(name, num, val);
+        }
+
+        public synchronized int setValue(int val) {
+            return getValueNoNotify();
+        }
+    }
+
+    // cycle, time and instret and their upper halves.  Their values are not kept in the
+    // Register but worked out from the counters whenever they are read, so the simulator does
+    // not have to update them after every instruction.  Each instruction takes one cycle unless
+    // a TimingModel is installed, and time counts microseconds of real time.
+    private static class CounterRegister extends ReadOnlyRegister {
+        private final int counter;
+        private final boolean high;
+
+        CounterRegister(String name, int num, int counter, boolean high) {
+            super(name, num, 0);
+            this.counter = counter;
+            this.high = high;
+        }
+
+        public int getValue() {
+            super.getValue(); // notifies observers
+            return getValueNoNotify();
+        }
+
+        public int getValueNoNotify() {
+            long value;
+            if (counter == TIME) {
+                value = (System.nanoTime() - timeZero) / 1000;
+            } else if (counter == CYCLE && Timing.timing) {
+                value = Timing.getModel().getCycles();
+            } else {
+                // Not counting the instruction that reads it
+                value = retired + Math.max(Simulator.getStepsInProgress() - 1, 0);
+            }
+            return (int) (high ? value >>> 32 : value);
+        }
+    }
+
+    // The CSRs that decide whether an interrupt can be taken.  Any write to them, whether by
+    // the program, a syscall or the register window, tells the InterruptController so the
+    // simulator knows to re-check for interrupts.
+    private static class InterruptStateRegister extends Register {
+        InterruptStateRegister(String name, int num, int val) {
+            super(name, num, val);
+        }
+
+        public synchronized int setValue(int val) {
+            int old = super.setValue(val);
+            InterruptController.signal(InterruptController.CSR_CHANGED);
+            return old;
+        }
+
+        public synchronized void resetValue() {
+            super.resetValue();
+            InterruptController.signal(InterruptController.CSR_CHANGED);
+        }
     }
 
     /**
@@ -201,6 +283,60 @@ public class ControlAndStatusRegisterFile {
 
     public static void resetRegisters() {
         instance.resetRegisters();
+        setInstructionsRetired(0);
+        timeZero = System.nanoTime();
+        Timing.reset();
+    }
+
+    /**
+     * Adds to the count of retired instructions that cycle and instret read.  Called by the
+     * simulator when it stops running.
+     *
+     * @param instructions the number of instructions it executed
+     */
+    public static void retire(long instructions) {
+        retired += instructions;
+    }
+
+    /**
+     * @return the number of instructions retired, counting one the simulator is in the middle
+     * of.  Used to save the counters in a Checkpoint or MachineSnapshot, which are taken between
+     * instructions or from a syscall.
+     */
+    static long getInstructionsRetired() {
+        return retired + Simulator.getStepsInProgress();
+    }
+
+    /**
+     * Sets the number of instructions retired, which cycle and instret count from, when
+     * restoring a Checkpoint or MachineSnapshot.
+     */
+    static void setInstructionsRetired(long value) {
+        retired = value - Simulator.getStepsInProgress();
+    }
+
+    /**
+     * Copies the values of all registers into the given array, for a Checkpoint or a
+     * MachineSnapshot.
+     */
+    static void saveState(int[] state) {
+        Register[] registers = instance.getRegisters();
+        for (int i = 0; i < STATE_SIZE; i++) {
+            state[i] = registers[i].getValueNoNotify();
+        }
+    }
+
+    /**
+     * Loads all registers from an array filled by saveState, except for the fields of fcsr,
+     * which are set with it, and the read-only registers.  No backstep is recorded.
+     */
+    static void restoreState(int[] state) {
+        Register[] registers = instance.getRegisters();
+        for (int i = 0; i < STATE_SIZE; i++) {
+            if (!(registers[i] instanceof LinkedRegister) && !(registers[i] instanceof ReadOnlyRegister)) {
+                registers[i].setValue(state[i]);
+            }
+        }
     }
 
     /**
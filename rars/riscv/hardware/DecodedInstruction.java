@@ -0,0 +1,45 @@
+package rars.riscv.hardware;
+
+import rars.ProgramStatement;
+import rars.riscv.BasicInstruction;
+
+/**
+ * A text segment statement in the form the simulator executes it: the BasicInstruction
+ * that simulates it together with the statement that carries its already extracted operands.
+ * <p>
+ * Instances are created and cached by Memory and handed out by
+ * {@link Memory#getDecodedInstruction(int)}.  They are never modified; storing to the
+ * text segment replaces the cached entry instead.
+ */
+public final class DecodedInstruction {
+    private final ProgramStatement statement;
+    private final BasicInstruction instruction;
+    private final int binaryStatement;
+
+    DecodedInstruction(ProgramStatement statement) {
+        this.statement = statement;
+        this.instruction = (BasicInstruction) statement.getInstruction();
+        this.binaryStatement = statement.getBinaryStatement();
+    }
+
+    /**
+     * @return the statement to pass to {@link BasicInstruction#simulate(ProgramStatement)}
+     */
+    public ProgramStatement getStatement() {
+        return statement;
+    }
+
+    /**
+     * @return the instruction that simulates this statement
+     */
+    public BasicInstruction getInstruction() {
+        return instruction;
+    }
+
+    /**
+     * @return the 32-bit machine code of this statement
+     */
+    public int getBinaryStatement() {
+        return binaryStatement;
+    }
+}
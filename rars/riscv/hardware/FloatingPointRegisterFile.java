@@ -1,6 +1,7 @@
 package rars.riscv.hardware;
 
 import rars.Globals;
+import rars.simulator.TraceRecorder;
 
 import java.util.Observer;
 
@@ -46,6 +47,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 // Float.intBitsToFloat() to bring it back.
 
 public class FloatingPointRegisterFile {
+    // Values of f0-f31.  The Register objects are views of this array; while none of them
+    // is observed the simulator uses the array directly.
+    private static final int[] values = new int[32];
+    // Number of ints saveState and restoreState work with.
+    static final int STATE_SIZE = values.length;
     private static final RegisterBlock instance = new RegisterBlock('f', new Register[]{
             new Register("ft0", 0, 0), new Register("ft1", 1, 0),
             new Register("ft2", 2, 0), new Register("ft3", 3, 0),
@@ -63,7 +69,7 @@ public class FloatingPointRegisterFile {
             new Register("fs10", 26, 0), new Register("fs11", 27, 0),
             new Register("ft8", 28, 0), new Register("ft9", 29, 0),
             new Register("ft10", 30, 0), new Register("ft11", 31, 0)
-    });
+    }, values);
 
     /**
      * Sets the value of the FPU register given to the value given.
@@ -84,7 +90,7 @@ public class FloatingPointRegisterFile {
      **/
 
     public static float getFloatFromRegister(int num) {
-        return Float.intBitsToFloat(instance.getValue(num));
+        return Float.intBitsToFloat(getValue(num));
     }
 
 
@@ -109,9 +115,19 @@ public class FloatingPointRegisterFile {
      **/
 
     public static int updateRegister(int num, int val) {
+        int old;
+        if (instance.isObserved()) {
+            old = instance.updateRegister(num, val);
+        } else {
+            old = values[num];
+            values[num] = val;
+        }
+        if (TraceRecorder.recording) {
+            TraceRecorder.register(TraceRecorder.FP_REGISTER, num, val, old);
+        }
         return (Globals.getSettings().getBackSteppingEnabled())
-                ? Globals.program.getBackStepper().addFloatingPointRestore(num, instance.updateRegister(num, val))
-                : instance.updateRegister(num, val);
+                ? Globals.program.getBackStepper().addFloatingPointRestore(num, old)
+                : old;
     }
 
     /**
@@ -123,7 +139,7 @@ public class FloatingPointRegisterFile {
      **/
 
     public static int getValue(int num) {
-        return instance.getValue(num);
+        return instance.isObserved() ? instance.getValue(num) : values[num];
     }
 
     /**
@@ -169,6 +185,22 @@ public class FloatingPointRegisterFile {
     }
 
 
+    /**
+     * Copies the values of all registers into the given array, for a Checkpoint or a
+     * MachineSnapshot.
+     */
+    static void saveState(int[] state) {
+        System.arraycopy(values, 0, state, 0, STATE_SIZE);
+    }
+
+    /**
+     * Loads all registers from an array filled by saveState.  Observers are not notified
+     * and no backstep is recorded.
+     */
+    static void restoreState(int[] state) {
+        System.arraycopy(state, 0, values, 0, STATE_SIZE);
+    }
+
     /**
      * Each individual register is a separate object and Observable.  This handy method
      * will add the given Observer to each one.
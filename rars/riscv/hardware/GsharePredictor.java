@@ -0,0 +1,52 @@
+package rars.riscv.hardware;
+
+import java.util.Arrays;
+
+/**
+ * Two bit saturating counters indexed by the address of the branch exclusive-ored with the
+ * outcomes of the most recent branches, so one branch can learn a different prediction for each
+ * path that leads to it.
+ */
+public class GsharePredictor implements BranchPredictor {
+    public static final String NAME = "gshare";
+
+    private final byte[] counters;
+    private final int mask;
+    private final int historyBits;
+    private int history;
+    private int index;
+
+    /**
+     * @param entries     the number of counters, a power of two
+     * @param historyBits the number of outcomes remembered, at most log2(entries)
+     */
+    public GsharePredictor(int entries, int historyBits) {
+        counters = new byte[entries];
+        mask = entries - 1;
+        this.historyBits = historyBits;
+        reset();
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    public String getDescription() {
+        return counters.length + " entries, " + historyBits + " bits of history";
+    }
+
+    public void reset() {
+        Arrays.fill(counters, (byte) 1);
+        history = 0;
+    }
+
+    public boolean predict(int pc) {
+        index = ((pc >>> 2) ^ history) & mask;
+        return counters[index] >= 2;
+    }
+
+    public void update(int pc, boolean taken) {
+        counters[index] = BimodalPredictor.saturate(counters[index], taken);
+        history = ((history << 1) | (taken ? 1 : 0)) & ((1 << historyBits) - 1);
+    }
+}
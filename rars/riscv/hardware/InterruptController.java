@@ -4,6 +4,10 @@ import rars.SimulationException;
 import rars.riscv.Instruction;
 import rars.simulator.Simulator;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  * Manages the flow of interrupts to the processor
  * <p>
@@ -25,11 +29,74 @@ public class InterruptController {
     private static SimulationException trapSE;
     private static int trapPC;
 
+    // Bits of the "something pending" word.  The word is set whenever something the simulator
+    // has to look at before the next instruction may have changed, and is cleared by the simulator
+    // when it does so.  While it is zero the simulator can skip interrupt handling entirely.
+    public static final int EXTERNAL_CHANGED = 0x1;
+    public static final int TIMER_CHANGED = 0x2;
+    public static final int TRAP_CHANGED = 0x4;
+    public static final int CSR_CHANGED = 0x8; // ustatus, uie or uip was written
+    private static volatile int pendingWord = EXTERNAL_CHANGED | TIMER_CHANGED | TRAP_CHANGED | CSR_CHANGED;
+
     public static void reset() {
         synchronized (lock) {
             externalPending = false;
             timerPending = false;
             trapPending = false;
+            signal(EXTERNAL_CHANGED | TIMER_CHANGED | TRAP_CHANGED | CSR_CHANGED);
+        }
+    }
+
+    /**
+     * Writes the pending interrupts for a {@link Checkpoint}.  A trap is pending only in the
+     * middle of a step, when no checkpoint can be taken, so it is not written.
+     */
+    static void writeCheckpoint(DataOutputStream out) throws IOException {
+        synchronized (lock) {
+            out.writeBoolean(externalPending);
+            out.writeInt(externalValue);
+            out.writeBoolean(timerPending);
+            out.writeInt(timerValue);
+        }
+    }
+
+    /**
+     * Replaces the pending interrupts with those written by writeCheckpoint().
+     */
+    static void readCheckpoint(DataInputStream in) throws IOException {
+        synchronized (lock) {
+            externalPending = in.readBoolean();
+            externalValue = in.readInt();
+            timerPending = in.readBoolean();
+            timerValue = in.readInt();
+            trapPending = false;
+            signal(EXTERNAL_CHANGED | TIMER_CHANGED | TRAP_CHANGED | CSR_CHANGED);
+        }
+    }
+
+    /**
+     * @return the "something pending" word; zero means no interrupt or trap can need handling
+     */
+    public static int pendingWord() {
+        return pendingWord;
+    }
+
+    /**
+     * Clears the "something pending" word.  Called by the simulator just before it reads the
+     * interrupt state, so that any change made while it does so raises the word again.
+     */
+    public static void clearPendingWord() {
+        pendingWord = 0;
+    }
+
+    /**
+     * Raises bits in the "something pending" word.
+     *
+     * @param bits the *_CHANGED bits describing what changed
+     */
+    public static void signal(int bits) {
+        synchronized (lock) {
+            pendingWord |= bits;
         }
     }
 
@@ -38,6 +105,7 @@ public class InterruptController {
             if (externalPending) return false;
             externalValue = value;
             externalPending = true;
+            pendingWord |= EXTERNAL_CHANGED;
             Simulator.getInstance().interrupt();
             return true;
         }
@@ -48,6 +116,7 @@ public class InterruptController {
             if (timerPending) return false;
             timerValue = value;
             timerPending = true;
+            pendingWord |= TIMER_CHANGED;
             Simulator.getInstance().interrupt();
             return true;
         }
@@ -59,6 +128,7 @@ public class InterruptController {
             trapSE = se;
             trapPC = pc;
             trapPending = true;
+            pendingWord |= TRAP_CHANGED;
             return true;
         }
     }
@@ -0,0 +1,59 @@
+package rars.riscv.hardware;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The reservation that LR.W makes and SC.W checks.
+ * <p>
+ * RARS simulates a single hart, so nothing can store to a reserved word between an LR and the
+ * SC that follows it; the reservation lasts until the next SC or until the machine is reset.
+ */
+public class LoadReservation {
+    private static final int NONE = 1; // never a word address
+
+    private static int address = NONE;
+
+    /**
+     * Drops the reservation.  To be called when the registers are reset.
+     */
+    public static void reset() {
+        address = NONE;
+    }
+
+    /**
+     * Reserves a word (LR).
+     *
+     * @param address the address of the reserved word
+     */
+    public static void reserve(int address) {
+        LoadReservation.address = address;
+    }
+
+    /**
+     * Checks and drops the reservation (SC).
+     *
+     * @param address the address the store is to
+     * @return true if that address is reserved, so the store may happen
+     */
+    public static boolean take(int address) {
+        boolean held = LoadReservation.address == address;
+        LoadReservation.address = NONE;
+        return held;
+    }
+
+    /**
+     * Writes the reservation for a {@link Checkpoint}.
+     */
+    static void writeCheckpoint(DataOutputStream out) throws IOException {
+        out.writeInt(address);
+    }
+
+    /**
+     * Replaces the reservation with the one written by writeCheckpoint().
+     */
+    static void readCheckpoint(DataInputStream in) throws IOException {
+        address = in.readInt();
+    }
+}
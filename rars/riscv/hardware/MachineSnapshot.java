@@ -0,0 +1,68 @@
+package rars.riscv.hardware;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The state of the simulated machine at one moment, kept in memory.
+ * <p>
+ * This holds the same state as a {@link Checkpoint} except for open files, but is meant to be
+ * taken often.  Memory blocks are shared with Memory until one of them is stored to, so taking
+ * a snapshot costs about as much as copying the registers and the block tables, and a snapshot
+ * uses little memory beyond the blocks the program has changed since.
+ */
+public class MachineSnapshot {
+    private final Memory.Snapshot memory;
+    private final int[] registers = new int[RegisterFile.STATE_SIZE];
+    private final int[] floatingPointRegisters = new int[FloatingPointRegisterFile.STATE_SIZE];
+    private final int[] controlAndStatusRegisters = new int[ControlAndStatusRegisterFile.STATE_SIZE];
+    private final long instructionsRetired;
+    private final byte[] interrupts; // LoadReservation and InterruptController, in their checkpoint format
+
+    private MachineSnapshot(Memory.Snapshot memory) {
+        this.memory = memory;
+        RegisterFile.saveState(registers);
+        FloatingPointRegisterFile.saveState(floatingPointRegisters);
+        ControlAndStatusRegisterFile.saveState(controlAndStatusRegisters);
+        instructionsRetired = ControlAndStatusRegisterFile.getInstructionsRetired();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            LoadReservation.writeCheckpoint(out);
+            InterruptController.writeCheckpoint(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // cannot happen writing to memory
+        }
+        interrupts = bytes.toByteArray();
+    }
+
+    /**
+     * Takes a snapshot of the machine.  Must be called holding Globals.memoryAndRegistersLock
+     * and not in the middle of an instruction.
+     *
+     * @return the snapshot
+     */
+    public static MachineSnapshot take() {
+        return new MachineSnapshot(Memory.getInstance().takeSnapshot());
+    }
+
+    /**
+     * Puts the machine back the way it was when this snapshot was taken.  A snapshot can be
+     * restored any number of times.  Observers are not notified and no backstep is recorded.
+     */
+    public void restore() {
+        Memory.getInstance().restoreSnapshot(memory);
+        RegisterFile.restoreState(registers);
+        FloatingPointRegisterFile.restoreState(floatingPointRegisters);
+        ControlAndStatusRegisterFile.restoreState(controlAndStatusRegisters);
+        ControlAndStatusRegisterFile.setInstructionsRetired(instructionsRetired);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(interrupts))) {
+            LoadReservation.readCheckpoint(in);
+            InterruptController.readCheckpoint(in);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -4,9 +4,19 @@ import rars.Globals;
 import rars.ProgramStatement;
 import rars.Settings;
 import rars.SimulationException;
+import rars.riscv.BasicInstruction;
 import rars.riscv.Instruction;
+import rars.simulator.TraceRecorder;
 import rars.util.Binary;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Observable;
 import java.util.Observer;
@@ -131,14 +141,14 @@ public class Memory extends Observable {
     // This assures that observers are not bombarded with notices from memory
     // addresses they do not care about.
     //
-    // Would like a tree-like implementation, but that is complicated by this fact:
-    // key for insertion into the tree would be based on Comparable using both low 
-    // and high end of address range, but retrieval from the tree has to be based
-    // on target address being ANYWHERE IN THE RANGE (not an exact key match).
+    // Accesses are matched against an index of the address ranges rather than the
+    // collection itself, so the usual access with no observer costs one binary search.
+    // The index is rebuilt whenever observers come or go, which is rare.
 
     private Collection<MemoryObservable> observables = getNewMemoryObserversCollection();
+    private volatile ObserverIndex observerIndex = ObserverIndex.EMPTY;
 
-    // The data segment is allocated in blocks of 1024 ints (4096 bytes).  Each block is
+    // The data segment is allocated in blocks of 4096 bytes (1024 words).  Each block is
     // referenced by a "block table" entry, and the table has 1024 entries.  The capacity
     // is thus 1024 entries * 4096 bytes = 4 MB.  Should be enough to cover most
     // programs!!  Beyond that it would go to an "indirect" block (similar to Unix i-nodes),
@@ -162,9 +172,11 @@ public class Memory extends Observable {
     // the start of the 65'th block -- table entry 64.  That leaves (1024-64) * 4096 = 3,932,160
     // bytes of space available without going indirect.
 
-    private static final int BLOCK_LENGTH_WORDS = 1024;  // allocated blocksize 1024 ints == 4K bytes
+    private static final int BLOCK_LENGTH_WORDS = 1024;  // allocated blocksize 1024 words == 4K bytes
+    private static final int BLOCK_LENGTH_BYTES = BLOCK_LENGTH_WORDS * WORD_LENGTH_BYTES;
+    private static final int BLOCK_SHIFT = 12; // log2(BLOCK_LENGTH_BYTES)
     private static final int BLOCK_TABLE_LENGTH = 1024; // Each entry of table points to a block.
-    private int[][] dataBlockTable;
+    private byte[][] dataBlockTable;
 
     // The stack is modeled similarly to the data segment.  It cannot share the same
     // data structure because the stack base address is very large.  To store it in the
@@ -181,7 +193,7 @@ public class Memory extends Observable {
     // Everything else works the same, so it shares some private helper methods with
     // data segment algorithms.
 
-    private int[][] stackBlockTable;
+    private byte[][] stackBlockTable;
 
     // Memory mapped I/O is simulated with a separate table using the same structure and
     // logic as data segment.  Memory is allocated in 4K byte blocks.  But since MMIO
@@ -194,7 +206,7 @@ public class Memory extends Observable {
     // into a table offset, this is of no concern.
 
     private static final int MMIO_TABLE_LENGTH = 1024; //16; // Each entry of table points to a 4K block.
-    private int[][] memoryMapBlockTable;
+    private byte[][] memoryMapBlockTable;
 
     // I use a similar scheme for storing instructions.  MIPS text segment ranges from
     // 0x00400000 all the way to data segment (0x10000000) a range of about 250 MB!  So
@@ -206,6 +218,21 @@ public class Memory extends Observable {
     private static final int TEXT_BLOCK_TABLE_LENGTH = 1024; // Each entry of table points to a block.
     private ProgramStatement[][] textBlockTable;
 
+    // The simulator fetches from the text segment on every step, and getStatement() pays for
+    // an alignment check, a settings lookup, a range check and a cast each time.  So it keeps
+    // a decoded form of each executed statement in a table parallel to textBlockTable.  Entries
+    // are filled in lazily on first fetch and dropped whenever the text word is stored again,
+    // which covers both assembly and self-modifying code since both go through setStatement().
+
+    private DecodedInstruction[][] decodedBlockTable;
+
+    // Blocks of the data, stack and MMIO tables that a Snapshot refers to as well.  They are
+    // copied before they are next stored to, so a snapshot only has to copy the tables of
+    // references.  anyShared saves looking these up as long as no snapshot has been taken.
+
+    private boolean[] dataShared, stackShared, memoryMapShared;
+    private boolean anyShared;
+
     // Set "top" address boundary to go with each "base" address.  This determines permissable
     // address range for user program.  Currently limit is 4MB, or 1024 * 1024 * 4 bytes based
     // on the table structures described above (except memory mapped IO, limited to 64KB by range).
@@ -298,12 +325,249 @@ public class Memory extends Observable {
     private void initialize() {
         heapAddress = heapBaseAddress;
         textBlockTable = new ProgramStatement[TEXT_BLOCK_TABLE_LENGTH][];
-        dataBlockTable = new int[BLOCK_TABLE_LENGTH][]; // array of null int[] references
-        stackBlockTable = new int[BLOCK_TABLE_LENGTH][];
-        memoryMapBlockTable = new int[MMIO_TABLE_LENGTH][];
+        decodedBlockTable = new DecodedInstruction[TEXT_BLOCK_TABLE_LENGTH][];
+        dataBlockTable = new byte[BLOCK_TABLE_LENGTH][]; // array of null byte[] references
+        stackBlockTable = new byte[BLOCK_TABLE_LENGTH][];
+        memoryMapBlockTable = new byte[MMIO_TABLE_LENGTH][];
+        dataShared = new boolean[BLOCK_TABLE_LENGTH];
+        stackShared = new boolean[BLOCK_TABLE_LENGTH];
+        memoryMapShared = new boolean[MMIO_TABLE_LENGTH];
+        anyShared = false;
         System.gc(); // call garbage collector on any Table memory just deallocated.
     }
 
+    /**
+     * Writes the contents of memory for a {@link Checkpoint} or a program image: the heap
+     * pointer, the blocks of the data, stack and MMIO tables that hold anything but zeros, and
+     * the binary encoding of every text segment statement.
+     *
+     * @param out the checkpoint being written
+     * @throws IOException if writing fails
+     */
+    public synchronized void writeCheckpoint(DataOutputStream out) throws IOException {
+        out.writeInt(heapAddress);
+        writeBlocks(out, dataBlockTable);
+        writeBlocks(out, stackBlockTable);
+        writeBlocks(out, memoryMapBlockTable);
+        ByteBuffer buffer = ByteBuffer.allocate((TEXT_BLOCK_LENGTH_WORDS / 32 + TEXT_BLOCK_LENGTH_WORDS) * WORD_LENGTH_BYTES);
+        for (int block = 0; block < TEXT_BLOCK_TABLE_LENGTH; block++) {
+            ProgramStatement[] statements = textBlockTable[block];
+            if (statements == null) {
+                continue;
+            }
+            // A bitmap of the words holding a statement, then the words themselves
+            buffer.clear();
+            for (int i = 0; i < TEXT_BLOCK_LENGTH_WORDS; i += 32) {
+                int present = 0;
+                for (int bit = 0; bit < 32; bit++) {
+                    if (statements[i + bit] != null) {
+                        present |= 1 << bit;
+                    }
+                }
+                buffer.putInt(present);
+            }
+            for (ProgramStatement statement : statements) {
+                buffer.putInt(statement == null ? 0 : statement.getBinaryStatement());
+            }
+            out.writeInt(block);
+            out.write(buffer.array());
+        }
+        out.writeInt(-1);
+    }
+
+    /**
+     * Replaces the contents of memory with those written by writeCheckpoint().  Text segment
+     * statements are kept where the current program has the same binary encoding at the same
+     * address, so their source stays known; others are decoded from the binary.  Observers are
+     * not notified.
+     *
+     * @param in the checkpoint being read
+     * @throws IOException if reading fails or the data is malformed
+     */
+    public synchronized void readCheckpoint(DataInputStream in) throws IOException {
+        int heap = in.readInt();
+        byte[][] data = readBlocks(in, BLOCK_TABLE_LENGTH);
+        byte[][] stack = readBlocks(in, BLOCK_TABLE_LENGTH);
+        byte[][] memoryMap = readBlocks(in, MMIO_TABLE_LENGTH);
+        ProgramStatement[][] text = new ProgramStatement[TEXT_BLOCK_TABLE_LENGTH][];
+        byte[] bytes = new byte[(TEXT_BLOCK_LENGTH_WORDS / 32 + TEXT_BLOCK_LENGTH_WORDS) * WORD_LENGTH_BYTES];
+        for (int block = in.readInt(); block != -1; block = in.readInt()) {
+            if (block < 0 || block >= TEXT_BLOCK_TABLE_LENGTH) {
+                throw new IOException("bad text block number " + block);
+            }
+            in.readFully(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            int[] present = new int[TEXT_BLOCK_LENGTH_WORDS / 32];
+            buffer.asIntBuffer().get(present);
+            buffer.position(present.length * WORD_LENGTH_BYTES);
+            ProgramStatement[] current = textBlockTable[block];
+            ProgramStatement[] statements = text[block] = new ProgramStatement[TEXT_BLOCK_LENGTH_WORDS];
+            for (int i = 0; i < TEXT_BLOCK_LENGTH_WORDS; i++) {
+                int binary = buffer.getInt();
+                if ((present[i / 32] & (1 << (i % 32))) == 0) {
+                    continue;
+                }
+                if (current != null && current[i] != null && current[i].getBinaryStatement() == binary) {
+                    statements[i] = current[i];
+                } else {
+                    statements[i] = new ProgramStatement(binary, textBaseAddress + (block * TEXT_BLOCK_LENGTH_WORDS + i) * WORD_LENGTH_BYTES);
+                }
+            }
+        }
+        heapAddress = heap;
+        dataBlockTable = data;
+        stackBlockTable = stack;
+        memoryMapBlockTable = memoryMap;
+        textBlockTable = text;
+        decodedBlockTable = new DecodedInstruction[TEXT_BLOCK_TABLE_LENGTH][];
+        dataShared = new boolean[BLOCK_TABLE_LENGTH];
+        stackShared = new boolean[BLOCK_TABLE_LENGTH];
+        memoryMapShared = new boolean[MMIO_TABLE_LENGTH];
+        anyShared = false;
+    }
+
+    /**
+     * The contents of memory at one moment, for a {@link MachineSnapshot}.  It shares its blocks
+     * with memory until memory stores to them.
+     */
+    static final class Snapshot {
+        private final int heapAddress;
+        private final byte[][] data, stack, memoryMap;
+        private final ProgramStatement[][] text; // only kept if code can modify itself
+
+        private Snapshot(int heapAddress, byte[][] data, byte[][] stack, byte[][] memoryMap, ProgramStatement[][] text) {
+            this.heapAddress = heapAddress;
+            this.data = data;
+            this.stack = stack;
+            this.memoryMap = memoryMap;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Takes a snapshot of memory.  This copies the block tables but not the blocks, and the text
+     * segment only if self-modifying code is enabled.
+     *
+     * @return the snapshot, for {@link #restoreSnapshot(Snapshot)}
+     */
+    synchronized Snapshot takeSnapshot() {
+        anyShared = true;
+        ProgramStatement[][] text = null;
+        if (Globals.getSettings().getBooleanSetting(Settings.Bool.SELF_MODIFYING_CODE_ENABLED)) {
+            text = copyText(textBlockTable);
+        }
+        return new Snapshot(heapAddress, share(dataBlockTable, dataShared), share(stackBlockTable, stackShared),
+                share(memoryMapBlockTable, memoryMapShared), text);
+    }
+
+    /**
+     * Puts memory back the way it was when a snapshot was taken.  The snapshot stays valid and
+     * can be restored again.  Observers are not notified.
+     *
+     * @param snapshot a snapshot taken by {@link #takeSnapshot()}
+     */
+    synchronized void restoreSnapshot(Snapshot snapshot) {
+        heapAddress = snapshot.heapAddress;
+        dataShared = new boolean[BLOCK_TABLE_LENGTH];
+        stackShared = new boolean[BLOCK_TABLE_LENGTH];
+        memoryMapShared = new boolean[MMIO_TABLE_LENGTH];
+        dataBlockTable = unshare(snapshot.data, BLOCK_TABLE_LENGTH, dataShared);
+        stackBlockTable = unshare(snapshot.stack, BLOCK_TABLE_LENGTH, stackShared);
+        memoryMapBlockTable = unshare(snapshot.memoryMap, MMIO_TABLE_LENGTH, memoryMapShared);
+        anyShared = true;
+        if (snapshot.text != null) {
+            textBlockTable = copyText(snapshot.text);
+            decodedBlockTable = new DecodedInstruction[TEXT_BLOCK_TABLE_LENGTH][];
+        }
+    }
+
+    // Marks the blocks of a table as shared and returns a copy of the table, cut short after
+    // the last allocated block
+    private static byte[][] share(byte[][] blockTable, boolean[] shared) {
+        int length = blockTable.length;
+        while (length > 0 && blockTable[length - 1] == null) {
+            length--;
+        }
+        for (int block = 0; block < length; block++) {
+            if (blockTable[block] != null) {
+                shared[block] = true;
+            }
+        }
+        return Arrays.copyOf(blockTable, length);
+    }
+
+    // The other way round: a full length table referring to the snapshot's blocks
+    private static byte[][] unshare(byte[][] snapshotTable, int tableLength, boolean[] shared) {
+        byte[][] blockTable = Arrays.copyOf(snapshotTable, tableLength);
+        for (int block = 0; block < snapshotTable.length; block++) {
+            shared[block] = snapshotTable[block] != null;
+        }
+        return blockTable;
+    }
+
+    private static ProgramStatement[][] copyText(ProgramStatement[][] text) {
+        ProgramStatement[][] copy = new ProgramStatement[TEXT_BLOCK_TABLE_LENGTH][];
+        for (int block = 0; block < TEXT_BLOCK_TABLE_LENGTH; block++) {
+            if (text[block] != null) {
+                copy[block] = text[block].clone();
+            }
+        }
+        return copy;
+    }
+
+    // Gives the table its own copy of a block a snapshot refers to, before it is stored to
+    private void copyIfShared(byte[][] blockTable, int block) {
+        boolean[] shared = sharedBlocks(blockTable);
+        if (shared[block]) {
+            blockTable[block] = blockTable[block].clone();
+            shared[block] = false;
+        }
+    }
+
+    private boolean[] sharedBlocks(byte[][] blockTable) {
+        return (blockTable == dataBlockTable) ? dataShared
+                : (blockTable == stackBlockTable) ? stackShared : memoryMapShared;
+    }
+
+    // Blocks are written as big endian words, whatever order they are kept in
+    private static void writeBlocks(DataOutputStream out, byte[][] blockTable) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_LENGTH_BYTES);
+        for (int block = 0; block < blockTable.length; block++) {
+            byte[] bytes = blockTable[block];
+            if (bytes == null || allZero(bytes)) {
+                continue;
+            }
+            buffer.clear();
+            buffer.asIntBuffer().put(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer());
+            out.writeInt(block);
+            out.write(buffer.array());
+        }
+        out.writeInt(-1);
+    }
+
+    private static byte[][] readBlocks(DataInputStream in, int tableLength) throws IOException {
+        byte[][] blockTable = new byte[tableLength][];
+        byte[] bytes = new byte[BLOCK_LENGTH_BYTES];
+        for (int block = in.readInt(); block != -1; block = in.readInt()) {
+            if (block < 0 || block >= tableLength) {
+                throw new IOException("bad memory block number " + block);
+            }
+            in.readFully(bytes);
+            blockTable[block] = new byte[BLOCK_LENGTH_BYTES];
+            ByteBuffer.wrap(blockTable[block]).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(ByteBuffer.wrap(bytes).asIntBuffer());
+        }
+        return blockTable;
+    }
+
+    private static boolean allZero(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns the next available word-aligned heap address.  There is no recycling and
      * no heap management!  There is however nearly 4MB of heap space available in Mars.
@@ -368,16 +632,13 @@ public class Memory extends Observable {
     public int set(int address, int value, int length) throws AddressErrorException {
         int oldValue = 0;
         if (Globals.debug) System.out.println("memory[" + address + "] set to " + value + "(" + length + " bytes)");
-        int relativeByteAddress;
         if (inDataSegment(address)) {
             // in data segment.  Will write one byte at a time, w/o regard to boundaries.
-            relativeByteAddress = address - dataSegmentBaseAddress; // relative to data segment start, in bytes
-            oldValue = storeBytesInTable(dataBlockTable, relativeByteAddress, length, value);
+            oldValue = storeBytesInTable(dataBlockTable, address, length, value);
         } else if (address > stackLimitAddress && address <= stackBaseAddress) {
             // in stack.  Handle similarly to data segment write, except relative byte
             // address calculated "backward" because stack addresses grow down from base.
-            relativeByteAddress = stackBaseAddress - address;
-            oldValue = storeBytesInTable(stackBlockTable, relativeByteAddress, length, value);
+            oldValue = storeBytesInTable(stackBlockTable, address, length, value);
         } else if (inTextSegment(address)) {
             // Burch Mod (Jan 2013): replace throw with call to setStatement
             // DPS adaptation 5-Jul-2013: either throw or call, depending on setting
@@ -396,14 +657,19 @@ public class Memory extends Observable {
             }
         } else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
             // memory mapped I/O.
-            relativeByteAddress = address - memoryMapBaseAddress;
-            oldValue = storeBytesInTable(memoryMapBlockTable, relativeByteAddress, length, value);
+            oldValue = storeBytesInTable(memoryMapBlockTable, address, length, value);
         } else {
             // falls outside Mars addressing range
             throw new AddressErrorException("address out of range ",
                     SimulationException.STORE_ACCESS_FAULT, address);
         }
         notifyAnyObservers(AccessNotice.WRITE, address, length, value);
+        if (TraceRecorder.recording) {
+            TraceRecorder.memory(TraceRecorder.MEMORY_WRITE, address, length, value);
+        }
+        if (CacheHierarchy.simulating) {
+            CacheHierarchy.data(address, true);
+        }
         return oldValue;
     }
 
@@ -420,17 +686,15 @@ public class Memory extends Observable {
      * @throws AddressErrorException If address is not on word boundary.
      **/
     public int setRawWord(int address, int value) throws AddressErrorException {
-        int relative, oldValue = 0;
+        int oldValue = 0;
         checkStoreWordAligned(address);
         if (inDataSegment(address)) {
             // in data segment
-            relative = (address - dataSegmentBaseAddress) >> 2; // convert byte address to words
-            oldValue = storeWordInTable(dataBlockTable, relative, value);
+            oldValue = storeWordInTable(dataBlockTable, address, value);
         } else if (address > stackLimitAddress && address <= stackBaseAddress) {
             // in stack.  Handle similarly to data segment write, except relative
             // address calculated "backward" because stack addresses grow down from base.
-            relative = (stackBaseAddress - address) >> 2; // convert byte address to words
-            oldValue = storeWordInTable(stackBlockTable, relative, value);
+            oldValue = storeWordInTable(stackBlockTable, address, value);
         } else if (inTextSegment(address)) {
             // Burch Mod (Jan 2013): replace throw with call to setStatement
             // DPS adaptation 5-Jul-2013: either throw or call, depending on setting
@@ -447,14 +711,19 @@ public class Memory extends Observable {
             }
         } else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
             // memory mapped I/O.
-            relative = (address - memoryMapBaseAddress) >> 2; // convert byte address to word
-            oldValue = storeWordInTable(memoryMapBlockTable, relative, value);
+            oldValue = storeWordInTable(memoryMapBlockTable, address, value);
         } else {
             // falls outside Mars addressing range
             throw new AddressErrorException("store address out of range ",
                     SimulationException.STORE_ACCESS_FAULT, address);
         }
         notifyAnyObservers(AccessNotice.WRITE, address, WORD_LENGTH_BYTES, value);
+        if (TraceRecorder.recording) {
+            TraceRecorder.memory(TraceRecorder.MEMORY_WRITE, address, WORD_LENGTH_BYTES, value);
+        }
+        if (CacheHierarchy.simulating) {
+            CacheHierarchy.data(address, true);
+        }
         if (Globals.getSettings().getBackSteppingEnabled()) {
             Globals.program.getBackStepper().addMemoryRestoreRawWord(address, oldValue);
         }
@@ -582,19 +851,15 @@ public class Memory extends Observable {
     // Does the real work, but includes option to NOT notify observers.
     private int get(int address, int length, boolean notify) throws AddressErrorException {
         int value = 0;
-        int relativeByteAddress;
         if (inDataSegment(address)) {
             // in data segment.  Will read one byte at a time, w/o regard to boundaries.
-            relativeByteAddress = address - dataSegmentBaseAddress; // relative to data segment start, in bytes
-            value = fetchBytesFromTable(dataBlockTable, relativeByteAddress, length);
+            value = fetchBytesFromTable(dataBlockTable, address, length);
         } else if (address > stackLimitAddress && address <= stackBaseAddress) {
             // in stack. Similar to data, except relative address computed "backward"
-            relativeByteAddress = stackBaseAddress - address;
-            value = fetchBytesFromTable(stackBlockTable, relativeByteAddress, length);
+            value = fetchBytesFromTable(stackBlockTable, address, length);
         } else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
             // memory mapped I/O.
-            relativeByteAddress = address - memoryMapBaseAddress;
-            value = fetchBytesFromTable(memoryMapBlockTable, relativeByteAddress, length);
+            value = fetchBytesFromTable(memoryMapBlockTable, address, length);
         } else if (inTextSegment(address)) {
             // Burch Mod (Jan 2013): replace throw with calls to getStatementNoNotify & getBinaryStatement
             // DPS adaptation 5-Jul-2013: either throw or call, depending on setting
@@ -611,7 +876,15 @@ public class Memory extends Observable {
             throw new AddressErrorException("address out of range ",
                     SimulationException.LOAD_ACCESS_FAULT, address);
         }
-        if (notify) notifyAnyObservers(AccessNotice.READ, address, length, value);
+        if (notify) {
+            notifyAnyObservers(AccessNotice.READ, address, length, value);
+            if (TraceRecorder.recording) {
+                TraceRecorder.memory(TraceRecorder.MEMORY_READ, address, length, value);
+            }
+            if (CacheHierarchy.simulating) {
+                CacheHierarchy.data(address, false);
+            }
+        }
         return value;
     }
 
@@ -635,20 +908,16 @@ public class Memory extends Observable {
     // I decided to keep the duplicate logic.
     public int getRawWord(int address) throws AddressErrorException {
         int value = 0;
-        int relative;
         checkLoadWordAligned(address);
         if (inDataSegment(address)) {
             // in data segment
-            relative = (address - dataSegmentBaseAddress) >> 2; // convert byte address to words
-            value = fetchWordFromTable(dataBlockTable, relative);
+            value = fetchWordFromTable(dataBlockTable, address);
         } else if (address > stackLimitAddress && address <= stackBaseAddress) {
             // in stack. Similar to data, except relative address computed "backward"
-            relative = (stackBaseAddress - address) >> 2; // convert byte address to words
-            value = fetchWordFromTable(stackBlockTable, relative);
+            value = fetchWordFromTable(stackBlockTable, address);
         } else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
             // memory mapped I/O.
-            relative = (address - memoryMapBaseAddress) >> 2;
-            value = fetchWordFromTable(memoryMapBlockTable, relative);
+            value = fetchWordFromTable(memoryMapBlockTable, address);
         } else if (inTextSegment(address)) {
             // Burch Mod (Jan 2013): replace throw with calls to getStatementNoNotify & getBinaryStatement
             // DPS adaptation 5-Jul-2013: either throw or call, depending on setting
@@ -666,6 +935,12 @@ public class Memory extends Observable {
                     SimulationException.LOAD_ACCESS_FAULT, address);
         }
         notifyAnyObservers(AccessNotice.READ, address, Memory.WORD_LENGTH_BYTES, value);
+        if (TraceRecorder.recording) {
+            TraceRecorder.memory(TraceRecorder.MEMORY_READ, address, WORD_LENGTH_BYTES, value);
+        }
+        if (CacheHierarchy.simulating) {
+            CacheHierarchy.data(address, false);
+        }
         return value;
     }
 
@@ -693,16 +968,13 @@ public class Memory extends Observable {
     // See note above, with getRawWord(), concerning duplicated logic.
     public Integer getRawWordOrNull(int address) throws AddressErrorException {
         Integer value = null;
-        int relative;
         checkLoadWordAligned(address);
         if (inDataSegment(address)) {
             // in data segment
-            relative = (address - dataSegmentBaseAddress) >> 2; // convert byte address to words
-            value = fetchWordOrNullFromTable(dataBlockTable, relative);
+            value = fetchWordOrNullFromTable(dataBlockTable, address);
         } else if (address > stackLimitAddress && address <= stackBaseAddress) {
             // in stack. Similar to data, except relative address computed "backward"
-            relative = (stackBaseAddress - address) >> 2; // convert byte address to words
-            value = fetchWordOrNullFromTable(stackBlockTable, relative);
+            value = fetchWordOrNullFromTable(stackBlockTable, address);
         } else if (inTextSegment(address)) {
             try {
                 value = (getStatementNoNotify(address) == null) ? null : getStatementNoNotify(address).getBinaryStatement();
@@ -819,6 +1091,63 @@ public class Memory extends Observable {
 
     ////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * Gets the decoded instruction at the given Text Segment address, for use by the
+     * simulator's fetch loop.  Observers are notified of the read just as they are by
+     * getStatement().  Only word-aligned text segment addresses that hold a basic
+     * instruction are decoded; for anything else (including an empty word) this returns null
+     * and the caller should fall back to getStatement(), which reports the proper error.
+     *
+     * @param address address of the instruction to fetch
+     * @return the decoded instruction at that address, or null if it cannot be decoded
+     * @see DecodedInstruction
+     **/
+    public DecodedInstruction getDecodedInstruction(int address) {
+        return getDecodedInstruction(address, true);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Gets the decoded instruction at the given Text Segment address without notifying observers.
+     *
+     * @param address address of the instruction to fetch
+     * @return the decoded instruction at that address, or null if it cannot be decoded
+     * @see #getDecodedInstruction(int)
+     **/
+    public DecodedInstruction getDecodedInstructionNoNotify(int address) {
+        return getDecodedInstruction(address, false);
+    }
+
+    //////////
+
+    private DecodedInstruction getDecodedInstruction(int address, boolean notify) {
+        if ((address & 3) != 0 || !inTextSegment(address)) {
+            return null;
+        }
+        int relative = (address - textBaseAddress) >> 2;
+        int block = relative / TEXT_BLOCK_LENGTH_WORDS;
+        int offset = relative % TEXT_BLOCK_LENGTH_WORDS;
+        DecodedInstruction[] decodedBlock = decodedBlockTable[block];
+        DecodedInstruction decoded = (decodedBlock == null) ? null : decodedBlock[offset];
+        if (decoded == null) {
+            ProgramStatement statement = (textBlockTable[block] == null) ? null : textBlockTable[block][offset];
+            if (statement == null || !(statement.getInstruction() instanceof BasicInstruction)) {
+                return null;
+            }
+            decoded = new DecodedInstruction(statement);
+            if (decodedBlock == null) {
+                decodedBlock = decodedBlockTable[block] = new DecodedInstruction[TEXT_BLOCK_LENGTH_WORDS];
+            }
+            decodedBlock[offset] = decoded;
+        }
+        if (notify)
+            notifyAnyObservers(AccessNotice.READ, address, Instruction.INSTRUCTION_LENGTH, decoded.getBinaryStatement());
+        return decoded;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+
     /**
      * Gets ProgramStatement from Text Segment without notifying observers.
      *
@@ -990,6 +1319,7 @@ public class Memory extends Observable {
                     SimulationException.LOAD_ACCESS_FAULT, startAddr);
         }
         observables.add(new MemoryObservable(obs, startAddr, endAddr));
+        observerIndex = new ObserverIndex(observables);
     }
 
     /**
@@ -1008,6 +1338,7 @@ public class Memory extends Observable {
         for (MemoryObservable o : observables) {
             o.deleteObserver(obs);
         }
+        observerIndex = new ObserverIndex(observables);
     }
 
     /**
@@ -1016,6 +1347,7 @@ public class Memory extends Observable {
     public void deleteObservers() {
         // just drop the collection
         observables = getNewMemoryObserversCollection();
+        observerIndex = ObserverIndex.EMPTY;
     }
 
     /**
@@ -1066,8 +1398,6 @@ public class Memory extends Observable {
             this.notifyObservers(notice);
         }
 
-        // Useful to have for future refactoring, if it actually becomes worthwhile to sort
-        // these or put 'em in a tree (rather than sequential search through list).
         public int compareTo(MemoryObservable mo) {
             if (this.lowAddress < mo.lowAddress || this.lowAddress == mo.lowAddress && this.highAddress < mo.highAddress) {
                 return -1;
@@ -1079,6 +1409,51 @@ public class Memory extends Observable {
         }
     }
 
+    /////////////////////////////////////////////////////////////////////////
+    // The observed address ranges cut the address space into segments, each covered by
+    // the same observables from start to end.  Finding the segment an address falls in is
+    // a binary search over the segment starts.  An index never changes once built, so the
+    // simulator can use one while another thread adds or removes observers.
+    private static class ObserverIndex {
+        private static final MemoryObservable[] NONE = new MemoryObservable[0];
+        private static final ObserverIndex EMPTY = new ObserverIndex();
+
+        private final long[] starts; // ascending; the last one only ends the segment before it
+        private final MemoryObservable[][] covering;
+
+        private ObserverIndex() {
+            starts = new long[0];
+            covering = new MemoryObservable[0][];
+        }
+
+        private ObserverIndex(Collection<MemoryObservable> observables) {
+            MemoryObservable[] all;
+            synchronized (observables) {
+                all = observables.stream().filter(mo -> mo.countObservers() > 0).toArray(MemoryObservable[]::new);
+            }
+            long[] bounds = new long[2 * all.length];
+            for (int i = 0; i < all.length; i++) {
+                bounds[2 * i] = all[i].lowAddress;
+                bounds[2 * i + 1] = (long) all[i].highAddress + WORD_LENGTH_BYTES; // may be past 0x7fffffff
+            }
+            starts = Arrays.stream(bounds).sorted().distinct().toArray();
+            covering = new MemoryObservable[Math.max(starts.length - 1, 0)][];
+            for (int i = 0; i < covering.length; i++) {
+                int start = (int) starts[i]; // only the last bound can be past 0x7fffffff
+                // in the order they were added, which is the order they are notified in
+                covering[i] = Arrays.stream(all).filter(mo -> mo.match(start)).toArray(MemoryObservable[]::new);
+            }
+        }
+
+        private MemoryObservable[] find(int address) {
+            int i = Arrays.binarySearch(starts, address);
+            if (i < 0) {
+                i = -i - 2; // the segment starting below the address
+            }
+            return (i >= 0 && i < covering.length) ? covering[i] : NONE;
+        }
+    }
+
 
     /*********************************  THE HELPERS  *************************************/
 
@@ -1089,188 +1464,158 @@ public class Memory extends Observable {
     //
     // The "|| Globals.getGui()==null" is a hack added 19 July 2012 DPS.  IF MIPS simulation
     // is from command mode, Globals.program is null but still want ability to observe.
+    //
+    // All the observers of the address share one notice, which cannot be changed.
     private void notifyAnyObservers(int type, int address, int length, int value) {
-        if ((Globals.program != null || Globals.getGui() == null) && this.observables.size() > 0) {
-            for (MemoryObservable mo : observables) {
-                if (mo.match(address)) {
-                    mo.notifyObserver(new MemoryAccessNotice(type, address, length, value));
-                }
+        MemoryObservable[] matches = observerIndex.find(address);
+        if (matches.length > 0 && (Globals.program != null || Globals.getGui() == null)) {
+            MemoryAccessNotice notice = new MemoryAccessNotice(type, address, length, value);
+            for (MemoryObservable mo : matches) {
+                mo.notifyObserver(notice);
             }
         }
     }
 
     ////////////////////////////////////////////////////////////////////////////////
     //
-    // Helper method to store 1, 2 or 4 byte value in table that represents MIPS
-    // memory. Originally used just for data segment, but now also used for stack.
-    // Both use different tables but same storage method and same table size
-    // and block size.
-    // Modified 29 Dec 2005 to return old value of replaced bytes.
+    // Helpers to store and fetch values in the tables that represent data, stack and
+    // MMIO memory.  Each block of a table is a 4096 byte array holding its words in
+    // little endian order, and aligned words, halfwords and bytes are read and written
+    // through VarHandle views of it without taking the Memory lock.  Only allocating a
+    // block, or copying one a snapshot shares, is synchronized.  Accesses that are not
+    // aligned, and all but raw words in big endian mode, are done a byte at a time.
     //
-    private static final boolean STORE = true;
-    private static final boolean FETCH = false;
-
-    private int storeBytesInTable(int[][] blockTable,
-                                  int relativeByteAddress, int length, int value) {
-        return storeOrFetchBytesInTable(blockTable, relativeByteAddress, length, value, STORE);
-    }
-
-    ////////////////////////////////////////////////////////////////////////////////
-    //
-    // Helper method to fetch 1, 2 or 4 byte value from table that represents MIPS
-    // memory.  Originally used just for data segment, but now also used for stack.
-    // Both use different tables but same storage method and same table size
-    // and block size.
-    //
-
-    private int fetchBytesFromTable(int[][] blockTable, int relativeByteAddress, int length) {
-        return storeOrFetchBytesInTable(blockTable, relativeByteAddress, length, 0, FETCH);
+    // Stores return the old value of the replaced bytes, right justified like a fetch.
+
+    private static final VarHandle WORD = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle HALF = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private int storeBytesInTable(byte[][] blockTable, int address, int length, int value) {
+        if (byteOrder == LITTLE_ENDIAN && isAligned(address, length)) {
+            int offset = offsetInTable(blockTable, address);
+            byte[] block = blockToStore(blockTable, offset >> BLOCK_SHIFT);
+            int index = offset & (BLOCK_LENGTH_BYTES - 1);
+            int oldValue;
+            switch (length) {
+                case 1:
+                    oldValue = block[index] & 0xFF;
+                    block[index] = (byte) value;
+                    return oldValue;
+                case 2:
+                    oldValue = (short) HALF.get(block, index) & 0xFFFF;
+                    HALF.set(block, index, (short) value);
+                    return oldValue;
+                default:
+                    oldValue = (int) WORD.get(block, index);
+                    WORD.set(block, index, value);
+                    return oldValue;
+            }
+        }
+        int oldValue = 0;
+        for (int i = 0; i < length; i++) {
+            int offset = byteOffsetInTable(blockTable, address + i);
+            byte[] block = blockToStore(blockTable, offset >> BLOCK_SHIFT);
+            int index = offset & (BLOCK_LENGTH_BYTES - 1);
+            oldValue |= (block[index] & 0xFF) << (i << 3);
+            block[index] = (byte) (value >> (i << 3));
+        }
+        return oldValue;
     }
 
-    ////////////////////////////////////////////////////////////////////////////////
-    //
-    // The helper's helper.  Works for either storing or fetching, little or big endian.
-    // When storing/fetching bytes, most of the work is calculating the correct array element(s)
-    // and element byte(s).  This method performs either store or fetch, as directed by its
-    // client using STORE or FETCH in last arg.
-    // Modified 29 Dec 2005 to return old value of replaced bytes, for STORE.
-    //
-    private synchronized int storeOrFetchBytesInTable(int[][] blockTable,
-                                                      int relativeByteAddress, int length, int value, boolean op) {
-        int relativeWordAddress, block, offset, bytePositionInMemory, bytePositionInValue;
-        int oldValue = 0; // for STORE, return old values of replaced bytes
-        int loopStopper = 3 - length;
-        // IF added DPS 22-Dec-2008. NOTE: has NOT been tested with Big-Endian.
-        // Fix provided by Saul Spatz; comments that follow are his.
-        // If address in stack segment is 4k + m, with 0 < m < 4, then the
-        // relativeByteAddress we want is stackBaseAddress - 4k + m, but the
-        // address actually passed in is stackBaseAddress - (4k + m), so we
-        // need to add 2m.  Because of the change in sign, we get the
-        // expression 4-delta below in place of m.
-        if (blockTable == stackBlockTable) {
-            int delta = relativeByteAddress % 4;
-            if (delta != 0) {
-                relativeByteAddress += (4 - delta) << 1;
+    private int fetchBytesFromTable(byte[][] blockTable, int address, int length) {
+        if (byteOrder == LITTLE_ENDIAN && isAligned(address, length)) {
+            int offset = offsetInTable(blockTable, address);
+            byte[] block = blockTable[offset >> BLOCK_SHIFT];
+            if (block == null) {
+                return 0; // not stored to yet
             }
-        }
-        for (bytePositionInValue = 3; bytePositionInValue > loopStopper; bytePositionInValue--) {
-            bytePositionInMemory = relativeByteAddress % 4;
-            relativeWordAddress = relativeByteAddress >> 2;
-            block = relativeWordAddress / BLOCK_LENGTH_WORDS;  // Block number
-            offset = relativeWordAddress % BLOCK_LENGTH_WORDS; // Word within that block
-            if (blockTable[block] == null) {
-                if (op == STORE)
-                    blockTable[block] = new int[BLOCK_LENGTH_WORDS];
-                else
-                    return 0;
+            int index = offset & (BLOCK_LENGTH_BYTES - 1);
+            switch (length) {
+                case 1:
+                    return block[index] & 0xFF;
+                case 2:
+                    return (short) HALF.get(block, index) & 0xFFFF;
+                default:
+                    return (int) WORD.get(block, index);
             }
-            if (byteOrder == LITTLE_ENDIAN) bytePositionInMemory = 3 - bytePositionInMemory;
-            if (op == STORE) {
-                oldValue = replaceByte(blockTable[block][offset], bytePositionInMemory,
-                        oldValue, bytePositionInValue);
-                blockTable[block][offset] = replaceByte(value, bytePositionInValue,
-                        blockTable[block][offset], bytePositionInMemory);
-            } else {// op == FETCH
-                value = replaceByte(blockTable[block][offset], bytePositionInMemory,
-                        value, bytePositionInValue);
+        }
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            int offset = byteOffsetInTable(blockTable, address + i);
+            byte[] block = blockTable[offset >> BLOCK_SHIFT];
+            if (block != null) {
+                value |= (block[offset & (BLOCK_LENGTH_BYTES - 1)] & 0xFF) << (i << 3);
             }
-            relativeByteAddress++;
         }
-        return (op == STORE) ? oldValue : value;
+        return value;
     }
 
-    ////////////////////////////////////////////////////////////////////////////////
-    //
-    // Helper method to store 4 byte value in table that represents MIPS memory.
-    // Originally used just for data segment, but now also used for stack.
-    // Both use different tables but same storage method and same table size
-    // and block size.  Assumes address is word aligned, no endian processing.
-    // Modified 29 Dec 2005 to return overwritten value.
-
-    private synchronized int storeWordInTable(int[][] blockTable, int relative, int value) {
-        int block, offset, oldValue;
-        block = relative / BLOCK_LENGTH_WORDS;
-        offset = relative % BLOCK_LENGTH_WORDS;
-        if (blockTable[block] == null) {
-            // First time writing to this block, so allocate the space.
-            blockTable[block] = new int[BLOCK_LENGTH_WORDS];
-        }
-        oldValue = blockTable[block][offset];
-        blockTable[block][offset] = value;
+    // Stores and fetches a word as is, without regard to byte order.  The address is word aligned.
+    private int storeWordInTable(byte[][] blockTable, int address, int value) {
+        int offset = offsetInTable(blockTable, address);
+        byte[] block = blockToStore(blockTable, offset >> BLOCK_SHIFT);
+        int index = offset & (BLOCK_LENGTH_BYTES - 1);
+        int oldValue = (int) WORD.get(block, index);
+        WORD.set(block, index, value);
         return oldValue;
     }
 
-    ////////////////////////////////////////////////////////////////////////////////
-    //
-    // Helper method to fetch 4 byte value from table that represents MIPS memory.
-    // Originally used just for data segment, but now also used for stack.
-    // Both use different tables but same storage method and same table size
-    // and block size.  Assumes word alignment, no endian processing.
-    //
-
-    private synchronized int fetchWordFromTable(int[][] blockTable, int relative) {
-        int value = 0;
-        int block, offset;
-        block = relative / BLOCK_LENGTH_WORDS;
-        offset = relative % BLOCK_LENGTH_WORDS;
-        if (blockTable[block] == null) {
-            // first reference to an address in this block.  Assume initialized to 0.
-            value = 0;
-        } else {
-            value = blockTable[block][offset];
-        }
-        return value;
+    private int fetchWordFromTable(byte[][] blockTable, int address) {
+        int offset = offsetInTable(blockTable, address);
+        byte[] block = blockTable[offset >> BLOCK_SHIFT];
+        // first reference to an address in this block.  Assume initialized to 0.
+        return (block == null) ? 0 : (int) WORD.get(block, offset & (BLOCK_LENGTH_BYTES - 1));
     }
 
-    ////////////////////////////////////////////////////////////////////////////////
-    //
-    // Helper method to fetch 4 byte value from table that represents MIPS memory.
-    // Originally used just for data segment, but now also used for stack.
-    // Both use different tables but same storage method and same table size
-    // and block size.  Assumes word alignment, no endian processing.
-    //
     // This differs from "fetchWordFromTable()" in that it returns an Integer and
     // returns null instead of 0 if the 4K table has not been allocated.  Developed
     // by Greg Gibeling of UC Berkeley, fall 2007.
-    //
+    private Integer fetchWordOrNullFromTable(byte[][] blockTable, int address) {
+        int offset = offsetInTable(blockTable, address);
+        byte[] block = blockTable[offset >> BLOCK_SHIFT];
+        return (block == null) ? null : (Integer) (int) WORD.get(block, offset & (BLOCK_LENGTH_BYTES - 1));
+    }
 
-    private synchronized Integer fetchWordOrNullFromTable(int[][] blockTable, int relative) {
-        int value = 0;
-        int block, offset;
-        block = relative / BLOCK_LENGTH_WORDS;
-        offset = relative % BLOCK_LENGTH_WORDS;
-        if (blockTable[block] == null) {
-            // first reference to an address in this block.  Assume initialized to 0.
-            return null;
+    private static boolean isAligned(int address, int length) {
+        return length == 1 || length == 2 && (address & 1) == 0 || length == 4 && (address & 3) == 0;
+    }
+
+    // Where the byte at the address is kept in the table.  The stack grows down from its base,
+    // so its words are kept in reverse order, each with its bytes in the usual order.
+    private int offsetInTable(byte[][] blockTable, int address) {
+        if (blockTable == dataBlockTable) {
+            return address - dataSegmentBaseAddress;
+        } else if (blockTable == stackBlockTable) {
+            return stackBaseAddress - (address & ~3) + (address & 3);
         } else {
-            value = blockTable[block][offset];
+            return address - memoryMapBaseAddress;
         }
-        return value;
     }
 
-    ////////////////////////////////////////////////////////////////////////////////////
-    // Returns result of substituting specified byte of source value into specified byte
-    // of destination value. Byte positions are 0-1-2-3, listed from most to least
-    // significant.  No endian issues.  This is a private helper method used by get() & set().
-    private int replaceByte(int sourceValue, int bytePosInSource, int destValue, int bytePosInDest) {
-        return
-                // Set source byte value into destination byte position; set other 24 bits to 0's...
-                ((sourceValue >> (24 - (bytePosInSource << 3)) & 0xFF)
-                        << (24 - (bytePosInDest << 3)))
-                        // and bitwise-OR it with...
-                        |
-                        // Set 8 bits in destination byte position to 0's, other 24 bits are unchanged.
-                        (destValue & ~(0xFF << (24 - (bytePosInDest << 3))));
+    // Where a single byte is kept, allowing for a big endian byte order within the word
+    private int byteOffsetInTable(byte[][] blockTable, int address) {
+        int offset = offsetInTable(blockTable, address);
+        return (byteOrder == LITTLE_ENDIAN) ? offset : offset ^ 3;
     }
 
-    ///////////////////////////////////////////////////////////////////////
-    // Reverses byte sequence of given value.  Can use to convert between big and
-    // little endian if needed.
-    private int reverseBytes(int source) {
-        return (source >> 24 & 0x000000FF) |
-                (source >> 8 & 0x0000FF00) |
-                (source << 8 & 0x00FF0000) |
-                (source << 24);
+    // The block to store to, allocated on the first store to it and copied first if a
+    // snapshot shares it
+    private byte[] blockToStore(byte[][] blockTable, int block) {
+        byte[] bytes = blockTable[block];
+        if (bytes == null || anyShared && sharedBlocks(blockTable)[block]) {
+            bytes = makeBlockWritable(blockTable, block);
+        }
+        return bytes;
+    }
+
+    private synchronized byte[] makeBlockWritable(byte[][] blockTable, int block) {
+        if (blockTable[block] == null) {
+            // First time writing to this block, so allocate the space.
+            blockTable[block] = new byte[BLOCK_LENGTH_BYTES];
+        } else {
+            copyIfShared(blockTable, block);
+        }
+        return blockTable[block];
     }
 
     ///////////////////////////////////////////////////////////////////////
@@ -1287,6 +1632,9 @@ public class Memory extends Observable {
                 blockTable[block] = new ProgramStatement[BLOCK_LENGTH_WORDS];
             }
             blockTable[block][offset] = statement;
+            if (blockTable == textBlockTable && decodedBlockTable[block] != null) {
+                decodedBlockTable[block][offset] = null; // must be decoded again on next fetch
+            }
         }
     }
 
@@ -1,6 +1,8 @@
 package rars.riscv.hardware;
 
+import java.lang.invoke.VarHandle;
 import java.util.Observable;
+import java.util.Observer;
 
 /*
 Copyright (c) 2003-2006,  Pete Sanderson and Kenneth Vollmar
@@ -40,11 +42,18 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 public class Register extends Observable {
     private String name;
     private int number, resetValue;
-    // volatile should be enough to allow safe multi-threaded access
-    // w/o the use of synchronized methods.  getValue and setValue
-    // are the only methods here used by the register collection
-    // (RegisterFile, ControlAndStatusRegisterFile, FloatingPointRegisterFile) methods.
-    private volatile int value;
+    // The value lives in storage[slot].  A stand-alone register owns a one element array;
+    // RegisterFile and FloatingPointRegisterFile bind their registers to a shared int array
+    // that the simulator reads and writes directly while nobody is observing, which makes the
+    // Register objects views of that array.  Those writes take neither this object's lock nor a
+    // volatile, so the simulator calls publish() after every batch of instructions, a release
+    // fence, and the reads below start with an acquire fence.  That way the GUI sees values at
+    // least as new as the last batch, as it did when the value itself was volatile.
+    private int[] storage = new int[1];
+    private int slot;
+    // Kept in step with the Observable observer list so the register files can test it cheaply.
+    private volatile boolean observed;
+    private RegisterBlock block;
 
     /**
      * Creates a new register with specified name, number, and value.
@@ -57,10 +66,67 @@ public class Register extends Observable {
     public Register(String n, int num, int val) {
         name = n;
         number = num;
-        value = val;
+        storage[slot] = val;
         resetValue = val;
     }
 
+    /**
+     * Moves the value of this register into storage[slot]; from then on the register
+     * reads and writes that array element.
+     */
+    void bindStorage(int[] storage, int slot) {
+        storage[slot] = this.storage[this.slot];
+        this.storage = storage;
+        this.slot = slot;
+    }
+
+    /**
+     * Makes the values the calling thread has written to register storage visible to threads
+     * that read them through Register objects afterwards.  The simulator calls this after each
+     * batch of instructions, since it may have written the shared arrays directly.
+     */
+    public static void publish() {
+        VarHandle.releaseFence();
+    }
+
+    /**
+     * Sets the block to tell when observers of this register come and go.
+     */
+    void setBlock(RegisterBlock block) {
+        this.block = block;
+    }
+
+    /**
+     * @return true if at least one observer is attached to this register
+     */
+    boolean isObserved() {
+        return observed;
+    }
+
+    @SuppressWarnings("deprecation")
+    public synchronized void addObserver(Observer o) {
+        super.addObserver(o);
+        observersChanged();
+    }
+
+    @SuppressWarnings("deprecation")
+    public synchronized void deleteObserver(Observer o) {
+        super.deleteObserver(o);
+        observersChanged();
+    }
+
+    public synchronized void deleteObservers() {
+        super.deleteObservers();
+        observersChanged();
+    }
+
+    private void observersChanged() {
+        observed = countObservers() > 0;
+        if (block != null) {
+            block.observersChanged();
+        }
+    }
+
     /**
      * Returns the name of the Register.
      *
@@ -80,7 +146,8 @@ public class Register extends Observable {
 
     public synchronized int getValue() {
         notifyAnyObservers(AccessNotice.READ);
-        return value;
+        VarHandle.acquireFence(); // see publish()
+        return storage[slot];
     }
 
 
@@ -92,7 +159,8 @@ public class Register extends Observable {
      */
 
     public synchronized int getValueNoNotify() {
-        return value;
+        VarHandle.acquireFence(); // see publish()
+        return storage[slot];
     }
 
 
@@ -125,8 +193,8 @@ public class Register extends Observable {
      */
 
     public synchronized int setValue(int val) {
-        int old = value;
-        value = val;
+        int old = storage[slot];
+        storage[slot] = val;
         notifyAnyObservers(AccessNotice.WRITE);
         return old;
     }
@@ -137,7 +205,7 @@ public class Register extends Observable {
      */
 
     public synchronized void resetValue() {
-        value = resetValue;
+        storage[slot] = resetValue;
     }
 
     /**
@@ -153,7 +221,7 @@ public class Register extends Observable {
     // Method to notify any observers of register operation that has just occurred.
     //
     private void notifyAnyObservers(int type) {
-        if (this.countObservers() > 0) {// && Globals.program != null) && Globals.program.inSteppedExecution()) {
+        if (observed) {// && Globals.program != null) && Globals.program.inSteppedExecution()) {
             this.setChanged();
             this.notifyObservers(new RegisterAccessNotice(type, this.name));
         }
@@ -44,10 +44,48 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 public class RegisterBlock {
     private final Register[] regFile;
     private final char prefix;
+    private volatile boolean observed;
 
     protected RegisterBlock(char prefix, Register[] registers) {
+        this(prefix, registers, null);
+    }
+
+    /**
+     * Creates a block whose registers keep their values in the given array, indexed by
+     * register number, so the owner can access them without going through the Register objects.
+     *
+     * @param prefix    the character that prefixes numbered register names
+     * @param registers the registers of the block
+     * @param values    array to keep the register values in, or null to leave each register its own storage
+     */
+    protected RegisterBlock(char prefix, Register[] registers, int[] values) {
         this.prefix = prefix;
         this.regFile = registers;
+        for (Register r : regFile) {
+            r.setBlock(this);
+            if (values != null) {
+                r.bindStorage(values, r.getNumber());
+            }
+        }
+    }
+
+    /**
+     * Tells whether any register in the block has an observer.  While this is false the values
+     * may be accessed directly without losing any notifications.
+     *
+     * @return true if at least one register in the block is observed
+     */
+    public boolean isObserved() {
+        return observed;
+    }
+
+    // Called by a register of this block whenever its observers change.
+    void observersChanged() {
+        boolean any = false;
+        for (Register r : regFile) {
+            any |= r.isObserved();
+        }
+        observed = any;
     }
 
     /**
@@ -108,6 +146,9 @@ public class RegisterBlock {
      * @return the register for num or null if none exists
      */
     public Register getRegister(int num) {
+        if (num >= 0 && num < regFile.length && regFile[num].getNumber() == num) {
+            return regFile[num];
+        }
         for (Register r : regFile) {
             if (r.getNumber() == num) {
                 return r;
@@ -4,6 +4,7 @@ import rars.Globals;
 import rars.Settings;
 import rars.assembler.SymbolTable;
 import rars.riscv.Instruction;
+import rars.simulator.TraceRecorder;
 
 import java.util.Observer;
 
@@ -46,6 +47,12 @@ public class RegisterFile {
 
     public static final int GLOBAL_POINTER_REGISTER = 3;
     public static final int STACK_POINTER_REGISTER = 2;
+    private static final int PROGRAM_COUNTER = 32;
+    // Values of x0-x31 and, at index 32, the program counter.  The Register objects are views
+    // of this array; while none of them is observed the simulator uses the array directly.
+    private static final int[] values = new int[33];
+    // Number of ints saveState and restoreState work with.
+    static final int STATE_SIZE = values.length;
     private static final RegisterBlock instance = new RegisterBlock('x', new Register[]{
             new Register("zero", 0, 0), new Register("ra", 1, 0),
             new Register("sp", STACK_POINTER_REGISTER, Memory.stackPointer),
@@ -64,9 +71,13 @@ public class RegisterFile {
             new Register("s10", 26, 0), new Register("s11", 27, 0),
             new Register("t3", 28, 0), new Register("t4", 29, 0),
             new Register("t5", 30, 0), new Register("t6", 31, 0)
-    });
+    }, values);
 
-    private static Register programCounter = new Register("pc", 32, Memory.textBaseAddress);
+    private static final Register programCounter = new Register("pc", PROGRAM_COUNTER, Memory.textBaseAddress);
+
+    static {
+        programCounter.bindStorage(values, PROGRAM_COUNTER);
+    }
 
     /**
      * This method updates the register value who's number is num.  Also handles the lo and hi registers
@@ -78,11 +89,20 @@ public class RegisterFile {
     public static int updateRegister(int num, int val) {
         if (num == 0) {
             return 0;
+        }
+        int old;
+        if (instance.isObserved()) {
+            old = instance.updateRegister(num, val);
         } else {
-            return (Globals.getSettings().getBackSteppingEnabled())
-                    ? Globals.program.getBackStepper().addRegisterFileRestore(num, instance.updateRegister(num, val))
-                    : instance.updateRegister(num, val);
+            old = values[num];
+            values[num] = val;
         }
+        if (TraceRecorder.recording) {
+            TraceRecorder.register(TraceRecorder.INT_REGISTER, num, val, old);
+        }
+        return (Globals.getSettings().getBackSteppingEnabled())
+                ? Globals.program.getBackStepper().addRegisterFileRestore(num, old)
+                : old;
     }
 
     /**
@@ -104,7 +124,7 @@ public class RegisterFile {
      **/
 
     public static int getValue(int num) {
-        return instance.getValue(num);
+        return instance.isObserved() ? instance.getValue(num) : values[num];
 
     }
 
@@ -180,8 +200,14 @@ public class RegisterFile {
      **/
 
     public static int setProgramCounter(int value) {
-        int old = programCounter.getValue();
-        programCounter.setValue(value);
+        int old;
+        if (programCounter.isObserved()) {
+            old = programCounter.getValue();
+            programCounter.setValue(value);
+        } else {
+            old = values[PROGRAM_COUNTER];
+            values[PROGRAM_COUNTER] = value;
+        }
         if (Globals.getSettings().getBackSteppingEnabled()) {
             Globals.program.getBackStepper().addPCRestore(old);
         }
@@ -195,7 +221,7 @@ public class RegisterFile {
      **/
 
     public static int getProgramCounter() {
-        return programCounter.getValue();
+        return programCounter.isObserved() ? programCounter.getValue() : values[PROGRAM_COUNTER];
     }
 
     /**
@@ -236,7 +262,27 @@ public class RegisterFile {
      **/
 
     public static void incrementPC() {
-        programCounter.setValue(programCounter.getValue() + Instruction.INSTRUCTION_LENGTH);
+        if (programCounter.isObserved()) {
+            programCounter.setValue(programCounter.getValue() + Instruction.INSTRUCTION_LENGTH);
+        } else {
+            values[PROGRAM_COUNTER] += Instruction.INSTRUCTION_LENGTH;
+        }
+    }
+
+    /**
+     * Copies the values of all registers, including the program counter, into the given array,
+     * for a Checkpoint or a MachineSnapshot.
+     */
+    static void saveState(int[] state) {
+        System.arraycopy(values, 0, state, 0, STATE_SIZE);
+    }
+
+    /**
+     * Loads all registers, including the program counter, from an array filled by saveState.
+     * Observers are not notified and no backstep is recorded.
+     */
+    static void restoreState(int[] state) {
+        System.arraycopy(state, 0, values, 0, STATE_SIZE);
     }
 
     /**
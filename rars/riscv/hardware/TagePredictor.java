@@ -0,0 +1,176 @@
+package rars.riscv.hardware;
+
+import java.util.Arrays;
+
+/**
+ * A small TAGE predictor: a bimodal base table and four tagged tables indexed with global
+ * histories of geometrically increasing length.
+ * <p>
+ * The prediction comes from the matching entry with the longest history, or from the base
+ * table if no tag matches.  A misprediction allocates an entry in a table with a longer history
+ * than the one that predicted, if one of the candidate entries is not marked useful; otherwise
+ * they all become a little less useful.  Entries earn usefulness by being right when the next
+ * shorter match would have been wrong, and every {@link #AGING_PERIOD} branches all usefulness is
+ * halved.  Long histories are folded into index and tag width incrementally, as in the original
+ * design by Seznec and Michaud.  The refinements of later versions, such as preferring the
+ * alternative prediction for new entries, are left out.
+ */
+public class TagePredictor implements BranchPredictor {
+    public static final String NAME = "tage";
+
+    private static final int[] HISTORY_LENGTHS = {5, 15, 44, 130};
+    private static final int[] TAG_BITS = {8, 9, 10, 11};
+    private static final int HISTORY_SIZE = 256; // ring of outcomes, longer than the longest history
+    private static final int AGING_PERIOD = 1 << 18;
+
+    private final int tables = HISTORY_LENGTHS.length;
+    private final int indexBits;
+    private final byte[] base;
+    private final short[][] tags;
+    private final byte[][] counters; // -4 to 3, taken when not negative
+    private final byte[][] useful; // 0 to 3
+    private final byte[] history = new byte[HISTORY_SIZE];
+    private int newest;
+    private final FoldedHistory[] indexHistory = new FoldedHistory[tables];
+    private final FoldedHistory[] tagHistory = new FoldedHistory[tables];
+    private final FoldedHistory[] tagHistory2 = new FoldedHistory[tables];
+    private long branches;
+
+    // Worked out by predict for update
+    private final int[] index = new int[tables];
+    private final int[] tag = new int[tables];
+    private int baseIndex;
+    private int provider, alternate;
+    private boolean prediction, alternatePrediction;
+
+    /**
+     * @param baseEntries  the size of the base table, a power of two
+     * @param taggedEntries the size of each tagged table, a power of two of at least 2
+     */
+    public TagePredictor(int baseEntries, int taggedEntries) {
+        base = new byte[baseEntries];
+        indexBits = Integer.numberOfTrailingZeros(taggedEntries);
+        tags = new short[tables][taggedEntries];
+        counters = new byte[tables][taggedEntries];
+        useful = new byte[tables][taggedEntries];
+        for (int i = 0; i < tables; i++) {
+            indexHistory[i] = new FoldedHistory(HISTORY_LENGTHS[i], indexBits);
+            tagHistory[i] = new FoldedHistory(HISTORY_LENGTHS[i], TAG_BITS[i]);
+            tagHistory2[i] = new FoldedHistory(HISTORY_LENGTHS[i], TAG_BITS[i] - 1);
+        }
+        reset();
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    public String getDescription() {
+        return base.length + " base entries, " + tables + " x " + tags[0].length + " tagged entries, histories "
+                + Arrays.toString(HISTORY_LENGTHS);
+    }
+
+    public void reset() {
+        Arrays.fill(base, (byte) 1);
+        for (int i = 0; i < tables; i++) {
+            Arrays.fill(tags[i], (short) -1);
+            Arrays.fill(counters[i], (byte) 0);
+            Arrays.fill(useful[i], (byte) 0);
+            indexHistory[i].value = 0;
+            tagHistory[i].value = 0;
+            tagHistory2[i].value = 0;
+        }
+        Arrays.fill(history, (byte) 0);
+        newest = 0;
+        branches = 0;
+    }
+
+    public boolean predict(int pc) {
+        int address = pc >>> 2;
+        baseIndex = address & (base.length - 1);
+        provider = alternate = -1;
+        for (int i = tables - 1; i >= 0; i--) {
+            index[i] = (address ^ (address >>> indexBits) ^ indexHistory[i].value) & ((1 << indexBits) - 1);
+            tag[i] = (address ^ tagHistory[i].value ^ (tagHistory2[i].value << 1)) & ((1 << TAG_BITS[i]) - 1);
+            if (tags[i][index[i]] == tag[i]) {
+                if (provider < 0) {
+                    provider = i;
+                } else if (alternate < 0) {
+                    alternate = i;
+                }
+            }
+        }
+        boolean basePrediction = base[baseIndex] >= 2;
+        alternatePrediction = (alternate >= 0) ? counters[alternate][index[alternate]] >= 0 : basePrediction;
+        prediction = (provider >= 0) ? counters[provider][index[provider]] >= 0 : basePrediction;
+        return prediction;
+    }
+
+    public void update(int pc, boolean taken) {
+        if (provider >= 0) {
+            int i = provider, j = index[provider];
+            if (prediction != alternatePrediction) {
+                useful[i][j] = (byte) ((prediction == taken) ? Math.min(useful[i][j] + 1, 3) : Math.max(useful[i][j] - 1, 0));
+            }
+            counters[i][j] = (byte) (taken ? Math.min(counters[i][j] + 1, 3) : Math.max(counters[i][j] - 1, -4));
+        } else {
+            base[baseIndex] = BimodalPredictor.saturate(base[baseIndex], taken);
+        }
+        if (prediction != taken && provider < tables - 1) {
+            allocate(taken);
+        }
+        if (++branches % AGING_PERIOD == 0) {
+            for (byte[] table : useful) {
+                for (int j = 0; j < table.length; j++) {
+                    table[j] >>= 1;
+                }
+            }
+        }
+        pushHistory(taken);
+    }
+
+    // Takes over the first entry that is not useful in a table with a longer history than the
+    // provider's, or makes all those entries less useful if there is none
+    private void allocate(boolean taken) {
+        for (int i = provider + 1; i < tables; i++) {
+            if (useful[i][index[i]] == 0) {
+                tags[i][index[i]] = (short) tag[i];
+                counters[i][index[i]] = (byte) (taken ? 0 : -1);
+                return;
+            }
+        }
+        for (int i = provider + 1; i < tables; i++) {
+            useful[i][index[i]]--;
+        }
+    }
+
+    private void pushHistory(boolean taken) {
+        newest = (newest - 1) & (HISTORY_SIZE - 1);
+        history[newest] = (byte) (taken ? 1 : 0);
+        for (int i = 0; i < tables; i++) {
+            int oldest = history[(newest + HISTORY_LENGTHS[i]) & (HISTORY_SIZE - 1)];
+            indexHistory[i].push(history[newest], oldest);
+            tagHistory[i].push(history[newest], oldest);
+            tagHistory2[i].push(history[newest], oldest);
+        }
+    }
+
+    // The last length outcomes folded into width bits by exclusive-or, kept up to date one
+    // outcome at a time
+    private static class FoldedHistory {
+        private final int width, outPoint;
+        private int value;
+
+        private FoldedHistory(int length, int width) {
+            this.width = width;
+            this.outPoint = length % width;
+        }
+
+        private void push(int youngest, int oldest) {
+            value = (value << 1) | youngest;
+            value ^= oldest << outPoint;
+            value ^= value >>> width;
+            value &= (1 << width) - 1;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package rars.riscv.hardware;
+
+import java.util.Arrays;
+
+/**
+ * A bimodal and a gshare predictor side by side, with a table of two bit counters indexed by
+ * the address of the branch choosing which one to believe.  A chooser only learns from branches
+ * where the two disagree, and moves towards the one that was right.
+ */
+public class TournamentPredictor implements BranchPredictor {
+    public static final String NAME = "tournament";
+
+    private final BimodalPredictor bimodal;
+    private final GsharePredictor gshare;
+    private final byte[] choosers; // 2 or 3 means believe gshare
+    private final int mask;
+    private int index;
+    private boolean bimodalPrediction, gsharePrediction;
+
+    /**
+     * @param entries     the size of each table, a power of two
+     * @param historyBits the global history of the gshare predictor
+     */
+    public TournamentPredictor(int entries, int historyBits) {
+        bimodal = new BimodalPredictor(entries);
+        gshare = new GsharePredictor(entries, historyBits);
+        choosers = new byte[entries];
+        mask = entries - 1;
+        reset();
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    public String getDescription() {
+        return "bimodal " + bimodal.getDescription() + ", gshare " + gshare.getDescription()
+                + ", " + choosers.length + " choosers";
+    }
+
+    public void reset() {
+        bimodal.reset();
+        gshare.reset();
+        Arrays.fill(choosers, (byte) 1);
+    }
+
+    public boolean predict(int pc) {
+        index = (pc >>> 2) & mask;
+        bimodalPrediction = bimodal.predict(pc);
+        gsharePrediction = gshare.predict(pc);
+        return (choosers[index] >= 2) ? gsharePrediction : bimodalPrediction;
+    }
+
+    public void update(int pc, boolean taken) {
+        if (bimodalPrediction != gsharePrediction) {
+            choosers[index] = BimodalPredictor.saturate(choosers[index], gsharePrediction == taken);
+        }
+        bimodal.update(pc, taken);
+        gshare.update(pc, taken);
+    }
+}
@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOADDW extends AtomicMemoryOperation {
+    public AMOADDW() {
+        super("amoadd.w t0, t1, (t2)", "Atomic add: set t0 to the memory word at address t2 and store the sum of that word and t1 there", "00000");
+    }
+
+    public int compute(int value, int value2) {
+        return value + value2;
+    }
+}
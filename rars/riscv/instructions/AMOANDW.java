@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOANDW extends AtomicMemoryOperation {
+    public AMOANDW() {
+        super("amoand.w t0, t1, (t2)", "Atomic AND: set t0 to the memory word at address t2 and store the bitwise AND of that word and t1 there", "01100");
+    }
+
+    public int compute(int value, int value2) {
+        return value & value2;
+    }
+}
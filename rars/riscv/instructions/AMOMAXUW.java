@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOMAXUW extends AtomicMemoryOperation {
+    public AMOMAXUW() {
+        super("amomaxu.w t0, t1, (t2)", "Atomic unsigned maximum: set t0 to the memory word at address t2 and store the unsigned maximum of that word and t1 there", "11100");
+    }
+
+    public int compute(int value, int value2) {
+        return (Integer.compareUnsigned(value, value2) > 0) ? value : value2;
+    }
+}
@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOMAXW extends AtomicMemoryOperation {
+    public AMOMAXW() {
+        super("amomax.w t0, t1, (t2)", "Atomic maximum: set t0 to the memory word at address t2 and store the signed maximum of that word and t1 there", "10100");
+    }
+
+    public int compute(int value, int value2) {
+        return Math.max(value, value2);
+    }
+}
@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOMINW extends AtomicMemoryOperation {
+    public AMOMINW() {
+        super("amomin.w t0, t1, (t2)", "Atomic minimum: set t0 to the memory word at address t2 and store the signed minimum of that word and t1 there", "10000");
+    }
+
+    public int compute(int value, int value2) {
+        return Math.min(value, value2);
+    }
+}
@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOORW extends AtomicMemoryOperation {
+    public AMOORW() {
+        super("amoor.w t0, t1, (t2)", "Atomic OR: set t0 to the memory word at address t2 and store the bitwise OR of that word and t1 there", "01000");
+    }
+
+    public int compute(int value, int value2) {
+        return value | value2;
+    }
+}
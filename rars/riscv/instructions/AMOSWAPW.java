@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOSWAPW extends AtomicMemoryOperation {
+    public AMOSWAPW() {
+        super("amoswap.w t0, t1, (t2)", "Atomic swap: set t0 to the memory word at address t2 and store t1 there", "00001");
+    }
+
+    public int compute(int value, int value2) {
+        return value2;
+    }
+}
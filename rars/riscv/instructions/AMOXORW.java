@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOXORW extends AtomicMemoryOperation {
+    public AMOXORW() {
+        super("amoxor.w t0, t1, (t2)", "Atomic XOR: set t0 to the memory word at address t2 and store the bitwise XOR of that word and t1 there", "00100");
+    }
+
+    public int compute(int value, int value2) {
+        return value ^ value2;
+    }
+}
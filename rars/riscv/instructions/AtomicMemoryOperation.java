@@ -0,0 +1,42 @@
+package rars.riscv.instructions;
+
+import rars.Globals;
+import rars.ProgramStatement;
+import rars.SimulationException;
+import rars.riscv.BasicInstruction;
+import rars.riscv.BasicInstructionFormat;
+import rars.riscv.hardware.AddressErrorException;
+import rars.riscv.hardware.RegisterFile;
+
+/**
+ * Base class for the AMO instructions of the A extension: atomically load a word, store the
+ * result of combining it with a register, and put the loaded word in the destination register.
+ * <p>
+ * Instructions run one at a time under the simulator lock, and RARS simulates a single hart, so
+ * nothing else can use memory between the read and the write.  The aq and rl bits must be zero.
+ */
+public abstract class AtomicMemoryOperation extends BasicInstruction {
+    public AtomicMemoryOperation(String usage, String description, String funct5) {
+        super(usage, description, BasicInstructionFormat.R_FORMAT,
+                funct5 + " 00 sssss ttttt 010 fffff 0101111");
+    }
+
+    public void simulate(ProgramStatement statement) throws SimulationException {
+        int[] operands = statement.getOperands();
+        int address = RegisterFile.getValue(operands[2]);
+        try {
+            int value = Globals.memory.getWord(address);
+            Globals.memory.setWord(address, compute(value, RegisterFile.getValue(operands[1])));
+            RegisterFile.updateRegister(operands[0], value);
+        } catch (AddressErrorException e) {
+            throw new SimulationException(statement, e);
+        }
+    }
+
+    /**
+     * @param value  the word loaded from memory
+     * @param value2 the value from the source register
+     * @return the word to store back to memory
+     */
+    protected abstract int compute(int value, int value2);
+}
@@ -4,6 +4,7 @@ import rars.ProgramStatement;
 import rars.riscv.BasicInstruction;
 import rars.riscv.BasicInstructionFormat;
 import rars.riscv.InstructionSet;
+import rars.riscv.hardware.BranchPrediction;
 
 /*
 Copyright (c) 2017,  Benjamin Landers
@@ -47,7 +48,11 @@ public abstract class Branch extends BasicInstruction {
     }
 
     public void simulate(ProgramStatement statement) {
-        if (willBranch(statement)) {
+        boolean taken = willBranch(statement);
+        if (BranchPrediction.predicting) {
+            BranchPrediction.branch(statement.getAddress(), taken, statement.getAddress() + (statement.getOperands()[2] << 1));
+        }
+        if (taken) {
             InstructionSet.processBranch(statement.getOperands()[2]);
         }
     }
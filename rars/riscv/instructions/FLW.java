@@ -45,7 +45,8 @@ public class FLW extends BasicInstruction {
     public void simulate(ProgramStatement statement) throws SimulationException {
         int[] operands = statement.getOperands();
         try {
-            FloatingPointRegisterFile.updateRegister(operands[0], Globals.memory.getWord(RegisterFile.getValue(operands[2]) + operands[1]));
+            // make sure the offset is sign-extended, as it is not when decoded from binary
+            FloatingPointRegisterFile.updateRegister(operands[0], Globals.memory.getWord(RegisterFile.getValue(operands[2]) + ((operands[1] << 20) >> 20)));
         } catch (AddressErrorException e) {
             throw new SimulationException(statement, e);
         }
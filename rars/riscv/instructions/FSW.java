@@ -45,7 +45,8 @@ public class FSW extends BasicInstruction {
     public void simulate(ProgramStatement statement) throws SimulationException {
         int[] operands = statement.getOperands();
         try {
-            Globals.memory.setWord(RegisterFile.getValue(operands[2]) + operands[1], FloatingPointRegisterFile.getValue(operands[0]));
+            // make sure the offset is sign-extended, as it is not when decoded from binary
+            Globals.memory.setWord(RegisterFile.getValue(operands[2]) + ((operands[1] << 20) >> 20), FloatingPointRegisterFile.getValue(operands[0]));
         } catch (AddressErrorException e) {
             throw new SimulationException(statement, e);
         }
@@ -1,6 +1,7 @@
 package rars.riscv.instructions;
 
 import rars.ProgramStatement;
+import rars.riscv.hardware.BranchPrediction;
 import rars.riscv.hardware.RegisterFile;
 import rars.riscv.BasicInstruction;
 import rars.riscv.BasicInstructionFormat;
@@ -44,5 +45,8 @@ public class JAL extends BasicInstruction {
         int[] operands = statement.getOperands();
         InstructionSet.processReturnAddress(operands[0]);// RegisterFile.updateRegister(31, RegisterFile.getProgramCounter());
         InstructionSet.processJump(RegisterFile.getProgramCounter() - Instruction.INSTRUCTION_LENGTH + (operands[1] << 1));
+        if (BranchPrediction.predicting) {
+            BranchPrediction.jump(statement.getAddress(), RegisterFile.getProgramCounter(), operands[0], 0);
+        }
     }
 }
\ No newline at end of file
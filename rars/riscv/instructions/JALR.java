@@ -1,6 +1,7 @@
 package rars.riscv.instructions;
 
 import rars.ProgramStatement;
+import rars.riscv.hardware.BranchPrediction;
 import rars.riscv.hardware.RegisterFile;
 import rars.riscv.BasicInstruction;
 import rars.riscv.BasicInstructionFormat;
@@ -42,7 +43,10 @@ public class JALR extends BasicInstruction {
     public void simulate(ProgramStatement statement) {
         int[] operands = statement.getOperands();
         InstructionSet.processReturnAddress(operands[0]);
-        // Set PC = $t2 + immediate with the last bit set to 0
-        InstructionSet.processJump((RegisterFile.getValue(operands[1]) + operands[2]) & 0xFFFFFFFE);
+        // Set PC = $t2 + sign-extended immediate with the last bit set to 0
+        InstructionSet.processJump((RegisterFile.getValue(operands[1]) + ((operands[2] << 20) >> 20)) & 0xFFFFFFFE);
+        if (BranchPrediction.predicting) {
+            BranchPrediction.jump(statement.getAddress(), RegisterFile.getProgramCounter(), operands[0], operands[1]);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+package rars.riscv.instructions;
+
+import rars.Globals;
+import rars.ProgramStatement;
+import rars.SimulationException;
+import rars.riscv.BasicInstruction;
+import rars.riscv.BasicInstructionFormat;
+import rars.riscv.hardware.AddressErrorException;
+import rars.riscv.hardware.LoadReservation;
+import rars.riscv.hardware.RegisterFile;
+
+public class LRW extends BasicInstruction {
+    public LRW() {
+        super("lr.w t0, (t1)", "Load reserved: set t0 to the memory word at address t1 and reserve that word",
+                BasicInstructionFormat.R_FORMAT, "00010 00 00000 sssss 010 fffff 0101111");
+    }
+
+    public void simulate(ProgramStatement statement) throws SimulationException {
+        int[] operands = statement.getOperands();
+        int address = RegisterFile.getValue(operands[1]);
+        try {
+            RegisterFile.updateRegister(operands[0], Globals.memory.getWord(address));
+            LoadReservation.reserve(address);
+        } catch (AddressErrorException e) {
+            throw new SimulationException(statement, e);
+        }
+    }
+}
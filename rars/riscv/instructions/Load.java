@@ -49,7 +49,8 @@ public abstract class Load extends BasicInstruction {
     public void simulate(ProgramStatement statement) throws SimulationException {
         int[] operands = statement.getOperands();
         try {
-            RegisterFile.updateRegister(operands[0], load(RegisterFile.getValue(operands[2]) + operands[1]));
+            // make sure the offset is sign-extended, as it is not when decoded from binary
+            RegisterFile.updateRegister(operands[0], load(RegisterFile.getValue(operands[2]) + ((operands[1] << 20) >> 20)));
         } catch (AddressErrorException e) {
             throw new SimulationException(statement, e);
         }
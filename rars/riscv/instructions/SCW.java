@@ -0,0 +1,33 @@
+package rars.riscv.instructions;
+
+import rars.Globals;
+import rars.ProgramStatement;
+import rars.SimulationException;
+import rars.riscv.BasicInstruction;
+import rars.riscv.BasicInstructionFormat;
+import rars.riscv.hardware.AddressErrorException;
+import rars.riscv.hardware.LoadReservation;
+import rars.riscv.hardware.RegisterFile;
+
+public class SCW extends BasicInstruction {
+    public SCW() {
+        super("sc.w t0, t1, (t2)", "Store conditional: if the word at address t2 is still reserved by the last lr.w, " +
+                        "store t1 there and set t0 to 0, otherwise set t0 to 1",
+                BasicInstructionFormat.R_FORMAT, "00011 00 sssss ttttt 010 fffff 0101111");
+    }
+
+    public void simulate(ProgramStatement statement) throws SimulationException {
+        int[] operands = statement.getOperands();
+        int address = RegisterFile.getValue(operands[2]);
+        try {
+            if (LoadReservation.take(address)) {
+                Globals.memory.setWord(address, RegisterFile.getValue(operands[1]));
+                RegisterFile.updateRegister(operands[0], 0);
+            } else {
+                RegisterFile.updateRegister(operands[0], 1);
+            }
+        } catch (AddressErrorException e) {
+            throw new SimulationException(statement, e);
+        }
+    }
+}
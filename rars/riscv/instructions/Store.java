@@ -49,7 +49,8 @@ public abstract class Store extends BasicInstruction {
     public void simulate(ProgramStatement statement) throws SimulationException {
         int[] operands = statement.getOperands();
         try {
-            store(RegisterFile.getValue(operands[2]) + operands[1], RegisterFile.getValue(operands[0]));
+            // make sure the offset is sign-extended, as it is not when decoded from binary
+            store(RegisterFile.getValue(operands[2]) + ((operands[1] << 20) >> 20), RegisterFile.getValue(operands[0]));
         } catch (AddressErrorException e) {
             throw new SimulationException(statement, e);
         }
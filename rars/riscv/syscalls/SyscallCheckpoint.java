@@ -0,0 +1,36 @@
+package rars.riscv.syscalls;
+
+import rars.ExitingException;
+import rars.ProgramStatement;
+import rars.riscv.AbstractSyscall;
+import rars.riscv.hardware.Checkpoint;
+import rars.riscv.hardware.RegisterFile;
+import rars.util.SystemIO;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Saves the state of the machine to a checkpoint file, which the "resume" command line
+ * option starts a run from.  Like fork(), the syscall returns twice: with 0 right after saving
+ * and with 1 in every run resumed from the checkpoint.
+ */
+public class SyscallCheckpoint extends AbstractSyscall {
+    public SyscallCheckpoint() {
+        super("Checkpoint", "Saves the state of the machine to a file.  Runs started from the file with the " +
+                        "\"resume\" command line option continue after this syscall.",
+                "a0 = Null terminated string for the path", "a0 = 0 after saving, 1 when resumed from the file, -1 if an error occurred");
+    }
+
+    public void simulate(ProgramStatement statement) throws ExitingException {
+        String filename = NullString.get(statement);
+        RegisterFile.updateRegister("a0", 1); // what resumed runs see
+        try {
+            Checkpoint.save(new File(filename));
+            RegisterFile.updateRegister("a0", 0);
+        } catch (IOException e) {
+            SystemIO.fileErrorString = "Could not write checkpoint " + filename + ": " + e.getMessage();
+            RegisterFile.updateRegister("a0", -1);
+        }
+    }
+}
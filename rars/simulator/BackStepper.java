@@ -1,10 +1,16 @@
 package rars.simulator;
 
 import rars.Globals;
-import rars.ProgramStatement;
 import rars.riscv.hardware.RegisterFile;
 import rars.riscv.Instruction;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
 /*
 Copyright (c) 2003-2006,  Pete Sanderson and Kenneth Vollmar
 
@@ -53,9 +59,7 @@ public class BackStepper {
         DO_NOTHING
     }
 
-    // Flag to mark BackStep object as prepresenting specific situation: user manipulates
-    // memory/register value via GUI after assembling program but before running it.
-    private static final int NOT_PC_VALUE = -1;
+    private static final Action[] ACTIONS = Action.values();
 
 
     private boolean engaged;
@@ -75,7 +79,7 @@ public class BackStepper {
      */
     public BackStepper() {
         engaged = true;
-        backSteps = new BackstepStack(Globals.maximumBacksteps);
+        backSteps = new BackstepStack(Globals.maximumBacksteps, Globals.maximumSpilledBacksteps);
     }
 
     /**
@@ -117,53 +121,64 @@ public class BackStepper {
     // together and carry out all of them here.
     // Use a do-while loop based on the backstep's program statement reference.
     public void backStep() {
-        if (engaged && !backSteps.empty()) {
-            ProgramStatement statement = backSteps.peek().ps;
-            engaged = false; // GOTTA DO THIS SO METHOD CALL IN SWITCH WILL NOT RESULT IN NEW ACTION ON STACK!
-            do {
-                BackStep step = backSteps.pop();
-            /*
-                System.out.println("backstep POP: action "+step.action+" pc "+rars.util.Binary.intToHexString(step.pc)+
-            	                   " source "+((step.ps==null)? "none":step.ps.getSource())+
-            							 " parm1 "+step.param1+" parm2 "+step.param2);
-            */
-                if (step.pc != NOT_PC_VALUE) {
-                    RegisterFile.setProgramCounter(step.pc);
-                }
-                try {
-                    switch (step.action) {
-                        case MEMORY_RESTORE_RAW_WORD:
-                            Globals.memory.setRawWord(step.param1, step.param2);
-                            break;
-                        case MEMORY_RESTORE_WORD:
-                            Globals.memory.setWord(step.param1, step.param2);
-                            break;
-                        case MEMORY_RESTORE_HALF:
-                            Globals.memory.setHalf(step.param1, step.param2);
-                            break;
-                        case MEMORY_RESTORE_BYTE:
-                            Globals.memory.setByte(step.param1, step.param2);
-                            break;
-                        case REGISTER_RESTORE:
-                            RegisterFile.updateRegister(step.param1, step.param2);
-                            break;
-                        case PC_RESTORE:
-                            RegisterFile.setProgramCounter(step.param1);
-                            break;
-                        case DO_NOTHING:
-                            break;
+        synchronized (Globals.memoryAndRegistersLock) {
+            if (engaged && !backSteps.empty()) {
+                int statementPc = backSteps.peekPc();
+                boolean atStatement = isStatementAddress(statementPc);
+                engaged = false; // GOTTA DO THIS SO METHOD CALL IN SWITCH WILL NOT RESULT IN NEW ACTION ON STACK!
+                do {
+                    backSteps.pop();
+                    int param1 = backSteps.poppedParam1, param2 = backSteps.poppedParam2;
+                    if (atStatement) {
+                        RegisterFile.setProgramCounter(statementPc);
                     }
-                } catch (Exception e) {
-                    // if the original action did not cause an exception this will not either.
-                    System.out.println("Internal RARS error: address exception while back-stepping.");
-                    System.exit(0);
-                }
-            } while (!backSteps.empty() && statement == backSteps.peek().ps);
-            engaged = true;  // RESET IT (was disabled at top of loop -- see comment)
+                    try {
+                        switch (backSteps.poppedAction) {
+                            case MEMORY_RESTORE_RAW_WORD:
+                                Globals.memory.setRawWord(param1, param2);
+                                break;
+                            case MEMORY_RESTORE_WORD:
+                                Globals.memory.setWord(param1, param2);
+                                break;
+                            case MEMORY_RESTORE_HALF:
+                                Globals.memory.setHalf(param1, param2);
+                                break;
+                            case MEMORY_RESTORE_BYTE:
+                                Globals.memory.setByte(param1, param2);
+                                break;
+                            case REGISTER_RESTORE:
+                                RegisterFile.updateRegister(param1, param2);
+                                break;
+                            case PC_RESTORE:
+                                RegisterFile.setProgramCounter(param1);
+                                break;
+                            case DO_NOTHING:
+                                break;
+                        }
+                    } catch (Exception e) {
+                        // if the original action did not cause an exception this will not either.
+                        System.out.println("Internal RARS error: address exception while back-stepping.");
+                        System.exit(0);
+                    }
+                } while (!backSteps.empty() && statementPc == backSteps.peekPc());
+                engaged = true;  // RESET IT (was disabled at top of loop -- see comment)
+            }
         }
     }
-  
-     
+
+    // Steps are grouped by the address of the statement they undo.  Steps recorded while the
+    // user manipulates memory or registers through the GUI, after assembling the program but
+    // before running it (or after backstepping all the way to the start), have an address
+    // with no statement; they are carried out without setting the PC.
+    private static boolean isStatementAddress(int address) {
+        try {
+            Globals.memory.getStatementNoNotify(address);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
       /* Convenience method called below to get program counter value.  If it needs to be
         * be modified (e.g. to subtract 4) that can be done here in one place.
    	 */
@@ -287,130 +302,196 @@ public class BackStepper {
      * stack has the same PC counter, the do-nothing action will not be added.
      */
     public void addDoNothing(int pc) {
-        if (backSteps.empty() || backSteps.peek().pc != pc) {
+        if (backSteps.empty() || backSteps.peekPc() != pc) {
             backSteps.push(Action.DO_NOTHING, pc);
         }
     }
 
 
-    // Represents a "back step" (undo action) on the stack.
-    private class BackStep {
-        private Action action;  // what do do MEMORY_RESTORE_WORD, etc
-        private int pc;      // program counter value when original step occurred
-        private ProgramStatement ps;   // statement whose action is being "undone" here
-        private int param1;  // first parameter required by that action
-        private int param2;  // optional second parameter required by that action
-
-        // it is critical that BackStep object get its values by calling this method
-        // rather than assigning to individual members, because of the technique used
-        // to set its ps member (and possibly pc).
-        private void assign(Action act, int programCounter, int parm1, int parm2) {
-            action = act;
-            pc = programCounter;
-            try {
-                // Client does not have direct access to program statement, and rather than making all
-                // of them go through the methods below to obtain it, we will do it here.
-                // Want the program statement but do not want observers notified.
-                ps = Globals.memory.getStatementNoNotify(programCounter);
-            } catch (Exception e) {
-                // The only situation causing this so far: user modifies memory or register
-                // contents through direct manipulation on the GUI, after assembling the program but
-                // before starting to run it (or after backstepping all the way to the start).
-                // The action will not be associated with any instruction, but will be carried out
-                // when popped.
-                ps = null;
-                pc = NOT_PC_VALUE; // Backstep method above will see this as flag to not set PC
-            }
-            param1 = parm1;
-            param2 = parm2;
-         /*				
-            System.out.println("backstep PUSH: action "+action+" pc "+rars.util.Binary.intToHexString(pc)+
-         		                   " source "+((ps==null)? "none":ps.getSource())+
-         								 " parm1 "+param1+" parm2 "+param2);
-         */
-        }
-    }
-
     // *****************************************************************************
     // special purpose stack class for backstepping.  You've heard of circular queues
     // implemented with an array, right?  This is a circular stack!  When full, the
     // newly-pushed item overwrites the oldest item, with circular top!  All operations
-    // are constant time.  It's synchronized too, to be safe (is used by both the
-    // simulation thread and the GUI thread for the back-step button).
-    // Upon construction, it is filled with newly-created empty BackStep objects which
-    // will exist for the life of the stack.  Push does not create a BackStep object
-    // but instead overwrites the contents of the existing one.  Thus during MIPS
-    // program (simulated) execution, BackStep objects are never created or junked
-    // regardless of how many steps are executed.  This will speed things up a bit
-    // and make life easier for the garbage collector.
-
-    private class BackstepStack {
+    // are constant time.
+    //
+    // Each step is packed into two longs: the PC and the first parameter, then the action
+    // and the second parameter.  Nothing is allocated per step and the array only grows
+    // (by doubling) up to the capacity, so a large capacity costs nothing until it is used.
+    // It is not synchronized: steps are pushed by whichever thread holds
+    // Globals.memoryAndRegistersLock, the simulator or the GUI, and backStep() takes it too.
+    //
+    // If spilling is enabled, a full stack writes its older half to a temporary file rather
+    // than overwriting it, and reads it back when it is popped empty.  The file is a ring of
+    // spillLimit steps too, so when it is full the oldest steps in it are overwritten.
+
+    private static class BackstepStack {
+        private static final int SPILL_CHUNK = 1 << 16; // steps per write to the spill file
+        // One spill file per class loader, used by the stack that last spilled
+        private static FileChannel spillFile;
+        private static BackstepStack spillOwner;
+
         private final int capacity;
+        private final int spillLimit;
+        private long[] entries = new long[2 * 64];
         private int size;
-        private int top;
-        private final BackStep[] stack;
-
-        // Stack is created upon successful assembly or reset.  The one-time overhead of
-        // creating all the BackStep objects will not be noticed by the user, and enhances
-        // runtime performance by not having to create or recycle them during MIPS
-        // program execution.
-        private BackstepStack(int capacity) {
-            this.capacity = capacity;
-            this.size = 0;
-            this.top = -1;
-            this.stack = new BackStep[capacity];
-            for (int i = 0; i < capacity; i++) {
-                this.stack[i] = new BackStep();
-            }
+        private int top = -1;
+        private int spilled; // steps in the spill file, all older than those in entries
+        private int spillStart; // slot in the spill file of the oldest spilled step
+
+        private Action poppedAction;
+        private int poppedParam1, poppedParam2;
+
+        // Stack is created upon successful assembly or reset.
+        private BackstepStack(int capacity, int spillLimit) {
+            this.capacity = Math.max(capacity, 1);
+            this.spillLimit = Math.max(spillLimit, 0);
         }
 
-        private synchronized boolean empty() {
+        // Reads spilled steps back in if the stack has run empty, so that the methods below
+        // can always be used after this has returned false.
+        private boolean empty() {
+            if (size == 0 && spilled > 0) {
+                unspill();
+            }
             return size == 0;
         }
 
-        private synchronized void push(Action act, int programCounter, int parm1, int parm2) {
-            if (size == 0) {
-                top = 0;
-                size++;
-            } else if (size < capacity) {
-                top = (top + 1) % capacity;
-                size++;
-            } else { // size == capacity.  The top moves up one, replacing oldest entry (goodbye!)
-                top = (top + 1) % capacity;
+        private void push(Action act, int programCounter, int parm1, int parm2) {
+            int slots = entries.length / 2;
+            if (size == slots) {
+                if (slots < capacity) {
+                    grow();
+                } else if (!spillOldest()) {
+                    size--; // The top moves up one, replacing oldest entry (goodbye!)
+                }
             }
-            // We'll re-use existing objects rather than create/discard each time.
-            // Must use assign() method rather than series of assignment statements!
-            stack[top].assign(act, programCounter, parm1, parm2);
+            top = (top + 1) % (entries.length / 2);
+            entries[2 * top] = ((long) programCounter << 32) | (parm1 & 0xFFFFFFFFL);
+            entries[2 * top + 1] = ((long) act.ordinal() << 32) | (parm2 & 0xFFFFFFFFL);
+            size++;
         }
 
-        private synchronized void push(Action act, int programCounter, int parm1) {
+        private void push(Action act, int programCounter, int parm1) {
             push(act, programCounter, parm1, 0);
         }
 
-        private synchronized void push(Action act, int programCounter) {
+        private void push(Action act, int programCounter) {
             push(act, programCounter, 0, 0);
         }
 
         // NO PROTECTION.  This class is used only within this file so there is no excuse
-        // for trying to pop from empty stack.
-        private synchronized BackStep pop() {
-            BackStep bs;
-            bs = stack[top];
-            if (size == 1) {
-                top = -1;
-            } else {
-                top = (top + capacity - 1) % capacity;
-            }
+        // for trying to pop from empty stack.  The step popped is left in the popped fields.
+        private void pop() {
+            long tail = entries[2 * top + 1];
+            poppedAction = ACTIONS[(int) (tail >>> 32)];
+            poppedParam1 = (int) entries[2 * top];
+            poppedParam2 = (int) tail;
+            top = (top + entries.length / 2 - 1) % (entries.length / 2);
             size--;
-            return bs;
         }
 
         // NO PROTECTION.  This class is used only within this file so there is no excuse
         // for trying to peek from empty stack.
-        private synchronized BackStep peek() {
-            return stack[top];
+        private int peekPc() {
+            return (int) (entries[2 * top] >>> 32);
+        }
+
+        // Doubles the array, moving the steps to its start, oldest first
+        private void grow() {
+            int slots = entries.length / 2;
+            long[] bigger = new long[2 * (int) Math.min(2L * slots, capacity)];
+            int oldest = (top - size + 1 + slots) % slots;
+            for (int i = 0; i < size; i++) {
+                System.arraycopy(entries, 2 * ((oldest + i) % slots), bigger, 2 * i, 2);
+            }
+            entries = bigger;
+            top = size - 1;
+        }
+
+        // Writes the older half of a full stack to the spill file.  Returns false if spilling is
+        // disabled or failed, in which case the oldest step has to be overwritten.
+        private boolean spillOldest() {
+            int count = Math.min(Math.min(size / 2, SPILL_CHUNK), spillLimit);
+            if (count == 0) {
+                return false;
+            }
+            try {
+                if (spillOwner != this) {
+                    openSpillFile();
+                    spillOwner = this;
+                    spilled = 0;
+                    spillStart = 0;
+                }
+                if (spilled + count > spillLimit) {
+                    // Make room by dropping the oldest steps in the file
+                    int dropped = spilled + count - spillLimit;
+                    spillStart = (spillStart + dropped) % spillLimit;
+                    spilled -= dropped;
+                }
+                int slots = entries.length / 2;
+                int oldest = (top - size + 1 + slots) % slots;
+                ByteBuffer buffer = ByteBuffer.allocate(16 * count);
+                LongBuffer longs = buffer.asLongBuffer();
+                for (int i = 0; i < count; i++) {
+                    longs.put(entries, 2 * ((oldest + i) % slots), 2);
+                }
+                transfer(buffer, (spillStart + spilled) % spillLimit, true);
+                spilled += count;
+                size -= count;
+                return true;
+            } catch (IOException e) {
+                spilled = 0;
+                return false;
+            }
+        }
+
+        // Reads the newest chunk of the spill file back into the empty stack
+        private void unspill() {
+            if (spillOwner != this) {
+                spilled = 0; // another stack has taken the file over
+                return;
+            }
+            int count = Math.min(spilled, Math.min(SPILL_CHUNK, entries.length / 2));
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(16 * count);
+                transfer(buffer, (spillStart + spilled - count) % spillLimit, false);
+                buffer.flip();
+                buffer.asLongBuffer().get(entries, 0, 2 * count);
+                spilled -= count;
+                size = count;
+                top = count - 1;
+            } catch (IOException e) {
+                spilled = 0;
+            }
         }
 
+        // Writes or reads the whole buffer at the given slot of the spill file, carrying on
+        // at the start of the file if it runs past the end of the ring
+        private void transfer(ByteBuffer buffer, int slot, boolean write) throws IOException {
+            long position = 16L * slot;
+            while (buffer.hasRemaining()) {
+                if (position == 16L * spillLimit) {
+                    position = 0;
+                }
+                ByteBuffer part = buffer.duplicate();
+                part.limit(part.position() + (int) Math.min(part.remaining(), 16L * spillLimit - position));
+                int done = write ? spillFile.write(part, position) : spillFile.read(part, position);
+                if (done < 0) {
+                    throw new IOException("spill file is short");
+                }
+                buffer.position(buffer.position() + done);
+                position += done;
+            }
+        }
+
+        private static void openSpillFile() throws IOException {
+            if (spillFile == null) {
+                File file = File.createTempFile("rars-backsteps", ".tmp");
+                file.deleteOnExit();
+                spillFile = new RandomAccessFile(file, "rw").getChannel();
+            }
+            spillFile.truncate(0);
+        }
     }
 
-}
\ No newline at end of file
+}
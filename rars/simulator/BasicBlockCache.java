@@ -0,0 +1,130 @@
+package rars.simulator;
+
+import rars.Globals;
+import rars.riscv.hardware.DecodedInstruction;
+import rars.riscv.hardware.Memory;
+
+/**
+ * Finds and caches hot basic blocks for the simulator's block execution mode.
+ * <p>
+ * A basic block is a run of consecutive text segment instructions that ends with the first
+ * instruction able to transfer control or change the trap state: branches, JAL, JALR and everything in the
+ * SYSTEM (ECALL, EBREAK, URET, WFI, CSR*) and MISC-MEM (FENCE, FENCE.I) opcode groups.
+ * Block starts are counted as the simulator reaches them, and once a start has been reached
+ * {@link #HOT_THRESHOLD} times its block is decoded into an array so that SimThread can run
+ * it straight through, skipping the per-step interrupt, breakpoint and stop checks.  As much of
+ * the block as {@link BlockCompiler} can translate is compiled into a class of its own at the
+ * same time.
+ * <p>
+ * A cache lives only as long as one SimThread run, so it never sees the text segment change
+ * underneath it as long as self-modifying code is disabled (SimThread does not create one otherwise).
+ */
+class BasicBlockCache {
+    /**
+     * Number of times a block start must be reached before its block is built.
+     */
+    static final int HOT_THRESHOLD = 32;
+    /**
+     * Longest block that will be built; longer straight-line runs are split.
+     */
+    static final int MAX_BLOCK_LENGTH = 64;
+
+    // Same two level layout that Memory uses for the text segment: 1024 blocks of 1024 words.
+    private static final int TABLE_LENGTH = 1024;
+    private static final int BLOCK_LENGTH_WORDS = 1024;
+    // Marks a start address whose block cannot be built, so it is not retried every time.
+    private static final Block NOT_CACHEABLE = new Block(new DecodedInstruction[0], null);
+
+    private final int[][] counts = new int[TABLE_LENGTH][];
+    private final Block[][] blocks = new Block[TABLE_LENGTH][];
+
+    /**
+     * A hot basic block.
+     */
+    static final class Block {
+        /**
+         * The block's instructions, decoded.
+         */
+        final DecodedInstruction[] instructions;
+        /**
+         * The translation of the start of the block, or null if too little of it could be translated.
+         */
+        final CompiledBlock compiled;
+
+        Block(DecodedInstruction[] instructions, CompiledBlock compiled) {
+            this.instructions = instructions;
+            this.compiled = compiled;
+        }
+    }
+
+    /**
+     * Looks up the basic block starting at the given address, counting this visit towards its
+     * hotness.
+     *
+     * @param address the address the simulator is about to execute
+     * @return the block starting at address, or null if it is not (yet) hot or cannot be built
+     */
+    Block lookup(int address) {
+        if ((address & 3) != 0 || !Memory.inTextSegment(address)) {
+            return null;
+        }
+        int relative = (address - Memory.textBaseAddress) >> 2;
+        int table = relative / BLOCK_LENGTH_WORDS;
+        int offset = relative % BLOCK_LENGTH_WORDS;
+        if (table >= TABLE_LENGTH) {
+            return null;
+        }
+        Block[] blockTable = blocks[table];
+        if (blockTable != null && blockTable[offset] != null) {
+            return (blockTable[offset] == NOT_CACHEABLE) ? null : blockTable[offset];
+        }
+        if (counts[table] == null) {
+            counts[table] = new int[BLOCK_LENGTH_WORDS];
+        }
+        if (++counts[table][offset] < HOT_THRESHOLD) {
+            return null;
+        }
+        Block block = build(address);
+        if (blockTable == null) {
+            blockTable = blocks[table] = new Block[BLOCK_LENGTH_WORDS];
+        }
+        blockTable[offset] = (block == null) ? NOT_CACHEABLE : block;
+        return block;
+    }
+
+    // Decode instructions from address up to and including the first block terminator.
+    private Block build(int address) {
+        DecodedInstruction[] buffer = new DecodedInstruction[MAX_BLOCK_LENGTH];
+        int length = 0;
+        while (length < MAX_BLOCK_LENGTH) {
+            DecodedInstruction decoded = Globals.memory.getDecodedInstructionNoNotify(address);
+            if (decoded == null) {
+                break;
+            }
+            buffer[length++] = decoded;
+            if (endsBlock(decoded.getBinaryStatement())) {
+                break;
+            }
+            address += 4;
+        }
+        if (length < 2) {
+            return null; // nothing to gain over single stepping
+        }
+        DecodedInstruction[] block = new DecodedInstruction[length];
+        System.arraycopy(buffer, 0, block, 0, length);
+        return new Block(block, BlockCompiler.compile(block));
+    }
+
+    private static boolean endsBlock(int binaryStatement) {
+        switch (binaryStatement & 0x7F) {
+            case 0b1100011: // branches
+            case 0b1101111: // jal
+            case 0b1100111: // jalr
+            case 0b1110011: // ecall, ebreak, uret, wfi and the CSR instructions
+            case 0b0001111: // fence, fence.i
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,501 @@
+package rars.simulator;
+
+import rars.ProgramStatement;
+import rars.riscv.hardware.DecodedInstruction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+
+/**
+ * Translates the start of a hot basic block into JVM bytecode, for the block execution mode.
+ * <p>
+ * Each block becomes a hidden class extending {@link CompiledBlock}, whose run() method holds
+ * the block's integer registers in local variables.  A register is read from the RegisterFile
+ * the first time the block uses it, and those the block has changed are written back with
+ * RegisterFile.updateRegister before every load or store and at the end.  Loads and stores go
+ * through Memory as the instructions themselves do.  The generated code has no branches, so it
+ * needs no stack map frames.
+ * <p>
+ * Translation stops at the first instruction it does not know: everything but the RV32I
+ * register and immediate arithmetic, LUI, AUIPC, loads, stores and the multiplications of
+ * RV32M.  Division is left out because it sets fcsr flags, and everything that ends a block is
+ * left to the interpreter anyway.  Each instruction is translated from its statement's
+ * operands, the same way its simulate() method uses them.
+ * <p>
+ * Hidden classes came with Java 15.  On older Javas nothing is compiled and every block is
+ * interpreted.
+ */
+class BlockCompiler {
+    /**
+     * Fewest instructions worth a class of their own.
+     */
+    static final int MIN_LENGTH = 2;
+
+    private static final int CLASS_VERSION = 52; // Java 8, the oldest that needs nothing older
+    private static final String SUPER_CLASS = "rars/simulator/CompiledBlock";
+    private static final String CLASS_NAME = "rars/simulator/GeneratedBlock";
+    private static final String REGISTER_FILE = "rars/riscv/hardware/RegisterFile";
+    private static final String MEMORY = "rars/riscv/hardware/Memory";
+    private static final int MAX_STACK = 8;
+    private static final int MAX_LOCALS = 32; // this and x1 to x31, each register in its own slot
+
+    // The opcodes used
+    private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13,
+            LDC2_W = 0x14, ILOAD = 0x15, ALOAD_0 = 0x2a, ISTORE = 0x36, POP = 0x57, DUP = 0x59,
+            IADD = 0x60, ISUB = 0x64, IMUL = 0x68, LMUL = 0x69, ISHL = 0x78, ISHR = 0x7a, LSHR = 0x7b,
+            IUSHR = 0x7c, IAND = 0x7e, LAND = 0x7f, IOR = 0x80, IXOR = 0x82, I2L = 0x85, L2I = 0x88,
+            RETURN = 0xb1, GETSTATIC = 0xb2, PUTFIELD = 0xb5, INVOKEVIRTUAL = 0xb6,
+            INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+
+    // Constant pool tags
+    private static final int UTF8 = 1, INTEGER = 3, LONG = 5, CLASS = 7, FIELD = 9, METHOD = 10,
+            NAME_AND_TYPE = 12;
+
+    // Lookup.defineHiddenClass and the empty ClassOption array to pass it, or null if this Java
+    // has no hidden classes.  Looked up by reflection so RARS still builds and runs on Java 9.
+    private static final Method DEFINE_HIDDEN_CLASS;
+    private static final Object NO_OPTIONS;
+
+    static {
+        Method define = null;
+        Object options = null;
+        try {
+            options = Array.newInstance(Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption"), 0);
+            define = MethodHandles.Lookup.class.getMethod("defineHiddenClass",
+                    byte[].class, boolean.class, options.getClass());
+        } catch (ReflectiveOperationException e) {
+            define = null;
+        }
+        DEFINE_HIDDEN_CLASS = define;
+        NO_OPTIONS = options;
+    }
+
+    private final ByteArrayOutputStream constantBytes = new ByteArrayOutputStream();
+    private final DataOutputStream constants = new DataOutputStream(constantBytes);
+    private final HashMap<String, Integer> constantIndex = new HashMap<>();
+    private int constantCount = 1;
+    private final ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+    private final DataOutputStream code = new DataOutputStream(codeBytes);
+    private final boolean[] loaded = new boolean[32]; // the local holds the register's value
+    private final boolean[] changed = new boolean[32]; // and it is newer than the RegisterFile's
+
+    private BlockCompiler() {
+    }
+
+    /**
+     * Translates as many instructions from the start of a block as it can.
+     *
+     * @param block the decoded instructions of the block
+     * @return the translation, or null if fewer than MIN_LENGTH instructions could be translated
+     * or if this Java has no hidden classes
+     */
+    static CompiledBlock compile(DecodedInstruction[] block) {
+        if (DEFINE_HIDDEN_CLASS == null) {
+            return null;
+        }
+        try {
+            BlockCompiler compiler = new BlockCompiler();
+            int length = 0;
+            while (length < block.length && compiler.translate(block[length], length)) {
+                length++;
+            }
+            if (length < MIN_LENGTH) {
+                return null;
+            }
+            compiler.writeBack();
+            compiler.code.writeByte(RETURN);
+            MethodHandles.Lookup lookup = (MethodHandles.Lookup) DEFINE_HIDDEN_CLASS.invoke(
+                    MethodHandles.lookup(), compiler.classFile(), true, NO_OPTIONS);
+            Class<?> c = lookup.lookupClass();
+            CompiledBlock compiled = (CompiledBlock) c.getDeclaredConstructor().newInstance();
+            compiled.length = length;
+            return compiled;
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new IllegalStateException("block compilation failed", e); // a bug, not a program error
+        }
+    }
+
+    // Adds the code for one instruction, unless it is one that cannot be translated
+    private boolean translate(DecodedInstruction decoded, int index) throws IOException {
+        ProgramStatement statement = decoded.getStatement();
+        int[] operands = statement.getOperands();
+        String name = decoded.getInstruction().getName();
+        switch (name) {
+            case "add":
+            case "sub":
+            case "and":
+            case "or":
+            case "xor":
+            case "sll":
+            case "srl":
+            case "sra":
+            case "slt":
+            case "sltu":
+            case "mul":
+            case "mulh":
+            case "mulhsu":
+            case "mulhu":
+                load(operands[1]);
+                load(operands[2]);
+                operate(name);
+                store(operands[0]);
+                return true;
+            case "addi":
+            case "andi":
+            case "ori":
+            case "xori":
+            case "slti":
+            case "sltiu":
+                load(operands[1]);
+                push((operands[2] << 20) >> 20); // sign-extended, as ImmediateInstruction does
+                operate(name.replace("i", "")); // the register-register instruction doing the same
+                store(operands[0]);
+                return true;
+            case "slli":
+            case "srli":
+            case "srai":
+                load(operands[1]);
+                push(operands[2]);
+                operate(name.replace("i", ""));
+                store(operands[0]);
+                return true;
+            case "lui":
+                push(operands[1] << 12);
+                store(operands[0]);
+                return true;
+            case "auipc":
+                push(statement.getAddress() + (operands[1] << 12));
+                store(operands[0]);
+                return true;
+            case "lb":
+            case "lh":
+            case "lw":
+            case "lbu":
+            case "lhu":
+                prepareAccess(index);
+                code.writeByte(GETSTATIC);
+                code.writeShort(field("rars/Globals", "memory", "L" + MEMORY + ";"));
+                address(operands[2], operands[1]);
+                code.writeByte(INVOKEVIRTUAL);
+                code.writeShort(method(MEMORY, name.equals("lw") ? "getWord" : name.startsWith("lh") ? "getHalf" : "getByte", "(I)I"));
+                if (name.equals("lb") || name.equals("lh")) {
+                    int shift = name.equals("lb") ? 24 : 16; // sign-extend
+                    push(shift);
+                    code.writeByte(ISHL);
+                    push(shift);
+                    code.writeByte(ISHR);
+                } else if (!name.equals("lw")) {
+                    push(name.equals("lbu") ? 0xFF : 0xFFFF);
+                    code.writeByte(IAND);
+                }
+                store(operands[0]);
+                return true;
+            case "sb":
+            case "sh":
+            case "sw":
+                prepareAccess(index);
+                code.writeByte(GETSTATIC);
+                code.writeShort(field("rars/Globals", "memory", "L" + MEMORY + ";"));
+                address(operands[2], operands[1]);
+                load(operands[0]);
+                if (!name.equals("sw")) {
+                    push(name.equals("sb") ? 0xFF : 0xFFFF);
+                    code.writeByte(IAND);
+                }
+                code.writeByte(INVOKEVIRTUAL);
+                code.writeShort(method(MEMORY, name.equals("sw") ? "setWord" : name.equals("sh") ? "setHalf" : "setByte", "(II)I"));
+                code.writeByte(POP);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Replaces the two values on top of the stack by the result of a register-register operation
+    private void operate(String name) throws IOException {
+        switch (name) {
+            case "add":
+                code.writeByte(IADD);
+                break;
+            case "sub":
+                code.writeByte(ISUB);
+                break;
+            case "and":
+                code.writeByte(IAND);
+                break;
+            case "or":
+                code.writeByte(IOR);
+                break;
+            case "xor":
+                code.writeByte(IXOR);
+                break;
+            case "sll":
+                code.writeByte(ISHL); // uses the low 5 bits of the amount, as the instruction does
+                break;
+            case "srl":
+                code.writeByte(IUSHR);
+                break;
+            case "sra":
+                code.writeByte(ISHR);
+                break;
+            case "slt":
+            case "sltu":
+                // compare gives -1 for less than, whose sign bit is the answer
+                code.writeByte(INVOKESTATIC);
+                code.writeShort(method("java/lang/Integer", name.equals("slt") ? "compare" : "compareUnsigned", "(II)I"));
+                push(31);
+                code.writeByte(IUSHR);
+                break;
+            case "mul":
+                code.writeByte(IMUL);
+                break;
+            case "mulh":
+            case "mulhsu":
+            case "mulhu":
+                // Sign- or zero-extended to long, as the instructions do
+                boolean unsignedSecond = !name.equals("mulh");
+                code.writeByte(I2L);
+                if (unsignedSecond) {
+                    unsignedLong();
+                }
+                // The first operand is under the second, which is now a long
+                code.writeByte(0x5d); // dup2_x1, then pop2 to swap the int under the long
+                code.writeByte(0x58);
+                code.writeByte(I2L);
+                if (name.equals("mulhu")) {
+                    unsignedLong();
+                }
+                code.writeByte(LMUL);
+                push(32);
+                code.writeByte(LSHR);
+                code.writeByte(L2I);
+                break;
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+
+    // Clears the upper half of the long on top of the stack
+    private void unsignedLong() throws IOException {
+        code.writeByte(LDC2_W);
+        code.writeShort(constant("J" + 0xFFFFFFFFL, LONG, 0xFFFFFFFFL));
+        code.writeByte(LAND);
+    }
+
+    // Pushes a register's value plus a sign-extended 12-bit offset
+    private void address(int register, int offset) throws IOException {
+        load(register);
+        push((offset << 20) >> 20);
+        code.writeByte(IADD);
+    }
+
+    // Makes the registers current and records how far the block has got, in case the access fails
+    private void prepareAccess(int index) throws IOException {
+        writeBack();
+        code.writeByte(ALOAD_0);
+        push(index);
+        code.writeByte(PUTFIELD);
+        code.writeShort(field(SUPER_CLASS, "completed", "I"));
+    }
+
+    private void writeBack() throws IOException {
+        for (int register = 1; register < 32; register++) {
+            if (changed[register]) {
+                push(register);
+                code.writeByte(ILOAD);
+                code.writeByte(register);
+                code.writeByte(INVOKESTATIC);
+                code.writeShort(method(REGISTER_FILE, "updateRegister", "(II)I"));
+                code.writeByte(POP);
+                changed[register] = false;
+            }
+        }
+    }
+
+    private void load(int register) throws IOException {
+        if (register == 0) {
+            code.writeByte(ICONST_0);
+        } else if (loaded[register]) {
+            code.writeByte(ILOAD);
+            code.writeByte(register);
+        } else {
+            push(register);
+            code.writeByte(INVOKESTATIC);
+            code.writeShort(method(REGISTER_FILE, "getValue", "(I)I"));
+            code.writeByte(DUP);
+            code.writeByte(ISTORE);
+            code.writeByte(register);
+            loaded[register] = true;
+        }
+    }
+
+    private void store(int register) throws IOException {
+        if (register == 0) {
+            code.writeByte(POP);
+        } else {
+            code.writeByte(ISTORE);
+            code.writeByte(register);
+            loaded[register] = true;
+            changed[register] = true;
+        }
+    }
+
+    private void push(int value) throws IOException {
+        if (value >= -1 && value <= 5) {
+            code.writeByte(ICONST_0 + value);
+        } else if (value == (byte) value) {
+            code.writeByte(BIPUSH);
+            code.writeByte(value);
+        } else if (value == (short) value) {
+            code.writeByte(SIPUSH);
+            code.writeShort(value);
+        } else {
+            int index = constant("I" + value, INTEGER, value);
+            if (index < 256) {
+                code.writeByte(LDC);
+                code.writeByte(index);
+            } else {
+                code.writeByte(LDC_W);
+                code.writeShort(index);
+            }
+        }
+    }
+
+    private byte[] classFile() throws IOException {
+        int thisClass = classConstant(CLASS_NAME);
+        int superClass = classConstant(SUPER_CLASS);
+        int constructor = method(SUPER_CLASS, "<init>", "()V");
+        int codeName = utf8("Code");
+        int initName = utf8("<init>"), runName = utf8("run"), voidType = utf8("()V");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + constantBytes.size() + codeBytes.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(CLASS_VERSION);
+        out.writeShort(constantCount);
+        constantBytes.writeTo(out);
+        out.writeShort(0x0030); // final, super
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(0); // interfaces
+        out.writeShort(0); // fields
+        out.writeShort(2); // methods
+        // The constructor just calls CompiledBlock's
+        out.writeShort(0x0001); // public
+        out.writeShort(initName);
+        out.writeShort(voidType);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + 5);
+        out.writeShort(1);
+        out.writeShort(1);
+        out.writeInt(5);
+        out.writeByte(ALOAD_0);
+        out.writeByte(INVOKESPECIAL);
+        out.writeShort(constructor);
+        out.writeByte(RETURN);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+        // run()
+        out.writeShort(0x0000); // package-private, overriding CompiledBlock's
+        out.writeShort(runName);
+        out.writeShort(voidType);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + codeBytes.size());
+        out.writeShort(MAX_STACK);
+        out.writeShort(MAX_LOCALS);
+        out.writeInt(codeBytes.size());
+        codeBytes.writeTo(out);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0); // class attributes
+        return bytes.toByteArray();
+    }
+
+    private int field(String owner, String name, String type) throws IOException {
+        return member(FIELD, owner, name, type);
+    }
+
+    private int method(String owner, String name, String type) throws IOException {
+        return member(METHOD, owner, name, type);
+    }
+
+    private int member(int tag, String owner, String name, String type) throws IOException {
+        String key = tag + owner + "." + name + type;
+        Integer index = constantIndex.get(key);
+        if (index == null) {
+            int ownerIndex = classConstant(owner);
+            int nameAndType = nameAndType(name, type);
+            constants.writeByte(tag);
+            constants.writeShort(ownerIndex);
+            constants.writeShort(nameAndType);
+            index = add(key, 1);
+        }
+        return index;
+    }
+
+    private int nameAndType(String name, String type) throws IOException {
+        String key = "N" + name + type;
+        Integer index = constantIndex.get(key);
+        if (index == null) {
+            int nameIndex = utf8(name);
+            int typeIndex = utf8(type);
+            constants.writeByte(NAME_AND_TYPE);
+            constants.writeShort(nameIndex);
+            constants.writeShort(typeIndex);
+            index = add(key, 1);
+        }
+        return index;
+    }
+
+    private int classConstant(String name) throws IOException {
+        String key = "C" + name;
+        Integer index = constantIndex.get(key);
+        if (index == null) {
+            int nameIndex = utf8(name);
+            constants.writeByte(CLASS);
+            constants.writeShort(nameIndex);
+            index = add(key, 1);
+        }
+        return index;
+    }
+
+    private int utf8(String s) throws IOException {
+        String key = "U" + s;
+        Integer index = constantIndex.get(key);
+        if (index == null) {
+            constants.writeByte(UTF8);
+            constants.writeUTF(s);
+            index = add(key, 1);
+        }
+        return index;
+    }
+
+    // Integer and long constants
+    private int constant(String key, int tag, long value) throws IOException {
+        Integer index = constantIndex.get(key);
+        if (index == null) {
+            constants.writeByte(tag);
+            if (tag == LONG) {
+                constants.writeLong(value);
+            } else {
+                constants.writeInt((int) value);
+            }
+            index = add(key, (tag == LONG) ? 2 : 1); // longs take two entries
+        }
+        return index;
+    }
+
+    private int add(String key, int entries) {
+        int index = constantCount;
+        constantCount += entries;
+        constantIndex.put(key, index);
+        return index;
+    }
+}
@@ -0,0 +1,72 @@
+package rars.simulator;
+
+import rars.riscv.hardware.Register;
+import rars.riscv.hardware.RegisterFile;
+import rars.util.Binary;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+
+/**
+ * Turns the text of a breakpoint condition into something {@link BreakpointSet} can evaluate.
+ * <p>
+ * A condition compares two operands, each an integer register (by number, as in
+ * <code>x5</code>, or by name, as in <code>t0</code>), <code>pc</code> or an integer, for example
+ * <code>t0 == 5</code> or <code>a0 &gt;= a1</code>.  The comparisons are ==, !=, &lt;, &lt;=, &gt;
+ * and &gt;=, on signed values.
+ */
+public class BreakpointCondition {
+    // Two character operators first, so that "<=" is not taken for "<"
+    private static final String[] OPERATORS = {"==", "!=", "<=", ">=", "<", ">"};
+
+    /**
+     * @param condition the text of the condition
+     * @return the condition, reading the registers when it is evaluated
+     * @throws IllegalArgumentException if the text is not a condition, with a message saying why
+     */
+    public static BooleanSupplier parse(String condition) {
+        for (String operator : OPERATORS) {
+            int at = condition.indexOf(operator);
+            if (at < 0) {
+                continue;
+            }
+            IntSupplier left = operand(condition.substring(0, at));
+            IntSupplier right = operand(condition.substring(at + operator.length()));
+            switch (operator) {
+                case "==":
+                    return () -> left.getAsInt() == right.getAsInt();
+                case "!=":
+                    return () -> left.getAsInt() != right.getAsInt();
+                case "<=":
+                    return () -> left.getAsInt() <= right.getAsInt();
+                case ">=":
+                    return () -> left.getAsInt() >= right.getAsInt();
+                case "<":
+                    return () -> left.getAsInt() < right.getAsInt();
+                default:
+                    return () -> left.getAsInt() > right.getAsInt();
+            }
+        }
+        throw new IllegalArgumentException("\"" + condition.trim() + "\" is not a comparison such as t0 == 5");
+    }
+
+    private static IntSupplier operand(String text) {
+        String operand = text.trim();
+        if (operand.isEmpty()) {
+            throw new IllegalArgumentException("a comparison needs a register or number on each side");
+        }
+        if (operand.equals("pc")) {
+            return RegisterFile.getProgramCounterRegister()::getValueNoNotify;
+        }
+        Register register = RegisterFile.getRegister(operand);
+        if (register != null) {
+            return register::getValueNoNotify;
+        }
+        try {
+            int value = Binary.stringToInt(operand);
+            return () -> value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("\"" + operand + "\" is neither an integer register nor a number");
+        }
+    }
+}
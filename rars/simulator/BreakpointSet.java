@@ -0,0 +1,144 @@
+package rars.simulator;
+
+import java.util.HashMap;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The breakpoints of one simulation run, indexed by a bitmap with one bit per instruction word.
+ * <p>
+ * SimThread asks {@link #breaksAt(int)} after every instruction, so an address without a
+ * breakpoint costs one or two array loads and no search.  Breakpoints may carry a condition and
+ * a hit count; those are looked up and evaluated only once the bitmap says there is a breakpoint
+ * at the address.
+ */
+public class BreakpointSet {
+    // The bitmap is split into pages covering 128 KiB of address space each (1024 ints of
+    // 32 bits, one bit per word).  Pages are only allocated where breakpoints are set, so
+    // breakpoints in both the user and kernel text segments stay cheap.
+    private static final int PAGE_SHIFT = 17;
+    private static final int PAGE_INTS = 1024;
+
+    private final int[][] pages = new int[1 << (32 - PAGE_SHIFT)][];
+    private final HashMap<Integer, Breakpoint> special = new HashMap<>();
+    private int size;
+
+    /**
+     * Creates an empty set.
+     */
+    public BreakpointSet() {
+    }
+
+    /**
+     * Creates a set of unconditional breakpoints.
+     *
+     * @param addresses instruction addresses to break at, may be null
+     */
+    public BreakpointSet(int[] addresses) {
+        if (addresses != null) {
+            for (int address : addresses) {
+                add(address);
+            }
+        }
+    }
+
+    /**
+     * Adds an unconditional breakpoint, replacing any breakpoint already at the address.
+     *
+     * @param address the instruction address to break at
+     */
+    public void add(int address) {
+        add(address, null, 1);
+    }
+
+    /**
+     * Adds a breakpoint, replacing any breakpoint already at the address.  Execution stops
+     * when the instruction at the address is about to be executed and the condition holds,
+     * but only from the <code>hitCount</code>-th such time on.
+     *
+     * @param address  the instruction address to break at
+     * @param condition evaluated each time execution reaches the address, null means always true
+     * @param hitCount  number of times the condition must hold before the breakpoint stops execution
+     */
+    public void add(int address, BooleanSupplier condition, int hitCount) {
+        int[] page = pages[address >>> PAGE_SHIFT];
+        if (page == null) {
+            page = pages[address >>> PAGE_SHIFT] = new int[PAGE_INTS];
+        }
+        int index = (address >>> 7) & (PAGE_INTS - 1);
+        int bit = 1 << (address >>> 2);
+        if ((page[index] & bit) == 0) {
+            page[index] |= bit;
+            size++;
+        }
+        if (condition == null && hitCount <= 1) {
+            special.remove(address);
+        } else {
+            special.put(address, new Breakpoint(condition, hitCount));
+        }
+    }
+
+    /**
+     * Removes the breakpoint at the given address, if there is one.
+     *
+     * @param address the instruction address
+     */
+    public void remove(int address) {
+        int[] page = pages[address >>> PAGE_SHIFT];
+        int bit = 1 << (address >>> 2);
+        if (page != null && (page[(address >>> 7) & (PAGE_INTS - 1)] & bit) != 0) {
+            page[(address >>> 7) & (PAGE_INTS - 1)] &= ~bit;
+            special.remove(address);
+            size--;
+        }
+    }
+
+    /**
+     * @return true if there are no breakpoints in the set
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Sets the hit counters of all breakpoints back to zero.
+     */
+    public void resetHitCounts() {
+        for (Breakpoint b : special.values()) {
+            b.hits = 0;
+        }
+    }
+
+    /**
+     * Tells whether execution should stop before the instruction at the given address.  For a
+     * conditional or counted breakpoint this evaluates the condition and counts the hit.
+     *
+     * @param address the address of the next instruction
+     * @return true if a breakpoint at the address fires
+     */
+    public boolean breaksAt(int address) {
+        int[] page = pages[address >>> PAGE_SHIFT];
+        if (page == null || (page[(address >>> 7) & (PAGE_INTS - 1)] & (1 << (address >>> 2))) == 0
+                || (address & 3) != 0) {
+            return false;
+        }
+        Breakpoint b = special.get(address);
+        if (b == null) {
+            return true;
+        }
+        if (b.condition != null && !b.condition.getAsBoolean()) {
+            return false;
+        }
+        return ++b.hits >= b.hitCount;
+    }
+
+    private static class Breakpoint {
+        private final BooleanSupplier condition;
+        private final int hitCount;
+        private int hits;
+
+        private Breakpoint(BooleanSupplier condition, int hitCount) {
+            this.condition = condition;
+            this.hitCount = hitCount;
+        }
+    }
+}
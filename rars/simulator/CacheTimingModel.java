@@ -0,0 +1,49 @@
+package rars.simulator;
+
+import rars.riscv.hardware.CacheHierarchy;
+
+import java.io.PrintStream;
+
+/**
+ * The five stage pipeline of {@link PipelineTimingModel}, stalled for as long as instruction
+ * fetches, loads and stores wait for a {@link CacheHierarchy}.
+ * <p>
+ * While this model is installed Timing feeds its hierarchy too.  Stalls are simply added up, so
+ * a miss never overlaps with a hazard or with another miss.
+ */
+public class CacheTimingModel extends PipelineTimingModel {
+    public static final String NAME = "cache";
+
+    private final CacheHierarchy caches;
+
+    /**
+     * @param caches the hierarchy to charge misses from
+     */
+    public CacheTimingModel(CacheHierarchy caches) {
+        this.caches = caches;
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    public CacheHierarchy getCacheHierarchy() {
+        return caches;
+    }
+
+    public void reset() {
+        super.reset();
+        if (caches != null) { // null while the superclass constructor runs
+            caches.reset();
+        }
+    }
+
+    public long getCycles() {
+        return super.getCycles() + caches.getStallCycles();
+    }
+
+    public void writeReport(PrintStream out) {
+        super.writeReport(out);
+        caches.writeReport(out);
+    }
+}
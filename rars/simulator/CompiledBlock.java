@@ -0,0 +1,30 @@
+package rars.simulator;
+
+import rars.riscv.hardware.AddressErrorException;
+
+/**
+ * The start of a hot basic block, translated by {@link BlockCompiler} into a class of its own.
+ * <p>
+ * {@link #run()} does what simulating the first {@link #length} instructions of the block one
+ * by one would, except for moving the program counter and counting steps, which is left to the
+ * simulator.  Registers are kept in local variables while the block runs and written back before
+ * every load or store and at the end, so if a load or store fails the registers are exactly as
+ * they were before it, and {@link #completed} says how many instructions came before it.
+ */
+abstract class CompiledBlock {
+    /**
+     * Number of instructions run() runs if nothing goes wrong.
+     */
+    int length;
+    /**
+     * Number of instructions finished before the load or store that failed, when run() throws.
+     */
+    int completed;
+
+    /**
+     * Runs the instructions.
+     *
+     * @throws AddressErrorException if a load or store fails; nothing of it has been done
+     */
+    abstract void run() throws AddressErrorException;
+}
@@ -0,0 +1,149 @@
+package rars.simulator;
+
+import java.io.PrintStream;
+
+/**
+ * The classic five stage in-order pipeline: fetch, decode, execute, memory access and write
+ * back, one instruction per cycle, with full forwarding.  Only two hazards cost cycles:
+ * <ul>
+ * <li>An instruction that uses the register a load writes, right after the load, waits for the
+ * memory stage to finish: a load-use stall.</li>
+ * <li>Branches are predicted not taken and resolved in the execute stage, so a taken branch, a
+ * JALR or a trap flushes the two instructions fetched behind it.  A JAL knows where it goes in
+ * the decode stage and flushes one.</li>
+ * </ul>
+ * Filling the pipeline takes four more cycles before the first instruction completes.
+ */
+public class PipelineTimingModel implements TimingModel {
+    public static final String NAME = "pipeline";
+
+    private static final int PIPELINE_FILL = 4;
+    private static final int LOAD_USE_PENALTY = 1;
+    private static final int BRANCH_PENALTY = 2;
+    private static final int JUMP_PENALTY = 1;
+    private static final int NO_REGISTER = -1;
+
+    private long instructions;
+    private long loadUseStalls;
+    private long branchFlushes; // cycles
+    private long takenBranches;
+    private int lastPc;
+    private boolean lastWasJal;
+    private int loadedRegister; // written by the last instruction if it was a load
+
+    public PipelineTimingModel() {
+        reset();
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    public void reset() {
+        instructions = 0;
+        loadUseStalls = 0;
+        branchFlushes = 0;
+        takenBranches = 0;
+        lastWasJal = false;
+        loadedRegister = NO_REGISTER;
+    }
+
+    public void instruction(int pc, int encoding) {
+        if (instructions > 0 && pc != lastPc + 4) {
+            takenBranches++;
+            branchFlushes += lastWasJal ? JUMP_PENALTY : BRANCH_PENALTY;
+        } else if (loadedRegister != NO_REGISTER && (sources(encoding) & (1L << loadedRegister)) != 0) {
+            loadUseStalls += LOAD_USE_PENALTY;
+        }
+        instructions++;
+        lastPc = pc;
+        lastWasJal = (encoding & 0x7F) == 0x6F;
+        loadedRegister = loadDestination(encoding);
+    }
+
+    public long getInstructions() {
+        return instructions;
+    }
+
+    public long getCycles() {
+        return (instructions == 0) ? 0 : instructions + PIPELINE_FILL + loadUseStalls + branchFlushes;
+    }
+
+    public void writeReport(PrintStream out) {
+        long cycles = getCycles();
+        out.println("Timing model: " + getName());
+        out.println(String.format("%14d instructions", instructions));
+        out.println(String.format("%14d cycles", cycles));
+        out.println(String.format("%14.3f cycles per instruction", (instructions == 0) ? 0.0 : (double) cycles / instructions));
+        out.println(String.format("%14d cycles of load-use stalls", loadUseStalls));
+        out.println(String.format("%14d cycles flushed after %d taken branches and jumps", branchFlushes, takenBranches));
+    }
+
+    // The registers an instruction reads, as a mask: bit n for xn, bit 32 + n for fn.  x0 is
+    // never included since it does not depend on anything.
+    private static long sources(int encoding) {
+        int rs1 = (encoding >>> 15) & 0x1F;
+        int rs2 = (encoding >>> 20) & 0x1F;
+        long mask;
+        switch (encoding & 0x7F) {
+            case 0x33: // OP
+            case 0x63: // BRANCH
+            case 0x23: // STORE
+            case 0x2F: // AMO
+                mask = (1L << rs1) | (1L << rs2);
+                break;
+            case 0x13: // OP-IMM
+            case 0x03: // LOAD
+            case 0x07: // LOAD-FP
+            case 0x67: // JALR
+                mask = 1L << rs1;
+                break;
+            case 0x27: // STORE-FP
+                mask = (1L << rs1) | (1L << (32 + rs2));
+                break;
+            case 0x43: // FMADD
+            case 0x47: // FMSUB
+            case 0x4B: // FNMSUB
+            case 0x4F: // FNMADD
+                mask = (1L << (32 + rs1)) | (1L << (32 + rs2)) | (1L << (32 + (encoding >>> 27)));
+                break;
+            case 0x53: // OP-FP
+                switch (encoding >>> 27) {
+                    case 0x1A: // fcvt.s.w and fcvt.s.wu
+                    case 0x1E: // fmv.w.x
+                        mask = 1L << rs1;
+                        break;
+                    case 0x08: // fcvt between precisions
+                    case 0x0B: // fsqrt
+                    case 0x18: // fcvt.w.s and fcvt.wu.s
+                    case 0x1C: // fmv.x.w and fclass
+                        mask = 1L << (32 + rs1);
+                        break;
+                    default:
+                        mask = (1L << (32 + rs1)) | (1L << (32 + rs2));
+                }
+                break;
+            case 0x73: // SYSTEM: only the CSR instructions with a register operand
+                int funct3 = (encoding >>> 12) & 7;
+                mask = (funct3 >= 1 && funct3 <= 3) ? 1L << rs1 : 0;
+                break;
+            default: // LUI, AUIPC, JAL
+                mask = 0;
+        }
+        return mask & ~1L;
+    }
+
+    // The register a load writes, numbered as in sources, or NO_REGISTER
+    private static int loadDestination(int encoding) {
+        int rd = (encoding >>> 7) & 0x1F;
+        switch (encoding & 0x7F) {
+            case 0x03: // LOAD
+            case 0x2F: // AMO, which loads too
+                return (rd == 0) ? NO_REGISTER : rd;
+            case 0x07: // LOAD-FP
+                return 32 + rd;
+            default:
+                return NO_REGISTER;
+        }
+    }
+}
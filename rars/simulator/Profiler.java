@@ -0,0 +1,306 @@
+package rars.simulator;
+
+import rars.Globals;
+import rars.ProgramStatement;
+import rars.assembler.Symbol;
+import rars.riscv.hardware.Memory;
+import rars.util.Binary;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts how often each instruction runs, and in which function and call stack.
+ * <p>
+ * While {@link #profiling} is true the simulator tells {@link #instruction(int, int)} about
+ * every instruction, as an instruction listener.  Counts per text segment word are kept in blocks of 1024, like the text
+ * block table of Memory.  Calls and returns are recognized by the standard link register
+ * conventions: a JAL or JALR that writes ra or t0 is a call, and the address it goes to is
+ * where the called function starts; a JALR to ra or t0 that writes zero is a return.  The
+ * call stacks found this way are kept as a tree with a count per node.  Jumps into trap
+ * handlers are not calls, so handlers count towards the function they interrupted.
+ * <p>
+ * With a sampling period greater than 1 only every period-th instruction is counted, while
+ * calls and returns are still followed exactly.
+ * <p>
+ * Functions are named by the text label at their first instruction, or its address if there
+ * is none.  {@link #writeCollapsed(PrintStream)} writes one line per call stack in the
+ * collapsed format read by flame graph tools, e.g. <code>main;sort;swap 1234</code>.
+ */
+public class Profiler {
+    private static final int BLOCK_LENGTH_WORDS = 1024;
+    private static final int MAX_DEPTH = 4096; // calls that never return go no deeper
+    private static final int NONE = 0, CALL = 1, RETURN = 2;
+    private static final Simulator.InstructionListener LISTENER = Profiler::instruction;
+
+    /**
+     * True while a program is being profiled.  Only changed while the simulator is not running.
+     */
+    public static boolean profiling;
+
+    private static int period;
+    private static int countdown;
+    private static int textBase;
+    private static int[][] counts;
+    private static Node root;
+    private static Node current;
+    private static int pending;
+    private static long total;
+
+    /**
+     * Starts profiling, forgetting any earlier profile.
+     *
+     * @param samplePeriod count every samplePeriod-th instruction; 1 counts all of them
+     */
+    public static void start(int samplePeriod) {
+        period = Math.max(samplePeriod, 1);
+        countdown = period;
+        textBase = Memory.textBaseAddress;
+        counts = new int[((Memory.textLimitAddress - Memory.textBaseAddress) >>> 12) + 1][];
+        root = null;
+        current = null;
+        pending = NONE;
+        total = 0;
+        if (!profiling) {
+            Simulator.addInstructionListener(LISTENER);
+        }
+        profiling = true;
+    }
+
+    /**
+     * Stops profiling.  The profile stays available for the write methods.
+     */
+    public static void stop() {
+        Simulator.removeInstructionListener(LISTENER);
+        profiling = false;
+    }
+
+    /**
+     * Counts the instruction at pc, which is about to be executed.
+     */
+    public static void instruction(int pc, int encoding) {
+        if (current == null) {
+            root = current = new Node(pc, null);
+        } else if (pending == CALL) {
+            current = current.child(pc);
+        } else if (pending == RETURN && current.parent != null) {
+            current = current.parent;
+        }
+        pending = NONE;
+        if (--countdown == 0) {
+            countdown = period;
+            current.count++;
+            total++;
+            int word = (pc - textBase) >>> 2;
+            int block = word / BLOCK_LENGTH_WORDS;
+            if (block < counts.length && (pc & 3) == 0) {
+                if (counts[block] == null) {
+                    counts[block] = new int[BLOCK_LENGTH_WORDS];
+                }
+                counts[block][word % BLOCK_LENGTH_WORDS]++;
+            }
+        }
+        int opcode = encoding & 0x7F;
+        if (opcode == 0x6F || opcode == 0x67) { // JAL, JALR
+            int rd = (encoding >>> 7) & 0x1F;
+            int rs1 = (encoding >>> 15) & 0x1F;
+            if (rd == 1 || rd == 5) {
+                pending = CALL;
+            } else if (opcode == 0x67 && rd == 0 && (rs1 == 1 || rs1 == 5)) {
+                pending = RETURN;
+            }
+        }
+    }
+
+    /**
+     * Writes one line for each call stack that instructions were counted in: the names of the
+     * functions from the outermost in, separated by semicolons, a space and the count.
+     *
+     * @param out where to write
+     */
+    public static void writeCollapsed(PrintStream out) {
+        HashMap<Integer, String> names = new HashMap<>();
+        ArrayDeque<Node> work = new ArrayDeque<>();
+        if (root != null) {
+            work.push(root);
+        }
+        while (!work.isEmpty()) {
+            Node node = work.pop();
+            if (node.count > 0) {
+                ArrayList<String> path = new ArrayList<>();
+                for (Node n = node; n != null; n = n.parent) {
+                    path.add(name(n.function, names));
+                }
+                StringBuilder line = new StringBuilder();
+                for (int i = path.size() - 1; i >= 0; i--) {
+                    line.append(path.get(i)).append(i > 0 ? ";" : " ");
+                }
+                out.println(line.append(node.count));
+            }
+            for (Node child = node.firstChild; child != null; child = child.nextSibling) {
+                work.push(child);
+            }
+        }
+    }
+
+    /**
+     * Writes the number of instructions counted, in and under each function, and the hottest
+     * instructions with their source.
+     *
+     * @param out      where to write
+     * @param hotLimit the number of instructions to list
+     */
+    public static void writeReport(PrintStream out, int hotLimit) {
+        HashMap<Integer, String> names = new HashMap<>();
+        HashMap<Integer, long[]> functions = new HashMap<>(); // inclusive, exclusive
+        if (root != null) {
+            addFunctions(functions);
+        }
+        out.println("Profile: " + total + " instructions counted" + (period > 1 ? ", 1 in " + period : ""));
+        out.println(String.format("%12s %7s %12s %7s  %s", "inclusive", "", "exclusive", "", "function"));
+        ArrayList<Map.Entry<Integer, long[]>> byFunction = new ArrayList<>(functions.entrySet());
+        byFunction.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+        for (Map.Entry<Integer, long[]> f : byFunction) {
+            long[] c = f.getValue();
+            out.println(String.format("%12d %6.2f%% %12d %6.2f%%  %s", c[0], percent(c[0]), c[1], percent(c[1]),
+                    name(f.getKey(), names)));
+        }
+
+        ArrayList<long[]> hot = new ArrayList<>(); // count, address
+        for (int block = 0; block < counts.length; block++) {
+            if (counts[block] != null) {
+                for (int i = 0; i < BLOCK_LENGTH_WORDS; i++) {
+                    if (counts[block][i] != 0) {
+                        hot.add(new long[]{counts[block][i], textBase + 4L * (block * BLOCK_LENGTH_WORDS + i)});
+                    }
+                }
+            }
+        }
+        hot.sort((a, b) -> Long.compare(b[0], a[0]));
+        out.println("Hottest instructions:");
+        out.println(String.format("%12s %7s  %-10s  %s", "count", "", "address", "source"));
+        for (int i = 0; i < Math.min(hotLimit, hot.size()); i++) {
+            int address = (int) hot.get(i)[1];
+            out.println(String.format("%12d %6.2f%%  %s  %s", hot.get(i)[0], percent(hot.get(i)[0]),
+                    Binary.intToHexString(address), source(address)));
+        }
+    }
+
+    // Totals the tree by function.  A function counts towards its inclusive total once per
+    // stack, however often it is on it because of recursion.
+    private static void addFunctions(HashMap<Integer, long[]> functions) {
+        ArrayDeque<Node> work = new ArrayDeque<>();
+        HashMap<Node, Long> subtree = new HashMap<>();
+        // First pass, children before parents: count of each subtree
+        ArrayList<Node> order = new ArrayList<>();
+        work.push(root);
+        while (!work.isEmpty()) {
+            Node node = work.pop();
+            order.add(node);
+            for (Node child = node.firstChild; child != null; child = child.nextSibling) {
+                work.push(child);
+            }
+        }
+        for (int i = order.size() - 1; i >= 0; i--) {
+            Node node = order.get(i);
+            long sum = node.count;
+            for (Node child = node.firstChild; child != null; child = child.nextSibling) {
+                sum += subtree.get(child);
+            }
+            subtree.put(node, sum);
+        }
+        // Second pass, parents before children: a node adds to the inclusive total of its
+        // function only if no node above it is in the same function
+        for (Node node : order) {
+            boolean nested = false;
+            for (Node n = node.parent; n != null && !nested; n = n.parent) {
+                nested = n.function == node.function;
+            }
+            long[] f = functions.computeIfAbsent(node.function, k -> new long[2]);
+            f[1] += node.count;
+            if (!nested) {
+                f[0] += subtree.get(node);
+            }
+        }
+    }
+
+    private static double percent(long count) {
+        return (total == 0) ? 0 : 100.0 * count / total;
+    }
+
+    private static String name(int address, HashMap<Integer, String> names) {
+        return names.computeIfAbsent(address, a -> {
+            try {
+                ProgramStatement statement = Globals.memory.getStatementNoNotify(a);
+                if (statement != null && statement.getSourceProgram() != null) {
+                    Symbol symbol = statement.getSourceProgram().getLocalSymbolTable()
+                            .getSymbolGivenAddressLocalOrGlobal(a);
+                    if (symbol != null) {
+                        return symbol.getName();
+                    }
+                }
+            } catch (Exception e) {
+                // no statement there, use the address
+            }
+            Symbol symbol = Globals.symbolTable.getSymbolGivenAddress(a);
+            return (symbol != null) ? symbol.getName() : Binary.intToHexString(a);
+        });
+    }
+
+    private static String source(int address) {
+        try {
+            ProgramStatement statement = Globals.memory.getStatementNoNotify(address);
+            if (statement != null && statement.getSourceProgram() != null) {
+                return new File(statement.getSourceFile()).getName() + ":" + statement.getSourceLine()
+                        + "  " + statement.getSource().trim();
+            }
+            if (statement != null) {
+                return statement.getPrintableBasicAssemblyStatement();
+            }
+        } catch (Exception e) {
+            // fall through
+        }
+        return "";
+    }
+
+    // A call stack: the function it is in, below the call stack of the caller
+    private static class Node {
+        private final int function;
+        private final Node parent;
+        private final int depth;
+        private Node firstChild, nextSibling;
+        private long count;
+
+        private Node(int function, Node parent) {
+            this.function = function;
+            this.parent = parent;
+            this.depth = (parent == null) ? 0 : parent.depth + 1;
+        }
+
+        // The node for a call from here to the function at address, most recently used first
+        private Node child(int address) {
+            if (depth >= MAX_DEPTH) {
+                return this;
+            }
+            Node previous = null;
+            for (Node child = firstChild; child != null; previous = child, child = child.nextSibling) {
+                if (child.function == address) {
+                    if (previous != null) {
+                        previous.nextSibling = child.nextSibling;
+                        child.nextSibling = firstChild;
+                        firstChild = child;
+                    }
+                    return child;
+                }
+            }
+            Node child = new Node(address, this);
+            child.nextSibling = firstChild;
+            firstChild = child;
+            return child;
+        }
+    }
+}
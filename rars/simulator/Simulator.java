@@ -2,8 +2,12 @@ package rars.simulator;
 
 import rars.*;
 import rars.riscv.hardware.AddressErrorException;
+import rars.riscv.hardware.BranchPrediction;
+import rars.riscv.hardware.CacheHierarchy;
 import rars.riscv.hardware.ControlAndStatusRegisterFile;
+import rars.riscv.hardware.DecodedInstruction;
 import rars.riscv.hardware.InterruptController;
+import rars.riscv.hardware.Register;
 import rars.riscv.hardware.RegisterFile;
 import rars.riscv.BasicInstruction;
 import rars.riscv.Instruction;
@@ -53,6 +57,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 
 public class Simulator extends Observable {
     private SimThread simulatorThread;
+    private volatile long instructionCount;
+    private static volatile SimThread running; // the thread in run(), for getStepsInProgress()
     private static Simulator simulator = null;  // Singleton object
     private static Runnable interactiveGUIUpdater = null;
 
@@ -103,11 +109,27 @@ public class Simulator extends Observable {
      **/
 
     public Reason simulate(int pc, int maxSteps, int[] breakPoints) throws SimulationException {
-        simulatorThread = new SimThread(pc, maxSteps, breakPoints);
-        simulatorThread.run(); // Just call run, this is a blocking method
-        SimulationException pe = simulatorThread.pe;
-        boolean done = simulatorThread.done;
-        Reason out = simulatorThread.constructReturnReason;
+        return simulate(pc, maxSteps, new BreakpointSet(breakPoints));
+    }
+
+    /**
+     * Simulate execution of given MIPS program (in this thread).  It must have already been assembled.
+     *
+     * @param pc          address of first instruction to simulate; this goes into program counter
+     * @param maxSteps    maximum number of steps to perform before returning false (0 or less means no max)
+     * @param breakPoints the breakpoints, which may be conditional or counted; use null if none
+     * @return true if execution completed, false otherwise
+     * @throws SimulationException Throws exception if run-time exception occurs.
+     **/
+
+    public Reason simulate(int pc, int maxSteps, BreakpointSet breakPoints) throws SimulationException {
+        // Keep a reference of our own: stopExecution() clears simulatorThread
+        SimThread thread = new SimThread(pc, maxSteps, breakPoints);
+        simulatorThread = thread;
+        thread.run(); // Just call run, this is a blocking method
+        SimulationException pe = thread.pe;
+        boolean done = thread.done;
+        Reason out = thread.constructReturnReason;
         if (done) SystemIO.resetFiles(); // close any files opened in MIPS program
         this.simulatorThread = null;
         if (pe != null) {
@@ -116,6 +138,38 @@ public class Simulator extends Observable {
         return out;
     }
 
+    /**
+     * Executes instructions from the program counter in this thread, without telling observers
+     * or the analysis tools, or counting them.  Used by SnapshotHistory to execute forward again from a snapshot, which
+     * must go exactly as it did the first time.
+     *
+     * @param steps number of instructions to execute
+     * @throws SimulationException if execution stops early, which it should not
+     */
+    void replay(int steps) throws SimulationException {
+        SimThread thread = new SimThread(RegisterFile.getProgramCounter(), steps, null);
+        thread.replaying = true;
+        // The analysis tools saw these instructions the first time; the instruction listeners
+        // are skipped by step(), and the hooks elsewhere are turned off for the duration.
+        boolean recording = TraceRecorder.recording, timing = Timing.timing;
+        boolean simulating = CacheHierarchy.simulating, predicting = BranchPrediction.predicting;
+        TraceRecorder.recording = Timing.timing = CacheHierarchy.simulating = BranchPrediction.predicting = false;
+        try {
+            thread.run();
+        } finally {
+            TraceRecorder.recording = recording;
+            Timing.timing = timing;
+            CacheHierarchy.simulating = simulating;
+            BranchPrediction.predicting = predicting;
+        }
+        if (thread.pe != null) {
+            throw thread.pe;
+        }
+        if (thread.constructReturnReason != Reason.MAX_STEPS) {
+            throw new SimulationException("re-execution stopped early (" + thread.constructReturnReason + ")");
+        }
+    }
+
     /**
      * Start simulated execution of given MIPS program (in a new thread).  It must have already been assembled.
      *
@@ -125,6 +179,18 @@ public class Simulator extends Observable {
      **/
 
     public void startSimulation(int pc, int maxSteps, int[] breakPoints) {
+        startSimulation(pc, maxSteps, new BreakpointSet(breakPoints));
+    }
+
+    /**
+     * Start simulated execution of given MIPS program (in a new thread).  It must have already been assembled.
+     *
+     * @param pc          address of first instruction to simulate; this goes into program counter
+     * @param maxSteps    maximum number of steps to perform before returning false (0 or less means no max)
+     * @param breakPoints the breakpoints, which may be conditional or counted; use null if none
+     **/
+
+    public void startSimulation(int pc, int maxSteps, BreakpointSet breakPoints) {
         simulatorThread = new SimThread(pc, maxSteps, breakPoints);
         new Thread(simulatorThread, "RISCV").start();
     }
@@ -155,6 +221,38 @@ public class Simulator extends Observable {
         interruptExecution(Reason.PAUSE);
     }
 
+    /**
+     * @return the number of instructions executed by all simulations since the last call to
+     * resetInstructionCount(), not including one that is still running
+     */
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * @return the number of instructions the run in progress has executed, counting one it is
+     * in the middle of, or 0 if nothing is running.  Used for the instret CSR.
+     */
+    public static long getStepsInProgress() {
+        SimThread thread = running;
+        return (thread == null) ? 0 : thread.steps;
+    }
+
+    /**
+     * @return true while a simulation is running.  It stops running before observers are told
+     * SIMULATOR_STOP.
+     */
+    public static boolean isRunning() {
+        return running != null;
+    }
+
+    /**
+     * Sets the count returned by getInstructionCount() back to zero.
+     */
+    public void resetInstructionCount() {
+        instructionCount = 0;
+    }
+
     /* This interface is required by the Asker class in MessagesPane
      * to be notified about the fact that the user has requested to
      * stop the execution. When that happens, it must unblock the
@@ -173,6 +271,34 @@ public class Simulator extends Observable {
         stopListeners.remove(l);
     }
 
+    /**
+     * Told about every instruction, just before it is executed, by the thread executing it.
+     * Used by the analysis tools, which are fed directly rather than through notices.
+     */
+    public interface InstructionListener {
+        void instruction(int pc, int encoding);
+    }
+
+    // Copied on every change, so the simulator reads it once per step without locking
+    private static volatile InstructionListener[] instructionListeners = new InstructionListener[0];
+    private static final InstructionListener[] NO_INSTRUCTION_LISTENERS = new InstructionListener[0];
+
+    /**
+     * Adds a listener, which is told about instructions after the ones it was told about
+     * before any listeners added earlier.  Should only be called while the simulator is not running.
+     */
+    public static synchronized void addInstructionListener(InstructionListener l) {
+        InstructionListener[] listeners = Arrays.copyOf(instructionListeners, instructionListeners.length + 1);
+        listeners[listeners.length - 1] = l;
+        instructionListeners = listeners;
+    }
+
+    public static synchronized void removeInstructionListener(InstructionListener l) {
+        ArrayList<InstructionListener> listeners = new ArrayList<>(Arrays.asList(instructionListeners));
+        listeners.remove(l);
+        instructionListeners = listeners.toArray(new InstructionListener[0]);
+    }
+
     // The Simthread object will call this method when it enters and returns from
     // its run() method.  These signal start and stop, respectively, of
     // simulation execution.  The observer can then adjust its own state depending
@@ -199,21 +325,38 @@ public class Simulator extends Observable {
      */
 
     class SimThread implements Runnable {
+        // Results of a single step()
+        private static final int STEP_OK = 0;        // carry on with the next instruction
+        private static final int STEP_TRAPPED = 1;   // a trap was registered and must be handled next
+        private static final int STEP_FINISHED = 2;  // stopExecution() has been called
+        private static final int ECALL = 0x00000073;
+        private static final int CSR_CYCLE = 0xC00, CSR_TIME = 0xC01, CSR_CYCLEH = 0xC80, CSR_TIMEH = 0xC81;
+
         private int pc, maxSteps;
-        private int[] breakPoints;
+        private BreakpointSet breakPoints;
         private boolean done;
         private SimulationException pe;
         private volatile boolean stop = false;
+        // Raised by setStop() and interrupt() to cut a batched quantum short
+        private volatile boolean eventPending = false;
         private Reason constructReturnReason;
+        private int steps;
+        private boolean ebreak, waiting;
+        private BasicBlockCache blockCache;
+        private boolean useBlocks; // blockCache is set and memory is not being observed
+        private boolean replaying; // see replay()
+        private SnapshotHistory history;
+        private long historyStart; // history time when this thread started
+        private boolean unrepeatable; // the last instruction stepped was an ECALL or read the time
 
         /**
          * SimThread constructor.  Receives all the information it needs to simulate execution.
          *
          * @param pc          address in text segment of first instruction to simulate
          * @param maxSteps    maximum number of instruction steps to simulate.  Default of -1 means no maximum
-         * @param breakPoints array of breakpoints (instruction addresses) specified by user
+         * @param breakPoints breakpoints specified by user, or null
          */
-        SimThread(int pc, int maxSteps, int[] breakPoints) {
+        SimThread(int pc, int maxSteps, BreakpointSet breakPoints) {
             this.pc = pc;
             this.maxSteps = maxSteps;
             this.breakPoints = breakPoints;
@@ -230,11 +373,15 @@ public class Simulator extends Observable {
          */
         public synchronized void setStop(Reason reason) {
             stop = true;
+            eventPending = true;
             constructReturnReason = reason;
             notify();
         }
 
         private void startExecution() {
+            if (replaying) {
+                return;
+            }
             Simulator.getInstance().notifyObserversOfExecution(new SimulatorNotice(SimulatorNotice.SIMULATOR_START,
                     maxSteps, RunSpeedPanel.getInstance().getRunSpeed(), pc, null, pe, done));
         }
@@ -242,12 +389,20 @@ public class Simulator extends Observable {
         private void stopExecution(boolean done, Reason reason) {
             this.done = done;
             this.constructReturnReason = reason;
+            ControlAndStatusRegisterFile.retire(steps);
+            Register.publish();
+            running = null;
+            if (replaying) {
+                return;
+            }
+            Simulator.getInstance().instructionCount += steps;
             if (done) SystemIO.resetFiles(); // close any files opened in MIPS program
             Simulator.getInstance().notifyObserversOfExecution(new SimulatorNotice(SimulatorNotice.SIMULATOR_STOP,
                     maxSteps, RunSpeedPanel.getInstance().getRunSpeed(), pc, reason, pe, done));
         }
 
         private synchronized void interrupt() {
+            eventPending = true;
             notify();
         }
 
@@ -345,16 +500,17 @@ public class Simulator extends Observable {
             // before the simulation gets underway.  Without them, this happens only intermittently,
             // with a consequence that some simulations are interruptable using PAUSE/STOP and others
             // are not (because one or the other or both is not yet enabled).
-            Thread.currentThread().setPriority(Thread.NORM_PRIORITY - 1);
-            Thread.yield();  // let the main thread run a bit to finish updating the GUI
+            if (!replaying) {
+                Thread.currentThread().setPriority(Thread.NORM_PRIORITY - 1);
+                Thread.yield();  // let the main thread run a bit to finish updating the GUI
+            }
 
-            if (breakPoints == null || breakPoints.length == 0) {
+            if (breakPoints != null && breakPoints.isEmpty()) {
                 breakPoints = null;
-            } else {
-                Arrays.sort(breakPoints);  // must be pre-sorted for binary search
             }
 
             startExecution();
+            running = this;
 
             // *******************  PS addition 26 July 2006  **********************
             // A couple statements below were added for the purpose of assuring that when
@@ -386,10 +542,36 @@ public class Simulator extends Observable {
             // This is noticeable in stepped mode.
             // *********************************************************************
 
+            // Block execution and batched locking only pay off when nothing needs to see the
+            // machine between individual instructions, so both are limited to flat-out runs
+            // with no stepping or back-stepping.  Both also fall back to single steps whenever
+            // memory is being observed.  Breakpoints are checked after every instruction of a
+            // quantum, but they rule out blocks, which would run past them.
+            // A snapshot history has to see every instruction on its own, to count it and to
+            // notice ECALLs and reads of the time, so it rules out blocks.
+            history = (replaying || Globals.program == null) ? null : Globals.program.getSnapshotHistory();
+            boolean flatOut = replaying || maxSteps != 1
+                    && !Globals.getSettings().getBackSteppingEnabled()
+                    && (Globals.getGui() == null && !Globals.runSpeedPanelExists
+                    || RunSpeedPanel.getInstance().getRunSpeed() == RunSpeedPanel.UNLIMITED_SPEED);
+            boolean batched = flatOut && Globals.simulationQuantum > 1;
+            blockCache = null;
+            if (flatOut && breakPoints == null && history == null
+                    && Globals.getSettings().getBooleanSetting(Settings.Bool.BLOCK_EXECUTION_ENABLED)
+                    && !Globals.getSettings().getBooleanSetting(Settings.Bool.SELF_MODIFYING_CODE_ENABLED)) {
+                blockCache = new BasicBlockCache();
+            }
+
             RegisterFile.initializeProgramCounter(pc);
-            ProgramStatement statement = null;
-            int steps = 0;
-            boolean ebreak = false, waiting = false;
+            steps = 0;
+            ebreak = false;
+            waiting = false;
+            if (history != null) {
+                synchronized (Globals.memoryAndRegistersLock) {
+                    history.start();
+                }
+                historyStart = history.getTime();
+            }
 
             // Volatile variable initialized false but can be set true by the main thread.
             // Used to stop or pause a running MIPS program.  See stopSimulation() above.
@@ -398,135 +580,57 @@ public class Simulator extends Observable {
                 // to access MIPS memory and registers only through synchronized blocks on same
                 // lock variable, then full (albeit heavy-handed) protection of MIPS memory and
                 // registers is assured.  Not as critical for reading from those resources.
-                // Check number of instructions executed.  Return if at limit (-1 is no limit).
+                //
+                // In batched mode the lock is held for a quantum of instructions rather than just
+                // one.  Interrupts and the checks that follow the synchronized block only happen
+                // between quanta, unless setStop() or interrupt() raises eventPending to cut the
+                // quantum short.
+                boolean trapped = false;
+                boolean atBreakpoint = false;
                 synchronized (Globals.memoryAndRegistersLock) {
-                    // Handle pending interupts and traps first
-                    int uip = ControlAndStatusRegisterFile.getValueNoNotify("uip"), uie = ControlAndStatusRegisterFile.getValueNoNotify("uie");
-                    boolean IE = (ControlAndStatusRegisterFile.getValueNoNotify("ustatus") & ControlAndStatusRegisterFile.INTERRUPT_ENABLE) != 0;
-                    // make sure no interrupts sneak in while we are processing them
-                    pc = RegisterFile.getProgramCounter();
-                    synchronized (InterruptController.lock) {
-                        boolean pendingExternal = InterruptController.externalPending(),
-                                pendingTimer = InterruptController.timerPending(),
-                                pendingTrap = InterruptController.trapPending();
-                        // This is the explicit (in the spec) order that interrupts should be serviced
-                        if (IE && pendingExternal && (uie & ControlAndStatusRegisterFile.EXTERNAL_INTERRUPT) != 0) {
-                            if (handleInterrupt(InterruptController.claimExternal(), SimulationException.EXTERNAL_INTERRUPT, pc)) {
-                                pendingExternal = false;
-                                uip &= ~0x100;
-                            } else {
-                                return; // if the interrupt can't be handled, but the interrupt enable bit is high, thats an error
-                            }
-                        } else if (IE && (uip & 0x1) != 0 && (uie & ControlAndStatusRegisterFile.SOFTWARE_INTERRUPT) != 0) {
-                            if (handleInterrupt(0, SimulationException.SOFTWARE_INTERRUPT, pc)) {
-                                uip &= ~0x1;
-                            } else {
-                                return; // if the interrupt can't be handled, but the interrupt enable bit is high, thats an error
-                            }
-                        } else if (IE && pendingTimer && (uie & ControlAndStatusRegisterFile.TIMER_INTERRUPT) != 0) {
-                            if (handleInterrupt(InterruptController.claimTimer(), SimulationException.TIMER_INTERRUPT, pc)) {
-                                pendingTimer = false;
-                                uip &= ~0x10;
-                            } else {
-                                return; // if the interrupt can't be handled, but the interrupt enable bit is high, thats an error
-                            }
-                        } else if (pendingTrap) { // if we have a pending trap and aren't handling an interrupt it must be handled
-                            if (handleTrap(InterruptController.claimTrap(), pc - Instruction.INSTRUCTION_LENGTH)) { // account for that the PC has already been incremented
-                            } else {
-                                return;
-                            }
-                        }
-                        uip |= (pendingExternal ? ControlAndStatusRegisterFile.EXTERNAL_INTERRUPT : 0) | (pendingTimer ? ControlAndStatusRegisterFile.TIMER_INTERRUPT : 0);
-                    }
-                    if (uip != ControlAndStatusRegisterFile.getValueNoNotify("uip")) {
-                        ControlAndStatusRegisterFile.updateRegister("uip", uip);
-                    }
-
-                    // always handle interrupts and traps before quiting
-                    if (maxSteps > 0) {
-                        steps++;
-                        if (steps > maxSteps) {
-                            stopExecution(false, Reason.MAX_STEPS);
+                    eventPending = false;
+                    // Handle pending interupts and traps first.  Nothing can be pending unless
+                    // the InterruptController's pending word says so.
+                    if (InterruptController.pendingWord() != 0) {
+                        if (!handlePendingInterrupts()) {
                             return;
                         }
-                    }
-
-                    pc = RegisterFile.getProgramCounter();
-                    RegisterFile.incrementPC();
-                    // Get instuction
-                    try {
-                        statement = Globals.memory.getStatement(pc);
-                    } catch (AddressErrorException e) {
-                        SimulationException tmp;
-                        if (e.getType() == SimulationException.LOAD_ACCESS_FAULT) {
-                            tmp = new SimulationException("Instruction load access error", SimulationException.INSTRUCTION_ACCESS_FAULT);
-                        } else {
-                            tmp = new SimulationException("Instruction load alignment error", SimulationException.INSTRUCTION_ADDR_MISALIGNED);
-                        }
-                        if (!InterruptController.registerSynchronousTrap(tmp, pc)) {
-                            this.pe = tmp;
-                            ControlAndStatusRegisterFile.updateRegister("uepc", pc);
-                            stopExecution(true, Reason.EXCEPTION);
-                            return;
-                        } else {
-                            continue;
+                        if (history != null) {
+                            history.advance(historyStart + steps, true); // interrupts do not happen again
                         }
                     }
-                    if (statement == null) {
-                        stopExecution(true, Reason.CLIFF_TERMINATION);
-                        return;
-                    }
-
-                    try {
-                        BasicInstruction instruction = (BasicInstruction) statement.getInstruction();
-                        if (instruction == null) {
-                            // TODO: Proper error handling here
-                            throw new SimulationException(statement,
-                                    "undefined instruction (" + Binary.intToHexString(statement.getBinaryStatement()) + ")",
-                                    SimulationException.ILLEGAL_INSTRUCTION);
-                        }
-                        // THIS IS WHERE THE INSTRUCTION EXECUTION IS ACTUALLY SIMULATED!
-                        instruction.simulate(statement);
-
-                        // IF statement added 7/26/06 (explanation above)
-                        if (Globals.getSettings().getBackSteppingEnabled()) {
-                            Globals.program.getBackStepper().addDoNothing(pc);
-                        }
-                    } catch (BreakpointException b) {
-                        // EBREAK needs backstepping support too.
-                        if (Globals.getSettings().getBackSteppingEnabled()) {
-                            Globals.program.getBackStepper().addDoNothing(pc);
+                    boolean observed = Globals.memory.countObservers() > 0;
+                    int quantum = (batched && !observed) ? Globals.simulationQuantum : 1;
+                    useBlocks = blockCache != null && !observed;
+                    do {
+                        int result = step();
+                        if (history != null) {
+                            history.advance(historyStart + steps, unrepeatable && result == STEP_OK);
                         }
-                        ebreak = true;
-                    } catch (WaitException w) {
-                        if (Globals.getSettings().getBackSteppingEnabled()) {
-                            Globals.program.getBackStepper().addDoNothing(pc);
-                        }
-                        waiting = true;
-                    } catch (ExitingException e) {
-                        if (e.error() == null) {
-                            this.constructReturnReason = Reason.NORMAL_TERMINATION;
-                        } else {
-                            this.constructReturnReason = Reason.EXCEPTION;
-                            this.pe = e;
-                        }
-                        // TODO: remove access to constructReturnReason
-                        stopExecution(true, constructReturnReason);
-                        return;
-                    } catch (SimulationException se) {
-                        if (InterruptController.registerSynchronousTrap(se, pc)) {
-                            continue;
-                        } else {
-                            this.pe = se;
-                            stopExecution(true, Reason.EXCEPTION);
+                        if (result == STEP_FINISHED) {
                             return;
                         }
-                    }
+                        if (result == STEP_TRAPPED) {
+                            trapped = true;
+                            break;
+                        }
+                        atBreakpoint = breakPoints != null && breakPoints.breaksAt(RegisterFile.getProgramCounter());
+                    } while (--quantum > 0 && !atBreakpoint && !ebreak && !waiting && !eventPending
+                            && InterruptController.pendingWord() == 0);
                 }// end synchronized block
+                Register.publish(); // registers were written without their locks
+                if (trapped) {
+                    continue; // the trap must be taken before anything else happens
+                }
+
+                // Re-execution goes straight on past EBREAK and WFI, as the first run did
+                if (replaying) {
+                    ebreak = false;
+                    waiting = false;
+                }
 
                 //	Return if we've reached a breakpoint.
-                if (ebreak || (breakPoints != null) &&
-                        (Arrays.binarySearch(breakPoints, RegisterFile.getProgramCounter()) >= 0)) {
+                if (ebreak || atBreakpoint) {
                     stopExecution(false, Reason.BREAKPOINT);
                     return;
                 }
@@ -549,12 +653,12 @@ public class Simulator extends Observable {
                 //                              using Run,  not Step (maxSteps > 1) AND
                 //                              running slowly enough for GUI to keep up
                 //if (Globals.getGui() != null && maxSteps != 1 &&
-                if (interactiveGUIUpdater != null && maxSteps != 1 &&
+                if (interactiveGUIUpdater != null && maxSteps != 1 && !replaying &&
                         RunSpeedPanel.getInstance().getRunSpeed() < RunSpeedPanel.UNLIMITED_SPEED) {
                     SwingUtilities.invokeLater(interactiveGUIUpdater);
                 }
                 if (Globals.getGui() != null || Globals.runSpeedPanelExists) { // OR added by DPS 24 July 2008 to enable speed control by stand-alone tool
-                    if (maxSteps != 1 &&
+                    if (maxSteps != 1 && !replaying &&
                             RunSpeedPanel.getInstance().getRunSpeed() < RunSpeedPanel.UNLIMITED_SPEED) {
                         try {
                             // TODO: potentially use this.wait so it can be interrupted
@@ -566,6 +670,226 @@ public class Simulator extends Observable {
             }
             stopExecution(false, constructReturnReason);
         }
+
+        /**
+         * Takes any pending interrupt or trap by updating the CSRs and jumping to the handler.
+         * Must be called holding Globals.memoryAndRegistersLock.
+         *
+         * @return false if execution had to be stopped because there is no handler
+         */
+        private boolean handlePendingInterrupts() {
+            InterruptController.clearPendingWord();
+            int uip = ControlAndStatusRegisterFile.getValueNoNotify("uip"), uie = ControlAndStatusRegisterFile.getValueNoNotify("uie");
+            boolean IE = (ControlAndStatusRegisterFile.getValueNoNotify("ustatus") & ControlAndStatusRegisterFile.INTERRUPT_ENABLE) != 0;
+            // make sure no interrupts sneak in while we are processing them
+            pc = RegisterFile.getProgramCounter();
+            synchronized (InterruptController.lock) {
+                boolean pendingExternal = InterruptController.externalPending(),
+                        pendingTimer = InterruptController.timerPending(),
+                        pendingTrap = InterruptController.trapPending();
+                // This is the explicit (in the spec) order that interrupts should be serviced
+                if (IE && pendingExternal && (uie & ControlAndStatusRegisterFile.EXTERNAL_INTERRUPT) != 0) {
+                    if (handleInterrupt(InterruptController.claimExternal(), SimulationException.EXTERNAL_INTERRUPT, pc)) {
+                        pendingExternal = false;
+                        uip &= ~0x100;
+                    } else {
+                        return false; // if the interrupt can't be handled, but the interrupt enable bit is high, thats an error
+                    }
+                } else if (IE && (uip & 0x1) != 0 && (uie & ControlAndStatusRegisterFile.SOFTWARE_INTERRUPT) != 0) {
+                    if (handleInterrupt(0, SimulationException.SOFTWARE_INTERRUPT, pc)) {
+                        uip &= ~0x1;
+                    } else {
+                        return false; // if the interrupt can't be handled, but the interrupt enable bit is high, thats an error
+                    }
+                } else if (IE && pendingTimer && (uie & ControlAndStatusRegisterFile.TIMER_INTERRUPT) != 0) {
+                    if (handleInterrupt(InterruptController.claimTimer(), SimulationException.TIMER_INTERRUPT, pc)) {
+                        pendingTimer = false;
+                        uip &= ~0x10;
+                    } else {
+                        return false; // if the interrupt can't be handled, but the interrupt enable bit is high, thats an error
+                    }
+                } else if (pendingTrap) { // if we have a pending trap and aren't handling an interrupt it must be handled
+                    if (handleTrap(InterruptController.claimTrap(), pc - Instruction.INSTRUCTION_LENGTH)) { // account for that the PC has already been incremented
+                    } else {
+                        return false;
+                    }
+                }
+                uip |= (pendingExternal ? ControlAndStatusRegisterFile.EXTERNAL_INTERRUPT : 0) | (pendingTimer ? ControlAndStatusRegisterFile.TIMER_INTERRUPT : 0);
+            }
+            if (uip != ControlAndStatusRegisterFile.getValueNoNotify("uip")) {
+                ControlAndStatusRegisterFile.updateRegister("uip", uip);
+            }
+            return true;
+        }
+
+        // ECALLs and reads of the time CSR give different results when executed again, and so
+        // do reads of the cycle CSR while a timing model counts the cycles, as it is not fed
+        // again either
+        private boolean isUnrepeatable(int binary) {
+            if (binary == ECALL) {
+                return true;
+            }
+            int csr = binary >>> 20;
+            return (binary & 0x7F) == 0x73 && (binary & 0x7000) != 0 && (csr == CSR_TIME || csr == CSR_TIMEH
+                    || (Timing.timing && (csr == CSR_CYCLE || csr == CSR_CYCLEH)));
+        }
+
+        /**
+         * Fetches and simulates the instruction at the program counter.  With block execution
+         * on, this may run a whole hot basic block.  Must be called holding
+         * Globals.memoryAndRegistersLock.
+         *
+         * @return STEP_OK, STEP_TRAPPED or STEP_FINISHED
+         */
+        private int step() {
+            // always handle interrupts and traps before quiting
+            steps++;
+            if (maxSteps > 0 && steps > maxSteps) {
+                steps--; // this one was not executed
+                stopExecution(false, Reason.MAX_STEPS);
+                return STEP_FINISHED;
+            }
+
+            pc = RegisterFile.getProgramCounter();
+            RegisterFile.incrementPC();
+            // Get instuction.  The decoded instruction cache covers the common case;
+            // anything it cannot decode goes through getStatement for error reporting.
+            ProgramStatement statement;
+            BasicInstruction instruction;
+            InstructionListener[] listeners = replaying ? NO_INSTRUCTION_LISTENERS : instructionListeners;
+            DecodedInstruction[] block = null;
+            int first = 0; // the first instruction of the block left to interpret
+            if (useBlocks) {
+                BasicBlockCache.Block cached = blockCache.lookup(pc);
+                if (cached != null && (maxSteps <= 0 || steps + cached.instructions.length - 1 <= maxSteps)) {
+                    block = cached.instructions; // otherwise it would overrun the step limit
+                    // The compiled start of the block cannot tell listeners about its instructions
+                    if (cached.compiled != null && listeners.length == 0) {
+                        first = runCompiled(cached.compiled);
+                        steps += first;
+                        if (first == block.length) {
+                            steps--; // the one counted above was among them
+                            RegisterFile.setProgramCounter(pc + first * Instruction.INSTRUCTION_LENGTH);
+                            unrepeatable = false;
+                            return STEP_OK;
+                        }
+                        pc += first * Instruction.INSTRUCTION_LENGTH;
+                        RegisterFile.setProgramCounter(pc + Instruction.INSTRUCTION_LENGTH);
+                    }
+                }
+            }
+            DecodedInstruction decoded = (block != null) ? block[first] : Globals.memory.getDecodedInstruction(pc);
+            if (decoded != null) {
+                statement = decoded.getStatement();
+                instruction = decoded.getInstruction();
+            } else {
+                try {
+                    statement = Globals.memory.getStatement(pc);
+                    instruction = (statement == null) ? null : (BasicInstruction) statement.getInstruction();
+                } catch (AddressErrorException e) {
+                    SimulationException tmp;
+                    if (e.getType() == SimulationException.LOAD_ACCESS_FAULT) {
+                        tmp = new SimulationException("Instruction load access error", SimulationException.INSTRUCTION_ACCESS_FAULT);
+                    } else {
+                        tmp = new SimulationException("Instruction load alignment error", SimulationException.INSTRUCTION_ADDR_MISALIGNED);
+                    }
+                    if (!InterruptController.registerSynchronousTrap(tmp, pc)) {
+                        this.pe = tmp;
+                        ControlAndStatusRegisterFile.updateRegister("uepc", pc);
+                        stopExecution(true, Reason.EXCEPTION);
+                        return STEP_FINISHED;
+                    } else {
+                        return STEP_TRAPPED;
+                    }
+                }
+            }
+            if (statement == null) {
+                stopExecution(true, Reason.CLIFF_TERMINATION);
+                return STEP_FINISHED;
+            }
+
+            try {
+                if (instruction == null) {
+                    // TODO: Proper error handling here
+                    throw new SimulationException(statement,
+                            "undefined instruction (" + Binary.intToHexString(statement.getBinaryStatement()) + ")",
+                            SimulationException.ILLEGAL_INSTRUCTION);
+                }
+                for (InstructionListener l : listeners) {
+                    l.instruction(pc, statement.getBinaryStatement());
+                }
+                unrepeatable = isUnrepeatable(statement.getBinaryStatement());
+                // THIS IS WHERE THE INSTRUCTION EXECUTION IS ACTUALLY SIMULATED!
+                instruction.simulate(statement);
+
+                // Run the rest of a hot block, after any compiled start of it, without going
+                // back around the loop.  Only the last instruction in a block can normally
+                // redirect the PC, but stop early if one does so the block never runs past a
+                // jump it did not expect.
+                if (block != null) {
+                    for (int i = first + 1; i < block.length && RegisterFile.getProgramCounter() == pc + Instruction.INSTRUCTION_LENGTH; i++) {
+                        pc = RegisterFile.getProgramCounter();
+                        RegisterFile.incrementPC();
+                        statement = block[i].getStatement();
+                        for (InstructionListener l : listeners) {
+                            l.instruction(pc, block[i].getBinaryStatement());
+                        }
+                        steps++;
+                        block[i].getInstruction().simulate(statement);
+                    }
+                }
+
+                // IF statement added 7/26/06 (explanation above)
+                if (Globals.getSettings().getBackSteppingEnabled()) {
+                    Globals.program.getBackStepper().addDoNothing(pc);
+                }
+            } catch (BreakpointException b) {
+                // EBREAK needs backstepping support too.
+                if (Globals.getSettings().getBackSteppingEnabled()) {
+                    Globals.program.getBackStepper().addDoNothing(pc);
+                }
+                ebreak = true;
+            } catch (WaitException w) {
+                if (Globals.getSettings().getBackSteppingEnabled()) {
+                    Globals.program.getBackStepper().addDoNothing(pc);
+                }
+                waiting = true;
+            } catch (ExitingException e) {
+                if (e.error() == null) {
+                    this.constructReturnReason = Reason.NORMAL_TERMINATION;
+                } else {
+                    this.constructReturnReason = Reason.EXCEPTION;
+                    this.pe = e;
+                }
+                // TODO: remove access to constructReturnReason
+                stopExecution(true, constructReturnReason);
+                return STEP_FINISHED;
+            } catch (SimulationException se) {
+                if (InterruptController.registerSynchronousTrap(se, pc)) {
+                    return STEP_TRAPPED;
+                } else {
+                    this.pe = se;
+                    stopExecution(true, Reason.EXCEPTION);
+                    return STEP_FINISHED;
+                }
+            }
+            return STEP_OK;
+        }
+
+        /**
+         * Runs the compiled start of a hot block.  A load or store that fails there is left
+         * undone, for the interpreter to run it again and take the trap.
+         *
+         * @return the number of instructions run
+         */
+        private int runCompiled(CompiledBlock compiled) {
+            try {
+                compiled.run();
+                return compiled.length;
+            } catch (AddressErrorException e) {
+                return compiled.completed;
+            }
+        }
     }
 
     private class UpdateGUI implements Runnable {
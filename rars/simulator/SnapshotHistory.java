@@ -0,0 +1,182 @@
+package rars.simulator;
+
+import rars.Globals;
+import rars.SimulationException;
+import rars.riscv.hardware.MachineSnapshot;
+
+import java.util.ArrayList;
+
+/**
+ * Back-stepping by snapshots and re-execution, as an alternative to the undo log of
+ * {@link BackStepper}.
+ * <p>
+ * While a program runs, the simulator tells the history how many instructions have been
+ * executed so far, and every {@link #DEFAULT_INTERVAL} or so instructions the history takes a
+ * {@link MachineSnapshot}.  Going back to an earlier instruction restores the last snapshot
+ * before it and executes forward again up to it.  Nothing is recorded for each instruction, so a
+ * program runs at nearly full speed, and there is no limit on how far back it can go.
+ * <p>
+ * Re-execution must do exactly what the first run did.  A snapshot is therefore also taken
+ * right after every ECALL, every read of the time CSR (and of the cycle CSR while a timing model
+ * is installed) and every interrupt or trap taken, and these are kept when the history is
+ * thinned out, so re-execution never runs a syscall, reads the clock or takes an interrupt.
+ * Re-execution is not seen by the trace recorder, profiler, timing model, caches or branch
+ * predictors, which were fed the first time.  When there are too many snapshots every other
+ * periodic one is dropped and the interval doubled; if that is not enough the oldest are
+ * dropped, which limits how far back programs that make a great many syscalls can go.
+ * <p>
+ * Changes made to registers or memory by hand while the program is paused, and by memory
+ * mapped devices, are not recorded and are lost by going back past them.
+ */
+public class SnapshotHistory {
+    /**
+     * Default number of instructions between periodic snapshots
+     */
+    public static final int DEFAULT_INTERVAL = 100000;
+    private static final int MAX_SNAPSHOTS = 1024;
+
+    private final ArrayList<Entry> snapshots = new ArrayList<>();
+    private int interval;
+    private long now;
+    private long nextSnapshot;
+
+    /**
+     * Creates a history for a program that has not started running.
+     */
+    public SnapshotHistory() {
+        this(DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Creates a history for a program that has not started running.
+     *
+     * @param interval number of instructions between periodic snapshots to start with
+     */
+    public SnapshotHistory(int interval) {
+        this.interval = Math.max(interval, 1);
+    }
+
+    /**
+     * @return the number of instructions the program has executed
+     */
+    public long getTime() {
+        return now;
+    }
+
+    /**
+     * @return true if there is an earlier instruction to go back to
+     */
+    public boolean canStepBack() {
+        return !snapshots.isEmpty() && now > snapshots.get(0).time;
+    }
+
+    /**
+     * Undoes the last instruction executed.  Must not be called while the simulator is running.
+     *
+     * @throws SimulationException if re-execution fails, which it should not
+     */
+    public void backStep() throws SimulationException {
+        if (canStepBack()) {
+            goTo(now - 1);
+        }
+    }
+
+    /**
+     * Goes back to the moment when the given number of instructions had been executed, or as
+     * close to it as the history reaches.  Snapshots taken after it are dropped.  Must not be
+     * called while the simulator is running.  Observers are not notified.
+     *
+     * @param time the number of instructions executed at that moment, at most getTime()
+     * @throws SimulationException if re-execution fails, which it should not
+     */
+    public void goTo(long time) throws SimulationException {
+        if (snapshots.isEmpty() || time >= now) {
+            return;
+        }
+        int last = snapshots.size() - 1;
+        while (last > 0 && snapshots.get(last).time > time) {
+            last--;
+        }
+        snapshots.subList(last + 1, snapshots.size()).clear();
+        Entry entry = snapshots.get(last);
+        synchronized (Globals.memoryAndRegistersLock) {
+            entry.snapshot.restore();
+        }
+        now = entry.time;
+        while (now < time) {
+            int steps = (int) Math.min(time - now, Integer.MAX_VALUE);
+            Simulator.getInstance().replay(steps);
+            now += steps;
+        }
+        nextSnapshot = entry.time + interval;
+    }
+
+    /**
+     * Takes the first snapshot unless the program has already started.  Called by the simulator
+     * as it starts running, holding Globals.memoryAndRegistersLock.
+     */
+    void start() {
+        if (snapshots.isEmpty()) {
+            take(true);
+        }
+    }
+
+    /**
+     * Tells the history how many instructions have been executed, and takes a snapshot if one
+     * is due.  Called by the simulator between instructions, holding
+     * Globals.memoryAndRegistersLock.
+     *
+     * @param time   the number of instructions executed since the program started
+     * @param needed true if re-execution could not get past this point, e.g. after an ECALL
+     */
+    void advance(long time, boolean needed) {
+        now = time;
+        if (needed || time >= nextSnapshot) {
+            take(needed);
+        }
+    }
+
+    private void take(boolean needed) {
+        int last = snapshots.size() - 1;
+        if (last >= 0 && snapshots.get(last).time == now) {
+            needed |= snapshots.remove(last).needed;
+        }
+        snapshots.add(new Entry(now, MachineSnapshot.take(), needed));
+        nextSnapshot = now + interval;
+        if (snapshots.size() > MAX_SNAPSHOTS) {
+            thin();
+        }
+    }
+
+    // Drops every other periodic snapshot and then, if those were not enough, the oldest ones
+    private void thin() {
+        ArrayList<Entry> kept = new ArrayList<>(snapshots.size());
+        boolean drop = false;
+        for (Entry entry : snapshots) {
+            if (entry.needed || !drop) {
+                kept.add(entry);
+            }
+            if (!entry.needed) {
+                drop = !drop;
+            }
+        }
+        if (kept.size() > MAX_SNAPSHOTS * 3 / 4) {
+            kept.subList(0, kept.size() - MAX_SNAPSHOTS / 2).clear();
+        }
+        snapshots.clear();
+        snapshots.addAll(kept);
+        interval = (int) Math.min(2L * interval, Integer.MAX_VALUE);
+    }
+
+    private static class Entry {
+        private final long time;
+        private final MachineSnapshot snapshot;
+        private final boolean needed;
+
+        private Entry(long time, MachineSnapshot snapshot, boolean needed) {
+            this.time = time;
+            this.snapshot = snapshot;
+            this.needed = needed;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package rars.simulator;
+
+import rars.riscv.hardware.CacheHierarchy;
+
+/**
+ * Holds the {@link TimingModel} the simulator feeds, if any.
+ * <p>
+ * While {@link #timing} is true the simulator tells {@link #instruction(int, int)} about every
+ * instruction, as an instruction listener.  A model with caches has them fed
+ * through {@link CacheHierarchy} for as long as it is installed.
+ */
+public class Timing {
+    private static final String[] MODEL_NAMES = {PipelineTimingModel.NAME, CacheTimingModel.NAME};
+    private static final Simulator.InstructionListener LISTENER = Timing::instruction;
+
+    /**
+     * True while a model is installed.  Only changed while the simulator is not running.
+     */
+    public static boolean timing;
+
+    private static TimingModel model;
+
+    /**
+     * @return the names createModel accepts
+     */
+    public static String[] getModelNames() {
+        return MODEL_NAMES.clone();
+    }
+
+    /**
+     * Creates a model with its default parameters.
+     *
+     * @param name one of the names from getModelNames, in any case
+     * @return the new model, or null if there is none by that name
+     */
+    public static TimingModel createModel(String name) {
+        return createModel(name, null);
+    }
+
+    /**
+     * Creates a model.
+     *
+     * @param name   one of the names from getModelNames, in any case
+     * @param caches the caches for a model that has them, or null for CacheHierarchy.DEFAULT
+     * @return the new model, or null if there is none by that name
+     */
+    public static TimingModel createModel(String name, CacheHierarchy caches) {
+        if (name.equalsIgnoreCase(PipelineTimingModel.NAME)) {
+            return new PipelineTimingModel();
+        }
+        if (name.equalsIgnoreCase(CacheTimingModel.NAME)) {
+            return new CacheTimingModel((caches != null) ? caches : CacheHierarchy.parse(CacheHierarchy.DEFAULT));
+        }
+        return null;
+    }
+
+    /**
+     * Installs a model, which starts counting from zero.
+     *
+     * @param timingModel the model to feed
+     */
+    public static void start(TimingModel timingModel) {
+        stop();
+        model = timingModel;
+        model.reset();
+        Simulator.addInstructionListener(LISTENER);
+        if (model.getCacheHierarchy() != null) {
+            CacheHierarchy.start(model.getCacheHierarchy());
+        }
+        timing = true;
+    }
+
+    /**
+     * Stops feeding the model.  It stays available from getModel for its report.
+     */
+    public static void stop() {
+        if (timing && model.getCacheHierarchy() != null) {
+            CacheHierarchy.stop();
+        }
+        Simulator.removeInstructionListener(LISTENER);
+        timing = false;
+    }
+
+    /**
+     * @return the model last installed, or null if there has not been one
+     */
+    public static TimingModel getModel() {
+        return model;
+    }
+
+    /**
+     * Resets the installed model, if any.  Called when the registers are reset.
+     */
+    public static void reset() {
+        if (model != null) {
+            model.reset();
+        }
+    }
+
+    /**
+     * Gives the instruction at pc, which is about to be executed, to the model.
+     */
+    public static void instruction(int pc, int encoding) {
+        model.instruction(pc, encoding);
+    }
+}
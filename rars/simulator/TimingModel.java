@@ -0,0 +1,58 @@
+package rars.simulator;
+
+import rars.riscv.hardware.CacheHierarchy;
+
+import java.io.PrintStream;
+
+/**
+ * Estimates how many cycles a program would take on some processor.
+ * <p>
+ * While a model is installed with {@link Timing#start(TimingModel)} the simulator gives it every
+ * instruction it executes, in order, just before executing it.  Whether a branch was taken shows
+ * in the pc of the next instruction.  The model keeps its own counts, and the cycle CSR reads
+ * {@link #getCycles()} instead of counting one cycle per instruction.
+ */
+public interface TimingModel {
+    /**
+     * @return the name the model is chosen by, e.g. on the command line
+     */
+    String getName();
+
+    /**
+     * Forgets all instructions given so far, as if the processor had just been reset.
+     */
+    void reset();
+
+    /**
+     * Accounts for the instruction at pc, which is about to be executed.
+     *
+     * @param pc       its address
+     * @param encoding its binary encoding
+     */
+    void instruction(int pc, int encoding);
+
+    /**
+     * @return the number of instructions given since the last reset
+     */
+    long getInstructions();
+
+    /**
+     * @return the number of cycles those instructions take, including any it takes to fill the
+     * pipeline at the start
+     */
+    long getCycles();
+
+    /**
+     * @return caches that must be fed while the model is installed, or null if it has none
+     */
+    default CacheHierarchy getCacheHierarchy() {
+        return null;
+    }
+
+    /**
+     * Writes the instructions, cycles and cycles per instruction, and where the cycles went.
+     *
+     * @param out where to write
+     */
+    void writeReport(PrintStream out);
+}
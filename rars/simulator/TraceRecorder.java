@@ -0,0 +1,221 @@
+package rars.simulator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records a compact binary trace of execution to a file.
+ * <p>
+ * While {@link #recording} is true the simulator tells {@link #instruction(int, int)} about every
+ * instruction as an instruction listener, and the register files and Memory call the other static
+ * hooks below directly, without creating any notices.  The hooks append to a chunk of a
+ * small ring of byte arrays; a background thread writes full chunks to the file and hands them
+ * back, so the simulator only waits if the disk cannot keep up.
+ * <p>
+ * The file starts with the bytes "RVTR" and a version byte, followed by records.  Each record
+ * is a tag byte and its fields, which are LEB128 varints; signed fields are zigzag encoded
+ * first.  Every instruction record is followed by the records of what that instruction did.
+ * <ul>
+ * <li>{@link #INSTRUCTION}: encoding.  The pc is the previous one plus 4.</li>
+ * <li>{@link #JUMP}: signed pc minus (previous pc plus 4), encoding.  The first pc is relative to 0.</li>
+ * <li>{@link #INT_REGISTER}, {@link #FP_REGISTER}: register number, signed new value minus old value.</li>
+ * <li>{@link #MEMORY_READ}, {@link #MEMORY_WRITE}: signed address minus the previous memory
+ * record's address, length in bytes, value.</li>
+ * </ul>
+ * Accesses made by syscalls appear after the ECALL that made them.
+ */
+public class TraceRecorder {
+    public static final int INSTRUCTION = 1;
+    public static final int JUMP = 2;
+    public static final int INT_REGISTER = 3;
+    public static final int FP_REGISTER = 4;
+    public static final int MEMORY_READ = 5;
+    public static final int MEMORY_WRITE = 6;
+
+    private static final byte[] HEADER = {'R', 'V', 'T', 'R', 1};
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int CHUNKS = 8;
+    private static final int MAX_RECORD = 32; // longer than any record
+    private static final Simulator.InstructionListener LISTENER = TraceRecorder::instruction;
+
+    /**
+     * True while a trace is being recorded.  Only changed while the simulator is not running.
+     */
+    public static boolean recording;
+
+    private static byte[] chunk;
+    private static int position;
+    private static int lastPc;
+    private static int lastAddress;
+    private static BlockingQueue<Chunk> full;
+    private static BlockingQueue<byte[]> free;
+    private static Thread writer;
+    private static volatile IOException writeError;
+
+    /**
+     * Starts recording to a file.
+     *
+     * @param file the file to write, replaced if it exists
+     * @throws IOException if the file cannot be opened
+     */
+    public static void start(File file) throws IOException {
+        if (recording) {
+            throw new IllegalStateException("a trace is already being recorded");
+        }
+        OutputStream out = new FileOutputStream(file);
+        out.write(HEADER);
+        full = new ArrayBlockingQueue<>(CHUNKS + 1);
+        free = new ArrayBlockingQueue<>(CHUNKS);
+        for (int i = 1; i < CHUNKS; i++) {
+            free.add(new byte[CHUNK_SIZE]);
+        }
+        chunk = new byte[CHUNK_SIZE];
+        position = 0;
+        lastPc = 0;
+        lastAddress = 0;
+        writeError = null;
+        writer = new Thread(() -> drain(out), "TraceRecorder");
+        writer.setDaemon(true);
+        writer.start();
+        Simulator.addInstructionListener(LISTENER);
+        recording = true;
+    }
+
+    /**
+     * Stops recording and waits for everything to be written.
+     *
+     * @throws IOException if writing the trace failed at any point
+     */
+    public static void stop() throws IOException {
+        if (!recording) {
+            return;
+        }
+        recording = false;
+        Simulator.removeInstructionListener(LISTENER);
+        hand(new Chunk(chunk, position));
+        hand(new Chunk(null, 0));
+        chunk = null;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+
+    /**
+     * Records that the instruction at pc is about to be executed.
+     */
+    public static void instruction(int pc, int encoding) {
+        reserve();
+        if (pc == lastPc + 4) {
+            chunk[position++] = INSTRUCTION;
+        } else {
+            chunk[position++] = JUMP;
+            putSigned(pc - lastPc - 4);
+        }
+        putUnsigned(encoding);
+        lastPc = pc;
+    }
+
+    /**
+     * Records a write to a register.
+     *
+     * @param tag INT_REGISTER or FP_REGISTER
+     */
+    public static void register(int tag, int number, int value, int old) {
+        reserve();
+        chunk[position++] = (byte) tag;
+        chunk[position++] = (byte) number;
+        putSigned(value - old);
+    }
+
+    /**
+     * Records a read from or write to memory.
+     *
+     * @param tag MEMORY_READ or MEMORY_WRITE
+     */
+    public static void memory(int tag, int address, int length, int value) {
+        reserve();
+        chunk[position++] = (byte) tag;
+        putSigned(address - lastAddress);
+        chunk[position++] = (byte) length;
+        putUnsigned(value);
+        lastAddress = address;
+    }
+
+    private static void reserve() {
+        if (position > CHUNK_SIZE - MAX_RECORD) {
+            hand(new Chunk(chunk, position));
+            try {
+                chunk = free.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                chunk = new byte[CHUNK_SIZE];
+            }
+            position = 0;
+        }
+    }
+
+    private static void putSigned(int value) {
+        putUnsigned((value << 1) ^ (value >> 31));
+    }
+
+    private static void putUnsigned(int value) {
+        while ((value & ~0x7F) != 0) {
+            chunk[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        chunk[position++] = (byte) value;
+    }
+
+    private static void hand(Chunk c) {
+        try {
+            full.put(c);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Runs on the writer thread until it gets the chunk with no data.  After a write error it
+    // keeps taking chunks, so the simulator is never left waiting for a free one.
+    private static void drain(OutputStream out) {
+        try {
+            for (Chunk c = full.take(); c.data != null; c = full.take()) {
+                if (writeError == null) {
+                    try {
+                        out.write(c.data, 0, c.length);
+                    } catch (IOException e) {
+                        writeError = e;
+                    }
+                }
+                free.offer(c.data);
+            }
+        } catch (InterruptedException e) {
+            writeError = new IOException("trace writer interrupted");
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (writeError == null) {
+                writeError = e;
+            }
+        }
+    }
+
+    private static class Chunk {
+        private final byte[] data;
+        private final int length;
+
+        private Chunk(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+}
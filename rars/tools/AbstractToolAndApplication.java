@@ -748,6 +748,7 @@ public abstract class AbstractToolAndApplication extends JFrame implements Tool,
             FloatingPointRegisterFile.resetRegisters();
             ControlAndStatusRegisterFile.resetRegisters();
             InterruptController.reset();
+            LoadReservation.reset();
 
             addAsObserver();
             observing = true;
@@ -0,0 +1,167 @@
+package rars.tools;
+
+import rars.simulator.Simulator;
+import rars.simulator.SimulatorNotice;
+import rars.simulator.Timing;
+import rars.simulator.TimingModel;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Observable;
+import java.util.Observer;
+
+/**
+ * Shows the cycles and cycles per instruction a {@link TimingModel} estimates for the program
+ * while it runs.
+ * <p>
+ * Connecting installs the chosen model, so the cycle CSR counts its cycles until the tool is
+ * disconnected.  The model is fed by the simulator directly rather than through memory
+ * observers, and the report is refreshed a few times a second.  Timing models may only be
+ * changed while the simulator is not running, so connecting or disconnecting during a run
+ * takes effect when the run stops.
+ */
+public class TimingModelTool extends AbstractToolAndApplication {
+    private static final long serialVersionUID = 1L;
+    private static final String name = "Timing Model";
+    private static final String version = "Version 1.0";
+    private static final String heading = "Estimating cycles and cycles per instruction";
+    private static final int REFRESH_MILLISECONDS = 250;
+
+    private JComboBox<String> modelSelector;
+    private JTextArea report;
+    private Timer refresh;
+    // What to do with Timing once the run in progress stops
+    private volatile TimingModel pendingModel; // also read by updateDisplay() without the lock
+    private boolean pendingStop;
+    @SuppressWarnings("deprecation")
+    private final Observer stopWatcher = new Observer() {
+        public void update(Observable simulator, Object notice) {
+            if (((SimulatorNotice) notice).getAction() == SimulatorNotice.SIMULATOR_STOP) {
+                applyPendingChange();
+            }
+        }
+    };
+
+    /**
+     * Simple constructor, likely used to run a stand-alone timing model.
+     *
+     * @param title   String containing title for title bar
+     * @param heading String containing text for heading shown in upper part of window.
+     */
+    public TimingModelTool(String title, String heading) {
+        super(title, heading);
+    }
+
+    /**
+     * Simple construction, likely used by the RARS Tools menu mechanism.
+     */
+    public TimingModelTool() {
+        super(name + ", " + version, heading);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    protected JComponent buildMainDisplayArea() {
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+        JPanel selection = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        selection.add(new JLabel("Model: "));
+        modelSelector = new JComboBox<>(Timing.getModelNames());
+        modelSelector.setToolTipText("Processor to estimate cycles for; used when connected");
+        selection.add(modelSelector);
+        panel.add(selection, BorderLayout.NORTH);
+        report = new JTextArea(8, 60);
+        report.setEditable(false);
+        report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        panel.add(new JScrollPane(report), BorderLayout.CENTER);
+        refresh = new Timer(REFRESH_MILLISECONDS, e -> updateDisplay());
+        return panel;
+    }
+
+    protected void addAsObserver() {
+        TimingModel model = Timing.createModel((String) modelSelector.getSelectedItem());
+        synchronized (this) {
+            pendingStop = false;
+            if (!deferredWhileRunning()) {
+                Timing.start(model);
+            } else {
+                pendingModel = model;
+            }
+        }
+        modelSelector.setEnabled(false);
+        refresh.start();
+        updateDisplay();
+    }
+
+    protected void deleteAsObserver() {
+        synchronized (this) {
+            pendingModel = null;
+            if (!deferredWhileRunning()) {
+                Timing.stop();
+            } else {
+                pendingStop = true;
+            }
+        }
+        refresh.stop();
+        modelSelector.setEnabled(true);
+        updateDisplay();
+    }
+
+    // Returns true if a run is in progress, in which case the stop watcher is left to apply the
+    // pending change when it stops.  The watcher is added before looking, so that a run seen to
+    // be in progress cannot stop unnoticed.
+    @SuppressWarnings("deprecation")
+    private boolean deferredWhileRunning() {
+        Simulator.getInstance().addObserver(stopWatcher);
+        if (Simulator.isRunning()) {
+            return true;
+        }
+        Simulator.getInstance().deleteObserver(stopWatcher);
+        return false;
+    }
+
+    // Called on the simulator thread as a run stops
+    @SuppressWarnings("deprecation")
+    private synchronized void applyPendingChange() {
+        Simulator.getInstance().deleteObserver(stopWatcher);
+        if (pendingModel != null) {
+            Timing.start(pendingModel);
+        } else if (pendingStop) {
+            Timing.stop();
+        }
+        pendingModel = null;
+        pendingStop = false;
+        SwingUtilities.invokeLater(this::updateDisplay);
+    }
+
+    protected void reset() {
+        if (Timing.timing) {
+            Timing.reset();
+        }
+        updateDisplay();
+    }
+
+    protected void updateDisplay() {
+        TimingModel model = Timing.getModel();
+        if (pendingModel != null) {
+            report.setText("The " + modelSelector.getSelectedItem() + " model will start counting when the program stops.");
+            return;
+        }
+        if (model == null) {
+            report.setText("");
+            return;
+        }
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(text);
+        model.writeReport(out);
+        out.flush();
+        report.setText(text.toString());
+    }
+
+    protected void performSpecialClosingDuties() {
+        refresh.stop();
+    }
+}
@@ -79,6 +79,26 @@ public class SystemIO {
     // Added by DPS 28 Feb 2008.  See getInputReader() below.
     private static BufferedReader inputReader = null;
 
+    // Streams behind the standard I/O channels when running from the command line
+    private static InputStream standardInput = System.in;
+    private static PrintStream standardOutput = System.out;
+    private static PrintStream standardError = System.err;
+
+    /**
+     * Sets the streams behind the standard I/O channels when running from the command line,
+     * instead of System.in, System.out and System.err.  Takes effect at the next resetFiles().
+     *
+     * @param in  the stream to read standard input from
+     * @param out the stream to write standard output to
+     * @param err the stream to write standard error to
+     */
+    public static void setStandardStreams(InputStream in, PrintStream out, PrintStream err) {
+        standardInput = in;
+        standardOutput = out;
+        standardError = err;
+        inputReader = null;
+    }
+
     /**
      * Implements syscall to read an integer value.
      * Client is responsible for catching NumberFormatException.
@@ -168,7 +188,7 @@ public class SystemIO {
      */
     public static void printString(String string) {
         if (Globals.getGui() == null) {
-            System.out.print(string);
+            standardOutput.print(string);
         } else {
             Globals.getGui().getMessagesPane().postRunMessage(string);
         }
@@ -471,6 +491,28 @@ public class SystemIO {
         FileIOData.resetFiles();
     }
 
+    /**
+     * Writes the files the program has open, other than standard I/O, for a checkpoint:
+     * their descriptors, names, flags and current positions.
+     *
+     * @param out the checkpoint being written
+     * @throws IOException if writing fails or the position of a file cannot be found
+     */
+    public static void writeCheckpoint(DataOutputStream out) throws IOException {
+        FileIOData.writeCheckpoint(out);
+    }
+
+    /**
+     * Closes all files and opens the ones written by writeCheckpoint() again, at the positions
+     * they had.  Files opened for writing are not truncated again.
+     *
+     * @param in the checkpoint being read
+     * @throws IOException if reading fails or a file cannot be opened again
+     */
+    public static void readCheckpoint(DataInputStream in) throws IOException {
+        FileIOData.readCheckpoint(in);
+    }
+
     /**
      * Retrieve file operation or error message
      *
@@ -488,7 +530,7 @@ public class SystemIO {
 
     private static BufferedReader getInputReader() {
         if (inputReader == null) {
-            inputReader = new BufferedReader(new InputStreamReader(System.in));
+            inputReader = new BufferedReader(new InputStreamReader(standardInput));
         }
         return inputReader;
     }
@@ -511,6 +553,47 @@ public class SystemIO {
             setupStdio();
         }
 
+        private static void writeCheckpoint(DataOutputStream out) throws IOException {
+            for (int fd = STDERR + 1; fd < SYSCALL_MAXFILES; fd++) {
+                if (fileNames[fd] == null || streams[fd] == null) {
+                    continue;
+                }
+                out.writeInt(fd);
+                out.writeUTF(fileNames[fd]);
+                out.writeInt(fileFlags[fd]);
+                out.writeLong((streams[fd] instanceof FileInputStream)
+                        ? ((FileInputStream) streams[fd]).getChannel().position()
+                        : ((FileOutputStream) streams[fd]).getChannel().position());
+            }
+            out.writeInt(-1);
+        }
+
+        private static void readCheckpoint(DataInputStream in) throws IOException {
+            resetFiles();
+            for (int fd = in.readInt(); fd != -1; fd = in.readInt()) {
+                String name = in.readUTF();
+                int flags = in.readInt();
+                long position = in.readLong();
+                if (fd <= STDERR || fd >= SYSCALL_MAXFILES) {
+                    throw new IOException("bad file descriptor " + fd);
+                }
+                if (flags == O_RDONLY) {
+                    FileInputStream stream = new FileInputStream(name);
+                    stream.getChannel().position(position);
+                    streams[fd] = stream;
+                } else if ((flags & O_APPEND) != 0) {
+                    streams[fd] = new FileOutputStream(name, true);
+                } else {
+                    // Carry on writing where the program was, keeping what is before
+                    RandomAccessFile file = new RandomAccessFile(name, "rw");
+                    file.seek(position);
+                    streams[fd] = new FileOutputStream(file.getFD());
+                }
+                fileNames[fd] = name;
+                fileFlags[fd] = flags;
+            }
+        }
+
         // DPS 8-Jan-2013
         private static void setupStdio() {
             fileNames[STDIN] = "STDIN";
@@ -519,11 +602,11 @@ public class SystemIO {
             fileFlags[STDIN] = SystemIO.O_RDONLY;
             fileFlags[STDOUT] = SystemIO.O_WRONLY;
             fileFlags[STDERR] = SystemIO.O_WRONLY;
-            streams[STDIN] = System.in;
-            streams[STDOUT] = System.out;
-            streams[STDERR] = System.err;
-            System.out.flush();
-            System.err.flush();
+            streams[STDIN] = standardInput;
+            streams[STDOUT] = standardOutput;
+            streams[STDERR] = standardError;
+            standardOutput.flush();
+            standardError.flush();
         }
 
         // Preserve a stream that is in use
@@ -4,6 +4,8 @@ import rars.Globals;
 import rars.ProgramStatement;
 import rars.Settings;
 import rars.riscv.hardware.*;
+import rars.simulator.BreakpointCondition;
+import rars.simulator.BreakpointSet;
 import rars.simulator.Simulator;
 import rars.simulator.SimulatorNotice;
 
@@ -11,6 +13,7 @@ import javax.swing.*;
 import javax.swing.event.*;
 import javax.swing.table.*;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.util.*;
@@ -71,6 +74,7 @@ public class TextSegmentWindow extends JInternalFrame implements Observer {
     private Font tableCellFont = new Font("Monospaced", Font.PLAIN, 12);
     private boolean codeHighlighting;
     private boolean breakpointsEnabled;  // Added 31 Dec 2009
+    private Hashtable<Integer, BreakpointOptions> breakpointOptions = new Hashtable<>(); // key is text address
     private int highlightAddress;
     private TableModelListener tableModelListener;
 
@@ -117,6 +121,7 @@ public class TextSegmentWindow extends JInternalFrame implements Observer {
         intAddresses = new int[data.length];
         addressRows = new Hashtable<>(data.length);
         executeMods = new Hashtable<>(data.length);
+        breakpointOptions = new Hashtable<>();
         // Get highest source line number to determine #leading spaces so line numbers will vertically align
         // In multi-file situation, this will not necessarily be the last line b/c sourceStatementList contains
         // source lines from all files.  DPS 3-Oct-10
@@ -161,6 +166,7 @@ public class TextSegmentWindow extends JInternalFrame implements Observer {
 
         // prevents cells in row from being highlighted when user clicks on breakpoint checkbox
         table.setRowSelectionAllowed(false);
+        table.addMouseListener(new BreakpointOptionsMouseListener());
 
         table.getColumnModel().getColumn(BREAK_COLUMN).setMinWidth(40);
         table.getColumnModel().getColumn(ADDRESS_COLUMN).setMinWidth(80);
@@ -456,11 +462,105 @@ public class TextSegmentWindow extends JInternalFrame implements Observer {
         return breakpoints;
     }
 
+    /**
+     * Returns the current breakpoints with their conditions and hit counts.  Hit counts start
+     * from zero in each set returned, so a breakpoint set to stop on the third hit stops on the
+     * third hit after each Go.
+     *
+     * @return the breakpoints, or null if there are none or they are disabled.
+     */
+    public BreakpointSet getBreakpoints() {
+        int[] addresses = getSortedBreakPointsArray();
+        if (addresses == null) {
+            return null;
+        }
+        BreakpointSet breakpoints = new BreakpointSet();
+        for (int address : addresses) {
+            BreakpointOptions options = breakpointOptions.get(address);
+            if (options == null) {
+                breakpoints.add(address);
+            } else {
+                breakpoints.add(address, (options.condition.isEmpty()) ? null
+                        : BreakpointCondition.parse(options.condition), options.hitCount);
+            }
+        }
+        return breakpoints;
+    }
+
+    /*
+     * Asks for the condition and hit count of the breakpoint on the given row, and sets the
+     * breakpoint.  Leaving the condition empty and the hit count at 1 makes it an ordinary one.
+     */
+    private void editBreakpointOptions(int row) {
+        int address = intAddresses[row];
+        BreakpointOptions options = breakpointOptions.get(address);
+        JTextField condition = new JTextField((options == null) ? "" : options.condition, 20);
+        JSpinner hitCount = new JSpinner(new SpinnerNumberModel((options == null) ? 1 : options.hitCount, 1, Integer.MAX_VALUE, 1));
+        JPanel panel = new JPanel(new GridLayout(0, 1));
+        panel.add(new JLabel("Stop only when (e.g. t0 == 5, a0 >= a1; empty for always):"));
+        panel.add(condition);
+        panel.add(new JLabel("Stop from this hit on, counting from each Go:"));
+        panel.add(hitCount);
+        while (JOptionPane.showConfirmDialog(this, panel, "Breakpoint at " + data[row][ADDRESS_COLUMN],
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) == JOptionPane.OK_OPTION) {
+            String text = condition.getText().trim();
+            try {
+                if (!text.isEmpty()) {
+                    BreakpointCondition.parse(text);
+                }
+            } catch (IllegalArgumentException e) {
+                JOptionPane.showMessageDialog(this, e.getMessage(), "Invalid condition", JOptionPane.ERROR_MESSAGE);
+                continue;
+            }
+            int hits = (Integer) hitCount.getValue();
+            if (text.isEmpty() && hits == 1) {
+                breakpointOptions.remove(address);
+            } else {
+                breakpointOptions.put(address, new BreakpointOptions(text, hits));
+            }
+            // must use this method to assure display updated and listener notified
+            tableModel.setValueAt(true, row, BREAK_COLUMN);
+            return;
+        }
+    }
+
+    // The condition and hit count of a breakpoint, when it has either
+    private static class BreakpointOptions {
+        private final String condition; // empty if none
+        private final int hitCount;
+
+        private BreakpointOptions(String condition, int hitCount) {
+            this.condition = condition;
+            this.hitCount = hitCount;
+        }
+    }
+
+    // Opens the breakpoint options of a row when its breakpoint cell is right-clicked
+    private class BreakpointOptionsMouseListener extends MouseAdapter {
+        public void mousePressed(MouseEvent e) {
+            showOptions(e);
+        }
+
+        public void mouseReleased(MouseEvent e) {
+            showOptions(e);
+        }
+
+        private void showOptions(MouseEvent e) {
+            int row = table.rowAtPoint(e.getPoint());
+            int column = table.columnAtPoint(e.getPoint());
+            if (e.isPopupTrigger() && row >= 0 && column >= 0 && breakpointsEnabled
+                    && table.convertColumnIndexToModel(column) == BREAK_COLUMN) {
+                editBreakpointOptions(row);
+            }
+        }
+    }
+
     /**
      * Clears all breakpoints that have been set since last assemble, and
      * updates the display of the breakpoint column.
      */
     public void clearAllBreakpoints() {
+        breakpointOptions.clear();
         for (int i = 0; i < tableModel.getRowCount(); i++) {
             if ((Boolean) data[i][BREAK_COLUMN]) {
                 // must use this method to assure display updated and listener notified
@@ -706,6 +806,9 @@ public class TextSegmentWindow extends JInternalFrame implements Observer {
         @Override
         public void setValueAt(Object value, int row, int col) {
             if (col != CODE_COLUMN) {
+                if (col == BREAK_COLUMN && !(Boolean) value) {
+                    breakpointOptions.remove(intAddresses[row]);
+                }
                 data[row][col] = value;
                 fireTableCellUpdated(row, col);
                 return;
@@ -948,13 +1051,28 @@ public class TextSegmentWindow extends JInternalFrame implements Observer {
         }
 
         private String[] columnToolTips = {
-               /* break */   "If checked, will set an execution breakpoint. Click header to disable/enable breakpoints",
+               /* break */   "If checked, will set an execution breakpoint. Right-click for a condition or hit count. Click header to disable/enable breakpoints",
                /* address */ "Text segment address of binary instruction code",
                /* code */    "32-bit binary RISCV instruction",
                 /* basic */   "Basic assembler instruction",
                /* source */  "Source code line"
         };
 
+        // Describes the condition and hit count of a breakpoint that has them
+        public String getToolTipText(MouseEvent e) {
+            int row = rowAtPoint(e.getPoint());
+            int column = columnAtPoint(e.getPoint());
+            if (row >= 0 && column >= 0 && convertColumnIndexToModel(column) == BREAK_COLUMN
+                    && (Boolean) data[row][BREAK_COLUMN]) {
+                BreakpointOptions options = breakpointOptions.get(intAddresses[row]);
+                if (options != null) {
+                    return "Stops " + (options.condition.isEmpty() ? "" : "when " + options.condition + ", ")
+                            + "from hit " + options.hitCount + " on";
+                }
+            }
+            return super.getToolTipText(e);
+        }
+
         //Implement table header tool tips.
         protected JTableHeader createDefaultTableHeader() {
             tableHeader = new TextTableHeader(columnModel);
@@ -83,7 +83,7 @@ public class VenusUI extends JFrame {
     private JMenuItem runGo, runStep, runBackstep, runReset, runAssemble, runStop, runPause, runClearBreakpoints, runToggleBreakpoints;
     private JCheckBoxMenuItem settingsLabel, settingsPopupInput, settingsValueDisplayBase, settingsAddressDisplayBase,
             settingsExtended, settingsAssembleOnOpen, settingsAssembleAll, settingsAssembleOpen, settingsWarningsAreErrors,
-            settingsStartAtMain, settingsProgramArguments, settingsSelfModifyingCode;
+            settingsStartAtMain, settingsProgramArguments, settingsSelfModifyingCode, settingsSnapshotBackstepping;
     private JMenuItem settingsExceptionHandler, settingsEditor, settingsHighlighting, settingsMemoryConfiguration;
     private JMenuItem helpHelp, helpAbout;
 
@@ -108,7 +108,8 @@ public class VenusUI extends JFrame {
             settingsExtendedAction, settingsAssembleOnOpenAction, settingsAssembleOpenAction, settingsAssembleAllAction,
             settingsWarningsAreErrorsAction, settingsStartAtMainAction, settingsProgramArgumentsAction,
             settingsExceptionHandlerAction, settingsEditorAction,
-            settingsHighlightingAction, settingsMemoryConfigurationAction, settingsSelfModifyingCodeAction;
+            settingsHighlightingAction, settingsMemoryConfigurationAction, settingsSelfModifyingCodeAction,
+            settingsSnapshotBacksteppingAction;
     private Action helpHelpAction, helpAboutAction;
 
 
@@ -448,6 +449,9 @@ public class VenusUI extends JFrame {
             settingsSelfModifyingCodeAction = new SettingsAction("Self-modifying code",
                     "If set, the program can write and branch to both text and data segments.",
                     Settings.Bool.SELF_MODIFYING_CODE_ENABLED);
+            settingsSnapshotBacksteppingAction = new SettingsAction("Backstep by snapshots",
+                    "If set, backstepping re-executes from periodic snapshots, which has no limit on how far back it goes.  Takes effect at the next assemble.",
+                    Settings.Bool.SNAPSHOT_BACKSTEPPING);
 
             settingsEditorAction = new SettingsEditorAction("Editor...", null,
                     "View and modify text editor settings.", null, null
@@ -598,6 +602,8 @@ public class VenusUI extends JFrame {
         settingsExtended.setSelected(Globals.getSettings().getBooleanSetting(Settings.Bool.EXTENDED_ASSEMBLER_ENABLED));
         settingsSelfModifyingCode = new JCheckBoxMenuItem(settingsSelfModifyingCodeAction);
         settingsSelfModifyingCode.setSelected(Globals.getSettings().getBooleanSetting(Settings.Bool.SELF_MODIFYING_CODE_ENABLED));
+        settingsSnapshotBackstepping = new JCheckBoxMenuItem(settingsSnapshotBacksteppingAction);
+        settingsSnapshotBackstepping.setSelected(Globals.getSettings().getBooleanSetting(Settings.Bool.SNAPSHOT_BACKSTEPPING));
         settingsAssembleOnOpen = new JCheckBoxMenuItem(settingsAssembleOnOpenAction);
         settingsAssembleOnOpen.setSelected(Globals.getSettings().getBooleanSetting(Settings.Bool.ASSEMBLE_ON_OPEN));
         settingsAssembleAll = new JCheckBoxMenuItem(settingsAssembleAllAction);
@@ -629,6 +635,7 @@ public class VenusUI extends JFrame {
         settings.addSeparator();
         settings.add(settingsExtended);
         settings.add(settingsSelfModifyingCode);
+        settings.add(settingsSnapshotBackstepping);
         settings.addSeparator();
         settings.add(settingsEditor);
         settings.add(settingsHighlighting);
@@ -941,8 +948,7 @@ public class VenusUI extends JFrame {
         runAssembleAction.setEnabled(true);
         runGoAction.setEnabled(true);
         runStepAction.setEnabled(true);
-        runBackstepAction.setEnabled(
-                Globals.getSettings().getBackSteppingEnabled() && !Globals.program.getBackStepper().empty());
+        runBackstepAction.setEnabled(canBackstep());
         runResetAction.setEnabled(true);
         runStopAction.setEnabled(false);
         runPauseAction.setEnabled(false);
@@ -1007,8 +1013,7 @@ public class VenusUI extends JFrame {
         runAssembleAction.setEnabled(true);
         runGoAction.setEnabled(false);
         runStepAction.setEnabled(false);
-        runBackstepAction.setEnabled(
-                Globals.getSettings().getBackSteppingEnabled() && !Globals.program.getBackStepper().empty());
+        runBackstepAction.setEnabled(canBackstep());
         runResetAction.setEnabled(true);
         runStopAction.setEnabled(false);
         runPauseAction.setEnabled(false);
@@ -1019,6 +1024,14 @@ public class VenusUI extends JFrame {
     }
 
 
+    // True if there is an instruction to go back to, by either kind of backstepping
+    private static boolean canBackstep() {
+        if (Globals.program.getSnapshotHistory() != null) {
+            return Globals.program.getSnapshotHistory().canStepBack();
+        }
+        return Globals.getSettings().getBackSteppingEnabled() && !Globals.program.getBackStepper().empty();
+    }
+
     /**
      * Get current menu state.  State values are constants in FileStatus class.  DPS 23 July 2008
      *
@@ -107,7 +107,9 @@ public class RunAssembleAction extends GuiAction {
                         Globals.getSettings().getExceptionHandler().length() > 0) {
                     exceptionHandler = Globals.getSettings().getExceptionHandler();
                 }
-                programsToAssemble = Globals.program.prepareFilesForAssembly(filesToAssemble, FileStatus.getFile().getPath(), exceptionHandler);
+                // Files that have not changed since the last assemble are not tokenized again
+                programsToAssemble = Globals.program.prepareFilesForAssembly(filesToAssemble,
+                        FileStatus.getFile().getPath(), exceptionHandler, true);
                 messagesPane.postMessage(buildFileNameList(name + ": assembling ", programsToAssemble));
                 // added logic to receive any warnings and output them.... DPS 11/28/06
                 ErrorList warnings = Globals.program.assemble(programsToAssemble, extendedAssemblerEnabled,
@@ -124,6 +126,7 @@ public class RunAssembleAction extends GuiAction {
                 FloatingPointRegisterFile.resetRegisters();
                 ControlAndStatusRegisterFile.resetRegisters();
                 InterruptController.reset();
+                LoadReservation.reset();
 
                 executePane.getTextSegmentWindow().setupTable();
                 executePane.getDataSegmentWindow().setupTable();
@@ -1,10 +1,12 @@
 package rars.venus.run;
 
 import rars.Globals;
+import rars.SimulationException;
 import rars.riscv.hardware.ControlAndStatusRegisterFile;
 import rars.riscv.hardware.FloatingPointRegisterFile;
 import rars.riscv.hardware.Memory;
 import rars.riscv.hardware.RegisterFile;
+import rars.simulator.SnapshotHistory;
 import rars.venus.ExecutePane;
 import rars.venus.FileStatus;
 import rars.venus.GuiAction;
@@ -72,7 +74,21 @@ public class RunBackstepAction extends GuiAction {
         mainUI.getMessagesPane().selectRunMessageTab();
         executePane.getTextSegmentWindow().setCodeHighlighting(true);
 
-        if (Globals.getSettings().getBackSteppingEnabled()) {
+        SnapshotHistory history = Globals.program.getSnapshotHistory();
+        if (history != null) {
+            try {
+                history.backStep();
+            } catch (SimulationException se) {
+                mainUI.getMessagesPane().postMessage("\n" + name + ": " + se.getMessage() + "\n");
+            }
+            executePane.getRegistersWindow().updateRegisters();
+            executePane.getFloatingPointWindow().updateRegisters();
+            executePane.getControlAndStatusWindow().updateRegisters();
+            executePane.getDataSegmentWindow().updateValues();
+            executePane.getTextSegmentWindow().highlightStepAtPC();
+            FileStatus.set(FileStatus.RUNNABLE);
+            mainUI.setReset(false);
+        } else if (Globals.getSettings().getBackSteppingEnabled()) {
             Memory.getInstance().addObserver(executePane.getDataSegmentWindow());
             RegisterFile.addRegistersObserver(executePane.getRegistersWindow());
             ControlAndStatusRegisterFile.addRegistersObserver(executePane.getControlAndStatusWindow());
@@ -4,6 +4,7 @@ import rars.Globals;
 import rars.Settings;
 import rars.SimulationException;
 import rars.riscv.hardware.RegisterFile;
+import rars.simulator.BreakpointSet;
 import rars.simulator.ProgramArgumentList;
 import rars.simulator.Simulator;
 import rars.simulator.SimulatorNotice;
@@ -102,8 +103,8 @@ public class RunGoAction extends GuiAction {
                         };
                 Simulator.getInstance().addObserver(stopListener);
 
-                int[] breakPoints = executePane.getTextSegmentWindow().getSortedBreakPointsArray();
-                Globals.program.startSimulation(maxSteps, breakPoints);
+                BreakpointSet breakPoints = executePane.getTextSegmentWindow().getBreakpoints();
+                Simulator.getInstance().startSimulation(RegisterFile.getProgramCounter(), maxSteps, breakPoints);
             } else {
                 // This should never occur because at termination the Go and Step buttons are disabled.
                 JOptionPane.showMessageDialog(mainUI, "reset " + mainUI.getReset() + " started " + mainUI.getStarted());//"You must reset before you can execute the program again.");
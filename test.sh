@@ -1,16 +1,16 @@
 #!/bin/bash
-RUN="java -jar -ea ./out/artifacts/rars/rars.jar"
-ERRORS=""
-for f in ./test/*.s ./test/riscv-tests/*.s
-do	
-	$RUN $f > /dev/null
-	if [ $? -eq 42 ]
-	then 
-		printf "."
-	else
-		printf "X"	
-		ERRORS="$ERRORS\nFailure on file $f"
-	fi
+JAR=./out/artifacts/rars/rars.jar
+RUN="java -jar -ea $JAR"
+$RUN test ./test/*.s ./test/riscv-tests/*.s
+java -ea -cp $JAR test/SnapshotHistoryTest.java
+java -ea -cp $JAR test/MachineReuseTest.java
+# A program loaded from its image must show and do the same as when it is assembled
+IMAGES=$(mktemp -d)
+for f in ./test/*.s; do
+    for run in miss hit; do
+        $RUN nc images $IMAGES dump .text SegmentWindow $IMAGES/$run.txt $f > /dev/null
+        echo "exit code $?" >> $IMAGES/$run.txt
+    done
+    cmp $IMAGES/miss.txt $IMAGES/hit.txt || echo "FAIL image of $f dumps differently"
 done
-
-printf "$ERRORS\n"
+rm -r $IMAGES
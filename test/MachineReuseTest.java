@@ -0,0 +1,69 @@
+import rars.Machine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Checks that a Machine carries nothing from one run over to the next.  One Machine runs
+ * test/memory.s with debugging, an instruction count and a different memory configuration,
+ * then again with plain options; the second run must give the same exit code and output as
+ * a fresh Machine does, and must not leave the first run's memory observer behind.
+ * <p>
+ * Run from the top directory with RARS on the class path, e.g.
+ * <code>java -cp rars.jar test/MachineReuseTest.java</code>.  Exits with 0 if all is well.
+ */
+public class MachineReuseTest {
+    private static final String PROGRAM = "test/memory.s";
+    private static final String[] FIRST = {"nc", "d", "ic", "mc", "CompactDataAtZero", PROGRAM};
+    private static final String[] SECOND = {"nc", PROGRAM};
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        Machine reused = new Machine();
+        String first = run(reused, FIRST);
+        check(first.contains("TOKENIZING BEGINS"), "first run printed no debugging output");
+        String second = run(reused, SECOND);
+        String fresh = run(new Machine(), SECOND);
+        check(second.equals(fresh), "second run gave\n" + second + "instead of\n" + fresh);
+        check(memoryObservers(reused) == 0, "memory observers are left from the first run");
+        if (failures > 0) {
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    // The exit code followed by everything the run printed.  Debugging output that goes
+    // straight to System.out is dropped.
+    private static String run(Machine machine, String[] args) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(output, true);
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            int code = machine.run(args, new ByteArrayInputStream(new byte[0]), out, out);
+            return "exit code " + code + "\n" + output;
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    // Looks at Globals.memory in the Machine's own copy of RARS
+    private static int memoryObservers(Machine machine) throws Exception {
+        Field run = Machine.class.getDeclaredField("run");
+        run.setAccessible(true);
+        ClassLoader loader = ((Method) run.get(machine)).getDeclaringClass().getClassLoader();
+        Object memory = loader.loadClass("rars.Globals").getField("memory").get(null);
+        return (Integer) memory.getClass().getMethod("countObservers").invoke(memory);
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            System.out.println("FAIL " + message);
+            failures++;
+        }
+    }
+}
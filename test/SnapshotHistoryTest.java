@@ -0,0 +1,105 @@
+import rars.Globals;
+import rars.RISCVprogram;
+import rars.Settings;
+import rars.riscv.hardware.FloatingPointRegisterFile;
+import rars.riscv.hardware.Memory;
+import rars.riscv.hardware.Register;
+import rars.riscv.hardware.RegisterFile;
+import rars.simulator.SnapshotHistory;
+import rars.simulator.Simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Checks that going back with SnapshotHistory leaves the machine exactly as a straight run to
+ * the same point did, and that it runs on from there the same way.  test/backstep.s is taken
+ * back to an instruction before its sbrk ECALL and to one after it, where re-execution starts
+ * from the snapshot the ECALL forced.  Re-execution must not reach instruction listeners.
+ * <p>
+ * Run from the top directory with RARS on the class path, e.g.
+ * <code>java -cp rars.jar test/SnapshotHistoryTest.java</code>.  Exits with 0 if all is well.
+ */
+public class SnapshotHistoryTest {
+    private static final String PROGRAM = "test/backstep.s";
+    private static final int BEFORE_ECALL = 50, AFTER_ECALL = 150, LATER = 200;
+
+    private static long listened;
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        Globals.initialize(false);
+        Globals.getSettings().setBooleanSettingNonPersistent(Settings.Bool.SNAPSHOT_BACKSTEPPING, true);
+        RISCVprogram program = new RISCVprogram();
+        Globals.program = program;
+        ArrayList<String> files = new ArrayList<>();
+        files.add(PROGRAM);
+        program.assemble(program.prepareFilesForAssembly(files, PROGRAM, null), true, false);
+        RegisterFile.initializeProgramCounter(true);
+        Simulator.addInstructionListener((pc, encoding) -> listened++);
+        SnapshotHistory history = program.getSnapshotHistory();
+
+        run(BEFORE_ECALL);
+        int[] beforeEcall = state();
+        run(AFTER_ECALL - BEFORE_ECALL);
+        int[] afterEcall = state();
+        run(LATER - AFTER_ECALL);
+        int[] later = state();
+
+        history.goTo(AFTER_ECALL);
+        check("back after the ECALL", afterEcall, AFTER_ECALL, history);
+        history.goTo(BEFORE_ECALL);
+        check("back before the ECALL", beforeEcall, BEFORE_ECALL, history);
+        run(LATER - BEFORE_ECALL);
+        check("forward again over the ECALL", later, LATER, history);
+        history.goTo(AFTER_ECALL);
+        check("back after the ECALL again", afterEcall, AFTER_ECALL, history);
+        if (listened != LATER + (LATER - BEFORE_ECALL)) {
+            fail("instruction listeners saw " + listened + " instructions, not "
+                    + (LATER + (LATER - BEFORE_ECALL)));
+        }
+        System.out.println((failures == 0) ? "OK" : failures + " FAILED");
+        System.exit((failures == 0) ? 0 : 1);
+    }
+
+    private static void run(int steps) throws Exception {
+        Simulator.getInstance().simulate(RegisterFile.getProgramCounter(), steps, (int[]) null);
+    }
+
+    private static void check(String what, int[] expected, long time, SnapshotHistory history) throws Exception {
+        if (history.getTime() != time) {
+            fail(what + ": the history is at " + history.getTime() + ", not " + time);
+        }
+        int[] actual = state();
+        if (!Arrays.equals(expected, actual)) {
+            for (int i = 0; i < expected.length; i++) {
+                if (expected[i] != actual[i]) {
+                    fail(what + ": word " + i + " of the state is " + actual[i] + ", not " + expected[i]);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAIL " + message);
+        failures++;
+    }
+
+    // The pc, the integer and floating point registers, and the words the program writes
+    private static int[] state() throws Exception {
+        ArrayList<Integer> state = new ArrayList<>();
+        state.add(RegisterFile.getProgramCounter());
+        for (Register register : RegisterFile.getRegisters()) {
+            state.add(register.getValueNoNotify());
+        }
+        for (Register register : FloatingPointRegisterFile.getRegisters()) {
+            state.add(register.getValueNoNotify());
+        }
+        for (int offset = 0; offset < 64; offset += 4) {
+            state.add(Globals.memory.getWordNoNotify(Memory.dataBaseAddress + offset));
+            state.add(Globals.memory.getWordNoNotify(Memory.heapBaseAddress + offset));
+        }
+        return state.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
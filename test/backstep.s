@@ -0,0 +1,39 @@
+.globl main
+.data
+buffer: .space 64
+.text
+main:
+	# Also run by SnapshotHistoryTest, which goes back and forth over both loops and the ECALL
+	la t0, buffer
+	li t1, 16
+	li t2, 0
+fill:
+	add t2, t2, t1
+	sw t2, 0(t0)
+	addi t0, t0, 4
+	addi t1, t1, -1
+	bnez t1, fill
+	li a0, 64
+	li a7, 9 # sbrk
+	ecall
+	mv s0, a0
+	la t0, buffer
+	li t1, 16
+copy:
+	lw t3, 0(t0)
+	slli t3, t3, 1
+	sw t3, 0(a0)
+	addi t0, t0, 4
+	addi a0, a0, 4
+	addi t1, t1, -1
+	bnez t1, copy
+	lw t3, 60(s0)
+	li t4, 272 # 2 * (16 + 15 + ... + 1)
+	bne t3, t4, failure
+	li a0, 42
+	li a7, 93
+	ecall
+failure:
+	li a0, 0
+	li a7, 93
+	ecall
@@ -0,0 +1,32 @@
+.globl main
+.text
+main:
+	# Tests that instret and cycle count the instructions executed
+	rdinstret t0
+	li t2, 10
+loop:
+	addi t2, t2, -1
+	bnez t2, loop
+	rdinstret t1
+	sub t1, t1, t0
+	li t3, 22 # li, 10 times addi and bnez, rdinstret
+	bne t1, t3, failure
+	rdcycle t0
+	rdcycle t1
+	sub t1, t1, t0
+	li t3, 1
+	bne t1, t3, failure
+	rdinstreth t0
+	bnez t0, failure
+	rdtime t0
+	rdtime t1
+	bltu t1, t0, failure
+success:
+	li a0, 42
+	li a7, 93
+	ecall
+
+failure:
+	li a0, 0
+	li a7, 93
+	ecall
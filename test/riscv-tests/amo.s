@@ -0,0 +1,142 @@
+.data
+amo_operand:
+ .word 0
+
+.text
+main:
+  #-------------------------------------------------------------
+  # AMO tests
+  #-------------------------------------------------------------
+
+test_2:
+ la a3, amo_operand
+ li a0, 0x80000000
+ li a1, 0xfffff800
+ sw a0, 0(a3)
+ amoadd.w a4, a1, (a3)
+ li x29, 0x80000000
+ li gp, 2
+ bne a4, x29, fail
+
+test_3:
+ lw a5, 0(a3)
+ li x29, 0x7ffff800
+ li gp, 3
+ bne a5, x29, fail
+
+test_4:
+ li a1, 0xaaaaaaaa
+ amoswap.w a4, a1, (a3)
+ li x29, 0x7ffff800
+ li gp, 4
+ bne a4, x29, fail
+
+test_5:
+ lw a5, 0(a3)
+ li x29, 0xaaaaaaaa
+ li gp, 5
+ bne a5, x29, fail
+
+test_6:
+ li a1, 0x0f0f0f0f
+ amoand.w a4, a1, (a3)
+ lw a5, 0(a3)
+ li x29, 0x0a0a0a0a
+ li gp, 6
+ bne a5, x29, fail
+
+test_7:
+ li a1, 0x50505050
+ amoor.w a4, a1, (a3)
+ lw a5, 0(a3)
+ li x29, 0x5a5a5a5a
+ li gp, 7
+ bne a5, x29, fail
+
+test_8:
+ li a1, 0xffffffff
+ amoxor.w a4, a1, (a3)
+ lw a5, 0(a3)
+ li x29, 0xa5a5a5a5
+ li gp, 8
+ bne a5, x29, fail
+
+test_9:
+ li a1, 1
+ amomin.w a4, a1, (a3)
+ lw a5, 0(a3)
+ li x29, 0xa5a5a5a5
+ li gp, 9
+ bne a5, x29, fail
+
+test_10:
+ amominu.w a4, a1, (a3)
+ lw a5, 0(a3)
+ li x29, 1
+ li gp, 10
+ bne a5, x29, fail
+
+test_11:
+ li a1, -1
+ amomax.w a4, a1, (a3)
+ lw a5, 0(a3)
+ li x29, 1
+ li gp, 11
+ bne a5, x29, fail
+
+test_12:
+ amomaxu.w a4, a1, (a3)
+ lw a5, 0(a3)
+ li x29, -1
+ li gp, 12
+ bne a5, x29, fail
+
+  #-------------------------------------------------------------
+  # LR/SC tests
+  #-------------------------------------------------------------
+
+test_13:
+ li a1, 5
+ sw a1, 0(a3)
+ lr.w a4, (a3)
+ addi a4, a4, 1
+ sc.w a5, a4, (a3)
+ li gp, 13
+ bnez a5, fail
+
+test_14:
+ lw a5, 0(a3)
+ li x29, 6
+ li gp, 14
+ bne a5, x29, fail
+
+test_15:
+ # the reservation was used up by the first sc.w
+ sc.w a5, a4, (a3)
+ li x29, 1
+ li gp, 15
+ bne a5, x29, fail
+
+test_16:
+ # a reservation is only good for the address it was made on
+ lr.w a4, (a3)
+ addi a2, a3, 4
+ sc.w a5, a4, (a2)
+ li x29, 1
+ li gp, 16
+ bne a5, x29, fail
+
+test_17:
+ rdhartid a5
+ li gp, 17
+ bnez a5, fail
+
+pass:
+ li a0, 42
+ li a7, 93
+ ecall
+
+fail:
+ li a0, 0
+ li a7, 93
+ ecall